@@ -0,0 +1,299 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import common.Common;
+import graph.Edge;
+import graph.Graph;
+import process.ParseData;
+import process.Road;
+import process.ServiceCalendar;
+import process.Stop;
+import process.StopTime;
+import request.Astar;
+import request.Request;
+
+/**
+ * Benchmarks of the main steps of the application on a generated GTFS network:
+ * ParseData.parseMain, Graph.createGraph, Astar.shortestPathEdges on a fixed set
+ * of queries and Request.view.
+ * Each benchmark is run for a few warmup iterations, then measured over several
+ * iterations of a fixed duration; the score is the average time per operation and
+ * its error the half-width of a 99.9% confidence interval over the iterations.
+ * The results can be written as JSON (same fields as the JMH result files) or CSV
+ * to compare versions.
+ *
+ * Usage: java BenchmarkSuite [-size=30] [-warmup=3] [-iterations=5] [-time=1000]
+ *        [-fixture=dir] [-json=file] [-csv=file]
+ */
+class BenchmarkSuite {
+    // A wednesday of the fixture calendar
+    private static final String WEEKDAY = FixtureGenerator.CALENDAR_YEAR + "0715";
+    // Origin, destination and departure time of the routing benchmarks
+    private static final String[][] QUERIES = {
+        {"STIB", "0", "0", "TEC", "-1", "-1", "06:00:00"},
+        {"DELIJN", "0", "-1", "SNCB", "-1", "0", "07:30:00"},
+        {"SNCB", "-1", "-1", "STIB", "0", "-1", "08:15:00"},
+        {"TEC", "0", "0", "DELIJN", "-1", "-1", "12:00:00"},
+        {"STIB", "-2", "3", "STIB", "3", "-2", "17:45:00"},
+    };
+
+    // Keeps the results alive so the measured code is not optimized away
+    static volatile Object sink;
+
+    int warmup = 3;
+    int iterations = 5;
+    long iterationMillis = 1000;
+    int size = 30;
+    List<Result> results = new ArrayList<>();
+
+    /**
+     * The score of one benchmark.
+     */
+    static class Result {
+        String name;
+        String params;
+        // Nodes settled by the measured search, -1 if it is not a search
+        int settled;
+        int count;
+        double score;
+        double error;
+
+        Result(String name, String params, int settled, double[] samples) {
+            this.name = name;
+            this.params = params;
+            this.settled = settled;
+            this.count = samples.length;
+            double sum = 0;
+            for (double sample : samples) sum += sample;
+            this.score = sum / count;
+            double variance = 0;
+            for (double sample : samples) variance += (sample - score) * (sample - score);
+            variance = count > 1 ? variance / (count - 1) : 0;
+            this.error = 3.291 * Math.sqrt(variance / count);
+        }
+    }
+
+    /**
+     * An operation to measure; its result is kept in sink.
+     */
+    interface Operation {
+        Object run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkSuite suite = new BenchmarkSuite();
+        String fixture = null;
+        String json = null;
+        String csv = null;
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("-size=")) suite.size = Integer.parseInt(value);
+            else if (arg.startsWith("-warmup=")) suite.warmup = Integer.parseInt(value);
+            else if (arg.startsWith("-iterations=")) suite.iterations = Integer.parseInt(value);
+            else if (arg.startsWith("-time=")) suite.iterationMillis = Long.parseLong(value);
+            else if (arg.startsWith("-fixture=")) fixture = value;
+            else if (arg.startsWith("-json=")) json = value;
+            else if (arg.startsWith("-csv=")) csv = value;
+            else {
+                System.out.println("Option inconnue : " + arg);
+                System.exit(1);
+            }
+        }
+
+        File dir = fixture != null ? new File(fixture) : new File(System.getProperty("java.io.tmpdir"), "gtfs-bench-" + suite.size);
+        if (fixture == null || !new File(dir, "STIB").isDirectory()) {
+            FixtureGenerator.generate(dir, suite.size);
+        }
+        suite.runAll(dir);
+
+        suite.printTable();
+        if (json != null) suite.writeJson(json);
+        if (csv != null) suite.writeCsv(csv);
+    }
+
+    void runAll(File dir) throws Exception {
+        List<String[]> agencies = new ArrayList<>();
+        for (String agency : FixtureGenerator.AGENCIES) {
+            String base = new File(dir, agency).getPath() + File.separator;
+            agencies.add(new String[] {base + "routes.csv", base + "stop_times.csv", base + "stops.csv", base + "trips.csv",
+                base + "calendar.csv", base + "calendar_dates.csv"});
+        }
+        String params = "size=" + size;
+
+        measure("ParseData.parseMain", params, () -> {
+            HashMap<String, Road> roadMap = new HashMap<>();
+            HashMap<String, String> tripMap = new HashMap<>();
+            HashMap<String, Stop> stopMap = new HashMap<>();
+            HashMap<String, StopTime> stopTimeMap = new HashMap<>();
+            ServiceCalendar calendar = new ServiceCalendar();
+            ParseData parser = new ParseData();
+            for (String[] paths : agencies) {
+                parser.parseMain(paths, roadMap, tripMap, stopMap, stopTimeMap, calendar);
+            }
+            return stopTimeMap;
+        });
+
+        HashMap<String, Road> roadMap = new HashMap<>();
+        HashMap<String, String> tripMap = new HashMap<>();
+        HashMap<String, Stop> stopMap = new HashMap<>();
+        HashMap<String, StopTime> stopTimeMap = new HashMap<>();
+        ServiceCalendar calendar = new ServiceCalendar();
+        new ParseData().parseAll(agencies, roadMap, tripMap, stopMap, stopTimeMap, calendar);
+
+        measure("Graph.createGraph", params, () -> {
+            Graph graph = new Graph(roadMap, tripMap, stopMap, stopTimeMap, calendar);
+            quietly(graph::createGraph);
+            return graph;
+        });
+
+        Graph graph = new Graph(roadMap, tripMap, stopMap, stopTimeMap, calendar);
+        quietly(graph::createGraph);
+        List<String> optionLst = new ArrayList<>();
+
+        // Landmarks and the reverse view of -BIDIR are preprocessing, built outside of the timings
+        graph.getLandmarks();
+        graph.getReverseGraph();
+        // Every trip with each heuristic, then only the trips of a weekday, then the
+        // bidirectional search, whose settled nodes compare with those of -GEO
+        String[][] variants = {{"-GEO"}, {"-ALT"}, {"-GEO", "-DATE=" + WEEKDAY}, {"-GEO", "-BIDIR"}};
+        for (String[] variant : variants) {
+            List<String> variantOptions = List.of(variant);
+            String label = ",heuristic=" + variant[0].substring(1);
+            if (variant.length > 1) {
+                label += variant[1].startsWith("-DATE=") ? ",date=" + WEEKDAY : ",search=" + variant[1].substring(1);
+            }
+            for (String[] query : QUERIES) {
+                String start = stopName(query, 0);
+                String goal = stopName(query, 3);
+                float time = Common.HoraireToFloat(query[6]);
+                // Nodes settled by the query
+                Astar counted = new Astar(graph, start, goal, time, variantOptions);
+                quietly(counted::shortestPathEdges);
+                measure("Astar.shortestPathEdges", params + label + ",query=" + start + " -> " + goal + " " + query[6],
+                    counted.getSettledCount(), () -> new Astar(graph, start, goal, time, variantOptions).shortestPathEdges());
+            }
+        }
+
+        // Viewed with the first query that finds a path, if any does on this network
+        for (String[] query : QUERIES) {
+            Request request = new Request(stopName(query, 0), stopName(query, 3), query[6], graph, optionLst);
+            List<Edge> path = request.search();
+            if (path == null) continue;
+            measure("Request.view", params + ",query=" + stopName(query, 0) + " -> " + stopName(query, 3) + " " + query[6], () -> {
+                quietly(() -> request.view(path));
+                return path;
+            });
+            return;
+        }
+        System.err.println("Request.view [" + params + "] ignoré : aucune requête ne trouve de chemin");
+    }
+
+    /**
+     * Returns the name of the stop described by query[from..from+2]; negative
+     * coordinates count from the other side of the grid.
+     */
+    private String stopName(String[] query, int from) {
+        int i = Integer.parseInt(query[from + 1]);
+        int j = Integer.parseInt(query[from + 2]);
+        return FixtureGenerator.stopName(query[from], i < 0 ? size + i : i, j < 0 ? size + j : j);
+    }
+
+    void measure(String name, String params, Operation operation) throws Exception {
+        measure(name, params, -1, operation);
+    }
+
+    /**
+     * Measures an operation; settled, the work of a search, is reported next to the
+     * score and kept out of the parameters, so the results of two versions still match.
+     */
+    void measure(String name, String params, int settled, Operation operation) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            iteration(operation);
+        }
+        double[] samples = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            samples[i] = iteration(operation);
+        }
+        Result result = new Result(name, params, settled, samples);
+        results.add(result);
+        System.err.printf(Locale.ROOT, "%s [%s] %.3f ms/op%s\n", name, params, result.score,
+            settled < 0 ? "" : ", " + settled + " settled");
+    }
+
+    /**
+     * Runs the operation for at least iterationMillis (and at least once).
+     * @return the average time of one invocation, in milliseconds
+     */
+    private double iteration(Operation operation) throws Exception {
+        long measured = 0;
+        long operations = 0;
+        long deadline = System.nanoTime() + iterationMillis * 1_000_000;
+        do {
+            long startTime = System.nanoTime();
+            sink = operation.run();
+            measured += System.nanoTime() - startTime;
+            operations++;
+        } while (System.nanoTime() < deadline);
+        return measured / 1_000_000.0 / operations;
+    }
+
+    /**
+     * Runs code printing to System.out without its output.
+     */
+    private static void quietly(Runnable code) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            code.run();
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    void printTable() {
+        System.out.printf("%-25s %-75s %5s %12s %10s %-6s %8s\n", "Benchmark", "Params", "Cnt", "Score", "Error", "Units", "Settled");
+        for (Result result : results) {
+            System.out.printf(Locale.ROOT, "%-25s %-75s %5d %12.3f %10.3f %-6s %8s\n",
+                result.name, result.params, result.count, result.score, result.error, "ms/op",
+                result.settled < 0 ? "" : String.valueOf(result.settled));
+        }
+    }
+
+    void writeJson(String path) throws IOException {
+        try (PrintWriter out = new PrintWriter(path, "UTF-8")) {
+            out.println("[");
+            for (int i = 0; i < results.size(); i++) {
+                Result result = results.get(i);
+                out.printf(Locale.ROOT, "  {\"benchmark\": \"%s\", \"mode\": \"avgt\", \"warmupIterations\": %d, \"measurementIterations\": %d, "
+                    + "\"measurementTime\": \"%d ms\", \"params\": \"%s\", \"primaryMetric\": {\"score\": %.6f, \"scoreError\": %.6f, \"scoreUnit\": \"ms/op\"}%s}%s\n",
+                    escape(result.name), warmup, result.count, iterationMillis, escape(result.params),
+                    result.score, result.error,
+                    result.settled < 0 ? "" : ", \"secondaryMetrics\": {\"settled\": {\"score\": " + result.settled + ", \"scoreUnit\": \"nodes\"}}",
+                    i + 1 < results.size() ? "," : "");
+            }
+            out.println("]");
+        }
+    }
+
+    void writeCsv(String path) throws IOException {
+        try (PrintWriter out = new PrintWriter(path, "UTF-8")) {
+            out.println("\"Benchmark\",\"Params\",\"Mode\",\"Cnt\",\"Score\",\"Score Error (99.9%)\",\"Unit\",\"Settled\"");
+            for (Result result : results) {
+                out.printf(Locale.ROOT, "\"%s\",\"%s\",\"avgt\",%d,%.6f,%.6f,\"ms/op\",%s\n",
+                    result.name, result.params.replace("\"", "\"\""), result.count, result.score, result.error,
+                    result.settled < 0 ? "" : String.valueOf(result.settled));
+            }
+        }
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
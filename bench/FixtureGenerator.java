@@ -0,0 +1,105 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Writes a synthetic GTFS network with the layout read by ParseData
+ * (routes.csv, stop_times.csv, stops.csv, trips.csv, calendar.csv and
+ * calendar_dates.csv for each agency).
+ * Each agency is a size x size grid of stops, shifted so the grids overlap
+ * and can be reached on foot from each other, crossed by one line per row and
+ * one per column, with 20 trips per line in alternating directions. A third of
+ * the trips run on weekends (service WE), the others on weekdays (service WK),
+ * during CALENDAR_YEAR, with the national holiday run as a weekend day.
+ * The random generator is seeded, so the same size always gives the same files.
+ */
+class FixtureGenerator {
+    static final String[] AGENCIES = {"DELIJN", "STIB", "SNCB", "TEC"};
+    private static final String[] TYPES = {"BUS", "METRO", "TRAIN", "TRAM"};
+    private static final int TRIPS_PER_LINE = 20;
+    private static final double STEP = 0.006;
+    private static final long SEED = 42;
+    static final int CALENDAR_YEAR = 2026;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java FixtureGenerator <dossier> <taille>");
+            System.exit(1);
+        }
+        generate(new File(args[0]), Integer.parseInt(args[1]));
+    }
+
+    /**
+     * Generates the network into dir/AGENCY/*.csv.
+     * @param dir the output directory
+     * @param size the number of stops on each side of the grid of an agency
+     */
+    static void generate(File dir, int size) throws IOException {
+        Random random = new Random(SEED);
+        for (int agency = 0; agency < AGENCIES.length; agency++) {
+            String name = AGENCIES[agency];
+            File agencyDir = new File(dir, name);
+            if (!agencyDir.isDirectory() && !agencyDir.mkdirs()) {
+                throw new IOException("Impossible de créer " + agencyDir);
+            }
+
+            double lat0 = 50.5 + agency * 0.1;
+            double lon0 = 4.0 + agency * 0.1;
+            try (PrintWriter stops = new PrintWriter(new File(agencyDir, "stops.csv"))) {
+                stops.println("stop_id,stop_name,stop_lat,stop_lon");
+                for (int i = 0; i < size; i++) {
+                    for (int j = 0; j < size; j++) {
+                        stops.printf(Locale.ROOT, "%s-%d-%d,\"%s\",%.6f,%.6f%n",
+                            name, i, j, stopName(name, i, j), lat0 + i * STEP, lon0 + j * STEP);
+                    }
+                }
+            }
+
+            try (PrintWriter calendar = new PrintWriter(new File(agencyDir, "calendar.csv"));
+                 PrintWriter calendarDates = new PrintWriter(new File(agencyDir, "calendar_dates.csv"))) {
+                calendar.println("service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date");
+                calendar.printf("WK,1,1,1,1,1,0,0,%d0101,%d1231%n", CALENDAR_YEAR, CALENDAR_YEAR);
+                calendar.printf("WE,0,0,0,0,0,1,1,%d0101,%d1231%n", CALENDAR_YEAR, CALENDAR_YEAR);
+                calendarDates.println("service_id,date,exception_type");
+                calendarDates.printf("WK,%d0721,2%n", CALENDAR_YEAR);
+                calendarDates.printf("WE,%d0721,1%n", CALENDAR_YEAR);
+            }
+
+            try (PrintWriter routes = new PrintWriter(new File(agencyDir, "routes.csv"));
+                 PrintWriter trips = new PrintWriter(new File(agencyDir, "trips.csv"));
+                 PrintWriter stopTimes = new PrintWriter(new File(agencyDir, "stop_times.csv"))) {
+                routes.println("route_id,route_short_name,route_long_name,route_type");
+                trips.println("trip_id,route_id,service_id");
+                stopTimes.println("trip_id,departure_time,stop_id,stop_sequence");
+                int tripCount = 0;
+                // Lines 0..size-1 follow a row of the grid, the next ones a column
+                for (int line = 0; line < 2 * size; line++) {
+                    String routeId = name + "-R" + line;
+                    routes.printf("%s,%d,\"Line %d\",%s%n", routeId, line, line, TYPES[agency]);
+                    for (int k = 0; k < TRIPS_PER_LINE; k++) {
+                        int time = 5 * 3600 + k * 45 * 60 + random.nextInt(600);
+                        boolean reverse = k % 2 == 1;
+                        String tripId = name + "-T" + tripCount++;
+                        trips.printf("%s,%s,%s%n", tripId, routeId, k % 3 == 0 ? "WE" : "WK");
+                        for (int position = 0; position < size; position++) {
+                            int q = reverse ? size - 1 - position : position;
+                            String stopId = line < size ? name + "-" + line + "-" + q : name + "-" + q + "-" + (line - size);
+                            stopTimes.printf("%s,%02d:%02d:%02d,%s,%d%n",
+                                tripId, time / 3600, (time / 60) % 60, time % 60, stopId, position + 1);
+                            time += 60 + random.nextInt(120);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the name of the stop (i, j) of an agency, as written in stops.csv.
+     */
+    static String stopName(String agency, int i, int j) {
+        return "Stop " + agency + " " + i + ", " + j;
+    }
+}
@@ -0,0 +1,86 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+import process.CsvTokenizer;
+
+/**
+ * Compares the rows per second of the former line-based CSV parsing (readLine, then
+ * a regex split and quote stripping) with the byte-level CsvTokenizer, on the GTFS
+ * files given on the command line (by default the stop_times of every agency).
+ * Every row is fully converted in both cases: ids, time in minutes and stop sequence.
+ */
+class TokenizerBenchmark {
+    private static final int WARMUP = 3;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws IOException {
+        String[] paths = args.length > 0 ? args : new String[] {
+            "GTFS/DELIJN/stop_times.csv", "GTFS/STIB/stop_times.csv",
+            "GTFS/SNCB/stop_times.csv", "GTFS/TEC/stop_times.csv"};
+
+        for (int i = 0; i < WARMUP; i++) {
+            lineBased(paths);
+            tokenizer(paths);
+        }
+
+        long lineRows = 0, tokenRows = 0;
+        long lineNanos = 0, tokenNanos = 0;
+        for (int i = 0; i < RUNS; i++) {
+            long startTime = System.nanoTime();
+            lineRows += lineBased(paths);
+            lineNanos += System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            tokenRows += tokenizer(paths);
+            tokenNanos += System.nanoTime() - startTime;
+        }
+
+        double lineRate = lineRows / (lineNanos / 1_000_000_000.0);
+        double tokenRate = tokenRows / (tokenNanos / 1_000_000_000.0);
+        System.out.printf("%-12s %12s %14s\n", "Parser", "rows", "rows/sec");
+        System.out.printf("%-12s %12d %14.0f\n", "readLine", lineRows / RUNS, lineRate);
+        System.out.printf("%-12s %12d %14.0f\n", "tokenizer", tokenRows / RUNS, tokenRate);
+        System.out.printf("Speedup: x%.2f\n", tokenRate / lineRate);
+    }
+
+    private static long lineBased(String[] paths) throws IOException {
+        long rows = 0;
+        float checksum = 0;
+        for (String path : paths) {
+            try (BufferedReader br = new BufferedReader(new FileReader(path))) {
+                String line;
+                br.readLine(); // Skip header line
+                while ((line = br.readLine()) != null) {
+                    String[] data = line.split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)");
+                    for (int i = 0; i < data.length; i++) {
+                        data[i] = data[i].replaceAll("^\"|\"$", "");
+                    }
+                    String[] parts = data[1].split(":");
+                    checksum += Integer.parseInt(parts[0]) * 60 + Integer.parseInt(parts[1]) + Integer.parseInt(parts[2]) / 60f;
+                    checksum += Integer.parseInt(data[3]) + data[0].length() + data[2].length();
+                    rows++;
+                }
+            }
+        }
+        if (checksum == -1) System.out.println(checksum);
+        return rows;
+    }
+
+    private static long tokenizer(String[] paths) throws IOException {
+        long rows = 0;
+        float checksum = 0;
+        for (String path : paths) {
+            try (CsvTokenizer tok = new CsvTokenizer(path)) {
+                tok.nextRow(); // Skip header line
+                while (tok.nextRow()) {
+                    checksum += tok.getTimeMinutes(1);
+                    checksum += tok.getInt(3) + tok.getInterned(0).length() + tok.getInterned(2).length();
+                    rows++;
+                }
+            }
+        }
+        if (checksum == -1) System.out.println(checksum);
+        return rows;
+    }
+}
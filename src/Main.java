@@ -1,20 +1,56 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
+import javax.management.JMException;
+
+import common.Common;
 import graph.Graph;
+import graph.Snapshot;
+import graph.Transfers;
+import metrics.JmxExporter;
+import metrics.Metrics;
+import metrics.MetricsRegistry;
+import metrics.TextExporter;
 import process.ParseData;
 import process.Road;
+import process.ServiceCalendar;
 import process.Stop;
 import process.StopTime;
 
+import request.EngineComparison;
 import request.Request;
+import request.ResultCache;
+import request.TravelTimeMatrix;
+import server.RoutingServer;
 
 class Main {
+    static final String SNAPSHOT = "GTFS/network.snapshot";
+    static final String TRANSFERS = "GTFS/transfers.cache";
+
     public static void main(String[] args) {
 
+        if (args.length >= 1 && args[0].equals("-SERVER")) {
+            startServer(args);
+            return;
+        }
+
+        if (args.length >= 1 && args[0].equals("-MATRIX")) {
+            computeMatrix(args);
+            return;
+        }
+
         if (args.length < 3) {
             System.out.println("Usage: java Main <start> <goal> <heure> [options]");
+            System.out.println("       java Main -SERVER [-PORT=n] [-THREADS=n] [-NOSNAPSHOT] [-WALK=min] [-REALTIME=fichier] [-JMX] [-CACHE=n]");
+            System.out.println("       java Main -MATRIX <sources> <targets> <heure> [-DATE=YYYYMMDD] [-OUT=fichier]");
             System.exit(1);
         }
 
@@ -28,82 +64,382 @@ class Main {
             optionLst.add(args[i]);
         }
 
+        try {
+            Request.getDate(optionLst);
+            Request.getWindowEnd(optionLst);
+            getWalkingBudget(optionLst);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+
+        // -METRICS prints the time of each phase and the work of the search at the end
+        MetricsRegistry metrics = optionLst.contains("-METRICS") ? new MetricsRegistry() : null;
+        Graph graph = loadGraph(optionLst, metrics == null ? Metrics.NONE : metrics);
+        try {
+            graph.checkStopName(start);
+            graph.checkStopName(goal);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+        long startTime;
+        long endTime;
+        long duration;
+        double durationInSec;
+        double durationInMilli;
+
+        if (optionLst.contains("-COMPARE")) {
+            System.out.println("-------------------------------------\n     Comparison of the engines\n-------------------------------------");
+            List<String[]> queries = new ArrayList<>();
+            queries.add(new String[] {start, goal, horraire});
+            EngineComparison.compare(graph, queries, optionLst);
+            printMetrics(metrics);
+            return;
+        }
+
+        System.out.println("-------------------------------------\n       Start of the request\n-------------------------------------");
+        startTime = System.nanoTime();
+
+        Request request = new Request(start, goal, horraire, graph, optionLst);
+        List<graph.Edge> path = request.doRequest();
+        
+        endTime = System.nanoTime();    
+        duration = endTime - startTime; 
+        
+        durationInSec = duration / 1_000_000_000.0;
+        durationInMilli = duration / 1_000_000.0;
+
+        System.out.printf("- Request done in %.9f sec.\n", durationInSec);
+        System.out.printf("- Request done in %.9f miliSec.\n", durationInMilli);
+
+        System.out.println("-------------------------------------\n            Shortest path\n-------------------------------------");
+        if (path != null) {
+            request.view(path);
+            request.viewAlternatives();
+        }
+
+        System.out.println(" ");
+        printMetrics(metrics);
+    }
+
+    private static void printMetrics(MetricsRegistry metrics) {
+        if (metrics == null) return;
+        System.out.println("-------------------------------------\n               Metrics\n-------------------------------------");
+        TextExporter.export(metrics, System.out);
+    }
+
+    /**
+     * Loads the network: from the snapshot when it is newer than the GTFS files,
+     * otherwise by parsing the GTFS files and building the graph (then saved as snapshot).
+     * The whole day is loaded, so the same network answers queries at any time.
+     * The time of each phase is reported to the metrics, which the graph then keeps.
+     * The walking transfers are cached in their own file, so a network whose stops did
+     * not change gets them back even when its timetable has to be parsed again.
+     * The trip updates of the -REALTIME feed are then applied to the loaded network.
+     * @param optionLst the user options (-NOSNAPSHOT, -WALK, -REALTIME)
+     * @param metrics where to report the timings
+     */
+    static Graph loadGraph(List<String> optionLst, Metrics metrics) {
         HashMap<String, Road> roadMap = new HashMap<>();
         HashMap<String, String> tripMap = new HashMap<>(); 
         HashMap<String, Stop> stopMap = new HashMap<>();
         HashMap<String, StopTime> stopTimeMap = new HashMap<>();
+        ServiceCalendar calendar = new ServiceCalendar();
 
         String[] deLijn = {"GTFS/DELIJN/routes.csv", 
                            "GTFS/DELIJN/stop_times.csv", 
                            "GTFS/DELIJN/stops.csv", 
-                           "GTFS/DELIJN/trips.csv"};
+                           "GTFS/DELIJN/trips.csv",
+                           "GTFS/DELIJN/calendar.csv",
+                           "GTFS/DELIJN/calendar_dates.csv"};
         
         String[] stib = {"GTFS/STIB/routes.csv", 
                          "GTFS/STIB/stop_times.csv", 
                          "GTFS/STIB/stops.csv", 
-                         "GTFS/STIB/trips.csv"};
+                         "GTFS/STIB/trips.csv",
+                         "GTFS/STIB/calendar.csv",
+                         "GTFS/STIB/calendar_dates.csv"};
 
         String[] sncb = {"GTFS/SNCB/routes.csv", 
                          "GTFS/SNCB/stop_times.csv", 
                          "GTFS/SNCB/stops.csv", 
-                         "GTFS/SNCB/trips.csv"};
+                         "GTFS/SNCB/trips.csv",
+                         "GTFS/SNCB/calendar.csv",
+                         "GTFS/SNCB/calendar_dates.csv"};
 
         String[] tec = {"GTFS/TEC/routes.csv", 
                          "GTFS/TEC/stop_times.csv", 
                          "GTFS/TEC/stops.csv", 
-                         "GTFS/TEC/trips.csv"};
+                         "GTFS/TEC/trips.csv",
+                         "GTFS/TEC/calendar.csv",
+                         "GTFS/TEC/calendar_dates.csv"};
 
-        System.out.println("-------------------------------------\n  Start of data object conversion\n-------------------------------------");
-        long startTime = System.nanoTime();
+        // Use the binary snapshot of the network when it is newer than the GTFS files
+        File snapshot = new File(SNAPSHOT);
+        List<String> sources = new ArrayList<>();
+        for (String[] agency : List.of(deLijn, stib, sncb, tec)) {
+            sources.addAll(List.of(agency));
+        }
 
-        ParseData parselesdatas = new ParseData();
-        parselesdatas.parseMain(deLijn, roadMap, tripMap, stopMap, stopTimeMap, horraire);
-        parselesdatas.parseMain(stib, roadMap, tripMap, stopMap, stopTimeMap, horraire);
-        parselesdatas.parseMain(sncb, roadMap, tripMap, stopMap, stopTimeMap, horraire);
-        parselesdatas.parseMain(tec, roadMap, tripMap, stopMap, stopTimeMap, horraire);
+        Graph graph = null;
+        long startTime;
+        long endTime;
+        long duration;
+        double durationInSec;
+        double durationInMilli;
 
-        long endTime = System.nanoTime();    
-        long duration = endTime - startTime; 
-        
-        double durationInSec = duration / 1_000_000_000;
-        double durationInMilli = duration / 1_000_000;
+        if (!optionLst.contains("-NOSNAPSHOT") && Snapshot.isNewerThan(snapshot, sources)) {
+            System.out.println("-------------------------------------\n       Loading of the snapshot\n-------------------------------------");
+            startTime = System.nanoTime();
+            try {
+                graph = Snapshot.read(snapshot);
+            } catch (IOException e) {
+                System.err.println("Snapshot illisible, les données vont être relues : " + e.getMessage());
+            }
+            endTime = System.nanoTime();
+            duration = endTime - startTime;
 
-        System.out.printf("- Data parsed in %.9f sec.\n", durationInSec);
-        System.out.printf("- Data parsed in %.9f miliSec.\n", durationInMilli);
+            durationInSec = duration / 1_000_000_000.0;
+            durationInMilli = duration / 1_000_000.0;
 
-        System.out.println("-------------------------------------\n Start of the creation of the graph\n-------------------------------------");
-        startTime = System.nanoTime();
+            if (graph != null && graph.getWalkingBudget() != getWalkingBudget(optionLst)) {
+                System.out.println("- Snapshot built with other walking transfers, the data will be read again");
+                graph = null;
+            }
+            if (graph != null) {
+                System.out.printf("- Snapshot loaded in %.9f sec.\n", durationInSec);
+                System.out.printf("- Snapshot loaded in %.9f miliSec.\n", durationInMilli);
+                metrics.observe("phase.snapshot_ms", durationInMilli);
+            }
+        }
 
-        Graph graph = new Graph(roadMap, tripMap, stopMap, stopTimeMap);
-        graph.createGraph();
+        if (graph == null) {
+            System.out.println("-------------------------------------\n  Start of data object conversion\n-------------------------------------");
+            startTime = System.nanoTime();
 
-        endTime = System.nanoTime();    
-        duration = endTime - startTime; 
+            ParseData parselesdatas = new ParseData();
+            parselesdatas.parseAll(List.of(deLijn, stib, sncb, tec), roadMap, tripMap, stopMap, stopTimeMap, calendar);
+
+            endTime = System.nanoTime();    
+            duration = endTime - startTime; 
         
-        durationInSec = duration / 1_000_000_000;
-        durationInMilli = duration / 1_000_000;
+            durationInSec = duration / 1_000_000_000.0;
+            durationInMilli = duration / 1_000_000.0;
 
-        System.out.printf("- Graph created in %.9f sec.\n", durationInSec);
-        System.out.printf("- Graph created in %.9f miliSec.\n", durationInMilli);
+            System.out.printf("- Data parsed in %.9f sec.\n", durationInSec);
+            System.out.printf("- Data parsed in %.9f miliSec.\n", durationInMilli);
+            metrics.observe("phase.parse_ms", durationInMilli);
 
-        System.out.println("-------------------------------------\n       Start of the request\n-------------------------------------");
-        startTime = System.nanoTime();
+            System.out.println("-------------------------------------\n Start of the creation of the graph\n-------------------------------------");
+            startTime = System.nanoTime();
 
-        Request request = new Request(start, goal, horraire, graph, optionLst);
-        List<graph.Edge> path = request.doRequest();
-        
-        endTime = System.nanoTime();    
-        duration = endTime - startTime; 
+            graph = new Graph(roadMap, tripMap, stopMap, stopTimeMap, calendar);
+            graph.setWalkingBudget(getWalkingBudget(optionLst));
+            graph.createGraph(true, optionLst.contains("-NOSNAPSHOT") ? null : new File(TRANSFERS));
+
+            endTime = System.nanoTime();    
+            duration = endTime - startTime; 
         
-        durationInSec = duration / 1_000_000_000;
-        durationInMilli = duration / 1_000_000;
+            durationInSec = duration / 1_000_000_000.0;
+            durationInMilli = duration / 1_000_000.0;
 
-        System.out.printf("- Request done in %.9f sec.\n", durationInSec);
-        System.out.printf("- Request done in %.9f miliSec.\n", durationInMilli);
+            System.out.printf("- Graph created in %.9f sec.\n", durationInSec);
+            System.out.printf("- Graph created in %.9f miliSec.\n", durationInMilli);
+            metrics.observe("phase.build_ms", durationInMilli);
 
-        System.out.println("-------------------------------------\n            Shortest path\n-------------------------------------");
-        request.view(path);
+            try {
+                Snapshot.write(snapshot, graph);
+            } catch (IOException e) {
+                System.err.println("Impossible d'écrire le snapshot : " + e.getMessage());
+            }
+        }
 
-        System.out.println(" ");
+        graph.setMetrics(metrics);
+        String feed = getRealtimeFeed(optionLst);
+        if (feed != null) {
+            try {
+                graph = graph.withUpdates(new ParseData().parseTripUpdates(feed));
+            } catch (IOException e) {
+                System.err.println("Flux temps réel illisible, les horaires prévus sont utilisés : " + e.getMessage());
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Reads the -REALTIME=file option, the trip updates feed applied to the network.
+     * @return the path of the feed, or null if the option is absent
+     */
+    static String getRealtimeFeed(List<String> optionLst) {
+        for (String option : optionLst) {
+            if (option.startsWith("-REALTIME=")) return option.substring("-REALTIME=".length());
+        }
+        return null;
+    }
+
+    /**
+     * Reads the -WALK=minutes option, the longest walking transfer.
+     * @return the budget in minutes, Transfers.DEFAULT_BUDGET if the option is absent
+     * @throws IllegalArgumentException if the duration is invalid
+     */
+    static float getWalkingBudget(List<String> optionLst) {
+        for (String option : optionLst) {
+            if (option.startsWith("-WALK=")) {
+                try {
+                    float minutes = Float.parseFloat(option.substring("-WALK=".length()));
+                    if (minutes >= 0 && !Float.isInfinite(minutes)) return minutes;
+                } catch (NumberFormatException e) {
+                    // Reported below
+                }
+                throw new IllegalArgumentException("Durée de marche invalide : " + option);
+            }
+        }
+        return Transfers.DEFAULT_BUDGET;
+    }
+
+    /**
+     * Computes the arrival times from every source stop to every target stop and
+     * writes them as CSV: one row per source, one column per target, an empty cell
+     * when the target cannot be reached. The source and target files hold one stop
+     * name per line.
+     */
+    private static void computeMatrix(String[] args) {
+        if (args.length < 4) {
+            System.out.println("Usage: java Main -MATRIX <sources> <targets> <heure> [-DATE=YYYYMMDD] [-OUT=fichier]");
+            System.exit(1);
+        }
+        List<String> optionLst = new ArrayList<>();
+        for (int i = 4; i < args.length; i++) {
+            optionLst.add(args[i]);
+        }
+        String output = "matrix.csv";
+        for (String option : optionLst) {
+            if (option.startsWith("-OUT=")) output = option.substring("-OUT=".length());
+        }
+
+        List<String> sources;
+        List<String> targets;
+        float time;
+        try {
+            sources = readStopNames(args[1]);
+            targets = readStopNames(args[2]);
+            time = Common.HoraireToFloat(args[3]);
+            Request.getDate(optionLst);
+            getWalkingBudget(optionLst);
+        } catch (IOException e) {
+            System.out.println("Fichier illisible : " + e.getMessage());
+            System.exit(1);
+            return;
+        } catch (RuntimeException e) {
+            System.out.println("Paramètre invalide : " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        Graph graph = loadGraph(optionLst, Metrics.NONE);
+        try {
+            for (String source : sources) graph.checkStopName(source);
+            for (String target : targets) graph.checkStopName(target);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+        TravelTimeMatrix matrix = new TravelTimeMatrix(graph);
+
+        System.out.println("-------------------------------------\n    Computation of the matrix\n-------------------------------------");
+        long startTime = System.nanoTime();
+        float[][] arrivals = matrix.compute(sources, targets, time, Request.getDate(optionLst));
+        long duration = System.nanoTime() - startTime;
+        System.out.printf("- %d x %d matrix computed in %.9f sec.\n", sources.size(), targets.size(), duration / 1_000_000_000.0);
+
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8))) {
+            StringBuilder line = new StringBuilder("source");
+            for (String target : targets) line.append(',').append(csvField(target));
+            out.println(line);
+            for (int s = 0; s < sources.size(); s++) {
+                line.setLength(0);
+                line.append(csvField(sources.get(s)));
+                for (float arrival : arrivals[s]) {
+                    line.append(',');
+                    if (arrival >= 0) line.append(Common.floatToHoraire(arrival));
+                }
+                out.println(line);
+            }
+        } catch (IOException e) {
+            System.err.println("Impossible d'écrire la matrice : " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("- Matrix written to " + output);
+    }
+
+    private static List<String> readStopNames(String path) throws IOException {
+        List<String> names = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8)) {
+            if (!line.isBlank()) names.add(line.strip());
+        }
+        return names;
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0) return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Loads the network once and answers the routing
+     * queries over HTTP until the process is stopped.
+     * -CACHE=n keeps the answers of the last n distinct queries (0 disables the cache).
+     * With -REALTIME=file, POST /realtime applies the trip updates of the file again.
+     */
+    private static void startServer(String[] args) {
+        List<String> optionLst = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            optionLst.add(args[i]);
+        }
+        int port = RoutingServer.DEFAULT_PORT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int cacheSize = ResultCache.DEFAULT_CAPACITY;
+        try {
+            for (String option : optionLst) {
+                if (option.startsWith("-PORT=")) port = Integer.parseInt(option.substring("-PORT=".length()));
+                if (option.startsWith("-THREADS=")) threads = Integer.parseInt(option.substring("-THREADS=".length()));
+                if (option.startsWith("-CACHE=")) cacheSize = Integer.parseInt(option.substring("-CACHE=".length()));
+            }
+            getWalkingBudget(optionLst);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Option invalide : " + e.getMessage());
+            System.exit(1);
+        }
+
+        // Every departure of the day is kept, the time is given by each query
+        MetricsRegistry metrics = new MetricsRegistry();
+        Graph graph = loadGraph(optionLst, metrics);
+        if (optionLst.contains("-JMX")) {
+            try {
+                JmxExporter.register(metrics);
+            } catch (JMException e) {
+                System.err.println("Impossible d'exposer les métriques en JMX : " + e.getMessage());
+            }
+        }
+        ResultCache cache = cacheSize > 0 ? new ResultCache(cacheSize, ResultCache.DEFAULT_BUCKET_SECONDS) : null;
+        RoutingServer server = new RoutingServer(graph, port, threads, metrics, cache);
+        server.setLoader(() -> loadGraph(optionLst, metrics));
+        String feed = getRealtimeFeed(optionLst);
+        if (feed != null) {
+            server.setRealtimeFeed(() -> {
+                try {
+                    return new ParseData().parseTripUpdates(feed);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        try {
+            server.start();
+        } catch (IOException e) {
+            System.err.println("Impossible de démarrer le serveur : " + e.getMessage());
+            System.exit(1);
+        }
     }
-}
\ No newline at end of file
+}
@@ -4,6 +4,8 @@ package common;
  * Utility class for converting between time strings ("HH:mm:ss") and float values representing minutes.
  */
 public class Common {
+    public static final double EARTH_RADIUS_KM = 6371.0088;
+
     /**
      * Converts a time string in the format "HH:mm:ss" to a float representing the total number of minutes.
      * Example: "02:10:30" → 130.5
@@ -29,4 +31,37 @@ public class Common {
         int seconds = (int) ((time - hours * 60 - minutes) * 60);
         return String.format("%02d:%02d:%02d", hours, minutes, seconds);
     }
+
+    /**
+     * Converts a number of seconds after midnight to minutes, with the same rounding
+     * as HoraireToFloat on the equivalent "HH:mm:ss".
+     * Example: 7830 → 130.5
+     */
+    public static float secondsToFloat(int seconds) {
+        return (seconds / 3600) * 60 + (seconds / 60) % 60 + (seconds % 60) / 60f;
+    }
+
+    /**
+     * Converts a number of seconds after midnight to "HH:mm:ss" (hours may go past 24).
+     * Example: 7830 → "02:10:30"
+     */
+    public static String secondsToHoraire(int seconds) {
+        return String.format("%02d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+
+    /**
+     * Great-circle distance between two points, with the haversine formula.
+     * @param lat1 latitude of the first point, in degrees
+     * @param lon1 longitude of the first point, in degrees
+     * @param lat2 latitude of the second point, in degrees
+     * @param lon2 longitude of the second point, in degrees
+     * @return the distance in kilometers
+     */
+    public static double haversine(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+            + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
 }
@@ -0,0 +1,682 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import common.Common;
+import process.Road;
+import process.Stop;
+
+/**
+ * Frozen, integer-indexed form of the transport graph (compressed sparse row).
+ * Stop and route IDs are interned to dense ints, and the outgoing edges of node n
+ * are stored at positions offsets[n] .. offsets[n + 1] - 1 of parallel primitive
+ * arrays. Within a node, the walking edges come first (pattern -1), then one edge
+ * per segment of each route pattern serving the node: instead of one edge per trip,
+ * a segment edge points to its pattern and the position of its departure stop in
+ * it, where the departure times of all the trips are sorted, so the next usable
+ * trip is found by binary search (nextTrip). The duration of a segment edge is the
+ * shortest one among its trips.
+ * Each node also knows the transport modes serving it (a bitmask over MODES), and
+ * the graph knows its top speed, which gives a lower bound of the travel time
+ * between two nodes (lowerBound).
+ * The real-time versions of the graph share these arrays: the edges of the nodes
+ * whose segments changed are moved after them (see MovedLists and withTimetable).
+ */
+public class CompactGraph {
+    // Transport modes, in the bit order of the mode masks, and their usual speed in km/h
+    public static final String[] MODES = {"TRAIN", "METRO", "BUS", "TRAM"};
+    static final int[] MODE_SPEEDS = {100, 72, 30, 20};
+    // Resolution of the timetables (one minute), in minutes
+    static final float RESOLUTION = 1f;
+
+    String[] stopIds;
+    String[] routeIds;
+    HashMap<String, Integer> stopIndex;
+
+    int[] offsets;
+    // Position of the first segment edge of each node, after its walking edges
+    int[] tripOffsets;
+    int[] targets;
+    float[] durations;
+    int[] patterns;
+    int[] positions;
+    int[] routes;
+    // Number of edges of the graph, without those left behind by moved nodes
+    int edgeCount;
+
+    // Nodes whose edges were moved by real-time updates, null if none; their edges
+    // are numbered from targets.length on, in the moved arrays
+    MovedLists moved;
+    int[] movedTargets;
+    float[] movedDurations;
+    int[] movedPatterns;
+    int[] movedPositions;
+    int[] movedRoutes;
+
+    // The trips of the segment edges, null while only the walking edges are known
+    RoutePatterns timetable;
+
+    float[] stopLat;
+    float[] stopLon;
+
+    int[] stopModes;
+    // Fastest speed of the network, in km per minute
+    float topSpeed;
+
+    CompactGraph(String[] stopIds, String[] routeIds, int[] offsets, int[] targets, float[] durations,
+            int[] patterns, int[] positions, int[] routes) {
+        this.stopIds = stopIds;
+        this.routeIds = routeIds;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.durations = durations;
+        this.patterns = patterns;
+        this.positions = positions;
+        this.routes = routes;
+        this.edgeCount = targets.length;
+
+        this.stopIndex = new HashMap<>(stopIds.length * 2);
+        for (int i = 0; i < stopIds.length; i++) {
+            stopIndex.put(stopIds[i], i);
+        }
+
+        this.tripOffsets = new int[stopIds.length];
+        for (int node = 0; node < stopIds.length; node++) {
+            int edge = offsets[node];
+            while (edge < offsets[node + 1] && patterns[edge] < 0) edge++;
+            tripOffsets[node] = edge;
+        }
+    }
+
+    /**
+     * Returns the graph with, after the walking edges of each node, one edge per
+     * segment of the given patterns (those of this graph are dropped). The patterns
+     * must use the node indices of this graph, which must have no moved edges (see
+     * compacted).
+     */
+    CompactGraph withPatterns(RoutePatterns timetable) {
+        int nodes = stopIds.length;
+        int[] counts = new int[nodes + 1];
+        for (int node = 0; node < nodes; node++) {
+            counts[node + 1] = tripOffsets[node] - offsets[node];
+        }
+        for (int p = 0; p < timetable.size(); p++) {
+            RoutePattern pattern = timetable.get(p);
+            for (int position = 0; position + 1 < pattern.stopCount(); position++) {
+                counts[pattern.stop(position) + 1]++;
+            }
+        }
+        for (int node = 0; node < nodes; node++) {
+            counts[node + 1] += counts[node];
+        }
+
+        int size = counts[nodes];
+        int[] newTargets = new int[size];
+        float[] newDurations = new float[size];
+        int[] newPatterns = new int[size];
+        int[] newPositions = new int[size];
+        int[] newRoutes = new int[size];
+        int[] fill = Arrays.copyOf(counts, nodes);
+        for (int node = 0; node < nodes; node++) {
+            for (int edge = offsets[node]; edge < tripOffsets[node]; edge++) {
+                int slot = fill[node]++;
+                newTargets[slot] = targets[edge];
+                newDurations[slot] = durations[edge];
+                newPatterns[slot] = -1;
+                newPositions[slot] = -1;
+                newRoutes[slot] = -1;
+            }
+        }
+        for (int p = 0; p < timetable.size(); p++) {
+            RoutePattern pattern = timetable.get(p);
+            for (int position = 0; position + 1 < pattern.stopCount(); position++) {
+                int slot = fill[pattern.stop(position)]++;
+                newTargets[slot] = pattern.stop(position + 1);
+                newDurations[slot] = shortest(pattern, position);
+                newPatterns[slot] = p;
+                newPositions[slot] = position;
+                newRoutes[slot] = pattern.getRouteIndex();
+            }
+        }
+
+        CompactGraph graph = new CompactGraph(stopIds, timetable.routeIds, counts, newTargets, newDurations,
+            newPatterns, newPositions, newRoutes);
+        graph.timetable = timetable;
+        return graph;
+    }
+
+    /**
+     * Returns the graph over another version of its patterns (real-time updates, see
+     * RoutePatterns.Editor), in which the given patterns changed their trips and the
+     * patterns from the size of the current timetable on are new. Every array is
+     * shared, and only the nodes with a new segment, or with a segment whose trip got
+     * faster than the shortest one, have their edges moved (see moveEdges). A duration
+     * is lowered then, never raised, so it stays a lower bound of every trip of its
+     * segment; the modes of the nodes and the top speed are raised the same way.
+     * @param timetable the new version of the patterns, with the same stops
+     * @param changed the patterns of the current timetable whose trips changed
+     * @param roadMap the routes, for the transport type of the new patterns
+     */
+    CompactGraph withTimetable(RoutePatterns timetable, Set<Integer> changed, Map<String, Road> roadMap) {
+        CompactGraph graph = new CompactGraph(this);
+        graph.timetable = timetable;
+        graph.routeIds = timetable.routeIds;
+        HashMap<Integer, Float> lowered = new HashMap<>();
+        TreeSet<Integer> touched = new TreeSet<>();
+        // New segments {pattern, position} by departure node
+        TreeMap<Integer, List<int[]>> added = new TreeMap<>();
+        for (int p : changed) {
+            RoutePattern pattern = timetable.get(p);
+            for (int position = 0; position + 1 < pattern.stopCount(); position++) {
+                int node = pattern.stop(position);
+                int edge = firstTripEdge(node);
+                while (pattern(edge) != p || position(edge) != position) edge++;
+                float shortest = shortest(pattern, position);
+                if (shortest >= duration(edge)) continue;
+                lowered.put(edge, shortest);
+                touched.add(node);
+            }
+            graph.topSpeed = graph.fasterThan(graph.topSpeed, pattern);
+        }
+        for (int p = this.timetable.size(); p < timetable.size(); p++) {
+            RoutePattern pattern = timetable.get(p);
+            Road road = roadMap.get(timetable.getRouteId(pattern.getRouteIndex()));
+            int mode = road == null ? 0 : modeBit(road.getTransportType());
+            for (int position = 0; position + 1 < pattern.stopCount(); position++) {
+                int node = pattern.stop(position);
+                added.computeIfAbsent(node, k -> new ArrayList<>()).add(new int[] {p, position});
+                if ((graph.stopModes[node] & mode) == mode) continue;
+                // Copied only when a stop gets a mode it did not have
+                if (graph.stopModes == stopModes) graph.stopModes = stopModes.clone();
+                graph.stopModes[node] |= mode;
+            }
+            for (int m = 0; m < MODES.length; m++) {
+                if ((mode & (1 << m)) != 0) graph.topSpeed = Math.max(graph.topSpeed, MODE_SPEEDS[m] / 60f);
+            }
+            graph.topSpeed = graph.fasterThan(graph.topSpeed, pattern);
+        }
+
+        touched.addAll(added.keySet());
+        if (!touched.isEmpty()) {
+            graph.moveEdges(touched.stream().mapToInt(Integer::intValue).toArray(), lowered, added, false);
+        }
+        return graph;
+    }
+
+    /**
+     * Returns the graph with every edge in the arrays of the timetable, or this graph
+     * if no edge was moved (see moveEdges).
+     */
+    CompactGraph compacted() {
+        if (moved == null) return this;
+        CompactGraph graph = new CompactGraph(this);
+        graph.moveEdges(new int[0], Collections.emptyMap(), Collections.emptyMap(), true);
+        return graph;
+    }
+
+    /**
+     * Writes the edges of the given nodes after those of the timetable, in new moved
+     * arrays that also take the nodes already moved, with the lowered durations and
+     * the new segments: the cost is that of the moved edges, not of the graph. Once
+     * they outgrow an eighth of the graph, every edge is written in new arrays of the
+     * timetable instead, and none is moved any more.
+     * @param touched the nodes to move, sorted
+     * @param lowered the new duration of some edges of these nodes
+     * @param added the new segments of these nodes, {pattern, position} in timetable
+     * @param rebuild true to write every edge in new arrays of the timetable
+     */
+    private void moveEdges(int[] touched, Map<Integer, Float> lowered, Map<Integer, List<int[]>> added,
+            boolean rebuild) {
+        int addedCount = 0;
+        for (List<int[]> segments : added.values()) addedCount += segments.size();
+        int[] nodes = moved == null ? touched : moved.union(touched);
+        int size = addedCount;
+        for (int node : nodes) size += lastEdge(node) - firstEdge(node);
+        if (rebuild || size > targets.length / 8) {
+            rebuild = true;
+            nodes = new int[stopIds.length];
+            for (int node = 0; node < nodes.length; node++) nodes[node] = node;
+            size = edgeCount + addedCount;
+        }
+
+        int base = rebuild ? 0 : targets.length;
+        int[] bounds = new int[3 * nodes.length];
+        int[] newTargets = new int[size];
+        float[] newDurations = new float[size];
+        int[] newPatterns = new int[size];
+        int[] newPositions = new int[size];
+        int[] newRoutes = new int[size];
+        int slot = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            int node = nodes[i];
+            bounds[3 * i] = base + slot;
+            bounds[3 * i + 1] = base + slot + firstTripEdge(node) - firstEdge(node);
+            for (int edge = firstEdge(node); edge < lastEdge(node); edge++) {
+                Float duration = lowered.isEmpty() ? null : lowered.get(edge);
+                newTargets[slot] = target(edge);
+                newDurations[slot] = duration != null ? duration : duration(edge);
+                newPatterns[slot] = pattern(edge);
+                newPositions[slot] = position(edge);
+                newRoutes[slot] = route(edge);
+                slot++;
+            }
+            for (int[] segment : added.getOrDefault(node, Collections.emptyList())) {
+                RoutePattern pattern = timetable.get(segment[0]);
+                newTargets[slot] = pattern.stop(segment[1] + 1);
+                newDurations[slot] = shortest(pattern, segment[1]);
+                newPatterns[slot] = segment[0];
+                newPositions[slot] = segment[1];
+                newRoutes[slot] = pattern.getRouteIndex();
+                slot++;
+            }
+            bounds[3 * i + 2] = base + slot;
+        }
+
+        edgeCount += addedCount;
+        if (!rebuild) {
+            moved = new MovedLists(stopIds.length, nodes, bounds, 3);
+            movedTargets = newTargets;
+            movedDurations = newDurations;
+            movedPatterns = newPatterns;
+            movedPositions = newPositions;
+            movedRoutes = newRoutes;
+            return;
+        }
+        offsets = new int[nodes.length + 1];
+        tripOffsets = new int[nodes.length];
+        for (int node = 0; node < nodes.length; node++) {
+            offsets[node] = bounds[3 * node];
+            tripOffsets[node] = bounds[3 * node + 1];
+        }
+        offsets[nodes.length] = size;
+        targets = newTargets;
+        durations = newDurations;
+        patterns = newPatterns;
+        positions = newPositions;
+        routes = newRoutes;
+        moved = null;
+        movedTargets = null;
+        movedDurations = null;
+        movedPatterns = null;
+        movedPositions = null;
+        movedRoutes = null;
+    }
+
+    /**
+     * Returns the shortest duration of the trips of a pattern from a position to the next one.
+     */
+    private static float shortest(RoutePattern pattern, int position) {
+        float shortest = Float.POSITIVE_INFINITY;
+        for (int trip = 0; trip < pattern.tripCount(); trip++) {
+            shortest = Math.min(shortest, pattern.time(trip, position + 1) - pattern.time(trip, position));
+        }
+        return shortest;
+    }
+
+    /**
+     * Copy sharing every array of the given graph.
+     */
+    private CompactGraph(CompactGraph other) {
+        this.stopIds = other.stopIds;
+        this.routeIds = other.routeIds;
+        this.stopIndex = other.stopIndex;
+        this.offsets = other.offsets;
+        this.tripOffsets = other.tripOffsets;
+        this.targets = other.targets;
+        this.durations = other.durations;
+        this.patterns = other.patterns;
+        this.positions = other.positions;
+        this.routes = other.routes;
+        this.edgeCount = other.edgeCount;
+        this.moved = other.moved;
+        this.movedTargets = other.movedTargets;
+        this.movedDurations = other.movedDurations;
+        this.movedPatterns = other.movedPatterns;
+        this.movedPositions = other.movedPositions;
+        this.movedRoutes = other.movedRoutes;
+        this.timetable = other.timetable;
+        this.stopLat = other.stopLat;
+        this.stopLon = other.stopLon;
+        this.stopModes = other.stopModes;
+        this.topSpeed = other.topSpeed;
+    }
+
+    /**
+     * Fills the coordinates of each node from the stop map (NaN when the stop is unknown).
+     */
+    void setCoordinates(Map<String, Stop> stopMap) {
+        stopLat = new float[stopIds.length];
+        stopLon = new float[stopIds.length];
+        for (int i = 0; i < stopIds.length; i++) {
+            Stop stop = stopMap.get(stopIds[i]);
+            stopLat[i] = stop != null ? stop.getStopLat() : Float.NaN;
+            stopLon[i] = stop != null ? stop.getStopLon() : Float.NaN;
+        }
+    }
+
+    /**
+     * Computes the modes serving each node from the transport type of the routes of
+     * its outgoing edges, and the top speed of the network from the trips of the
+     * segment edges (distance over scheduled duration) and the walking edges.
+     * Must be called after setCoordinates.
+     */
+    void setTransportTypes(Map<String, Road> roadMap) {
+        int[] routeModes = new int[routeIds.length];
+        for (int route = 0; route < routeIds.length; route++) {
+            Road road = roadMap.get(routeIds[route]);
+            routeModes[route] = road == null ? 0 : modeBit(road.getTransportType());
+        }
+
+        stopModes = new int[stopIds.length];
+        float fastest = 0f;
+        for (int node = 0; node < stopIds.length; node++) {
+            for (int edge = offsets[node]; edge < offsets[node + 1]; edge++) {
+                if (routes[edge] >= 0) stopModes[node] |= routeModes[routes[edge]];
+                if (patterns[edge] >= 0) continue;
+                double distance = Common.haversine(stopLat[node], stopLon[node], stopLat[targets[edge]], stopLon[targets[edge]]);
+                fastest = fasterThan(fastest, distance, durations[edge]);
+            }
+        }
+        for (int p = 0; p < timetable.size(); p++) {
+            fastest = fasterThan(fastest, timetable.get(p));
+        }
+        // Never below the usual speed of the fastest mode, so the bound stays admissible on sparse data
+        int allModes = 0;
+        for (int modes : stopModes) allModes |= modes;
+        for (int mode = 0; mode < MODES.length; mode++) {
+            if ((allModes & (1 << mode)) != 0) fastest = Math.max(fastest, MODE_SPEEDS[mode] / 60f);
+        }
+        topSpeed = fastest;
+    }
+
+    /**
+     * Returns the speed of an edge (km per minute) if it is faster than fastest, else fastest.
+     * An edge shorter than the resolution of the timetable is timed to one minute.
+     */
+    private static float fasterThan(float fastest, double distance, float duration) {
+        if (Double.isNaN(distance) || distance <= 0) return fastest;
+        float speed = (float) (distance / Math.max(duration, RESOLUTION));
+        return Math.max(speed, fastest);
+    }
+
+    /**
+     * Returns the top speed of the trips of a pattern if it is faster than fastest,
+     * else fastest. GTFS times are usually rounded to the minute, so a segment can be
+     * scheduled in 0 minutes between two stops, and its own speed would be unbounded.
+     * A segment shorter than the resolution of the timetable is therefore not timed
+     * alone: its distance is added to the segments before and after it in the trip,
+     * so that any ride through it, divided into the longer segments it rides, keeps a
+     * speed below the bound. Only a ride made of short segments alone is timed to one
+     * minute, and the bound can exceed it by less than a minute, the precision of the
+     * timetable.
+     */
+    private float fasterThan(float fastest, RoutePattern pattern) {
+        int count = pattern.stopCount() - 1;
+        double[] distances = new double[count];
+        for (int position = 0; position < count; position++) {
+            int from = pattern.stop(position);
+            int to = pattern.stop(position + 1);
+            double distance = Common.haversine(stopLat[from], stopLon[from], stopLat[to], stopLon[to]);
+            distances[position] = Double.isNaN(distance) ? 0 : distance;
+        }
+        for (int trip = 0; trip < pattern.tripCount(); trip++) {
+            // Distance of the short segments since the last long one, which waits for them
+            double run = 0;
+            double longDistance = 0;
+            float longDuration = 0f;
+            for (int position = 0; position <= count; position++) {
+                float duration = position < count ? pattern.time(trip, position + 1) - pattern.time(trip, position) : RESOLUTION;
+                if (position < count && duration < RESOLUTION) {
+                    run += distances[position];
+                    continue;
+                }
+                if (longDuration > 0) fastest = fasterThan(fastest, longDistance + run, longDuration);
+                fastest = fasterThan(fastest, run, RESOLUTION);
+                if (position < count) {
+                    longDistance = run + distances[position];
+                    longDuration = duration;
+                }
+                run = 0;
+            }
+        }
+        return fastest;
+    }
+
+    /**
+     * Returns the bit of a transport type in the mode masks, or 0 for an unknown type.
+     */
+    public static int modeBit(String transportType) {
+        for (int mode = 0; mode < MODES.length; mode++) {
+            if (MODES[mode].equals(transportType)) return 1 << mode;
+        }
+        return 0;
+    }
+
+    /**
+     * Lower bound of the travel time between two nodes: the great-circle distance
+     * covered at the top speed of the network. Returns 0 if a node has no coordinates.
+     * @return the bound in minutes
+     */
+    public float lowerBound(int from, int to) {
+        if (topSpeed <= 0) return 0;
+        float bound = (float) (Common.haversine(stopLat[from], stopLon[from], stopLat[to], stopLon[to]) / topSpeed);
+        return Float.isNaN(bound) ? 0 : bound;
+    }
+
+    /**
+     * Returns the circle around a set of nodes, {latitude, longitude, radius in km}, for
+     * lowerBound to the closest of them, or null if a node has no coordinates.
+     */
+    public float[] boundingCircle(int[] nodes) {
+        double lat = 0;
+        double lon = 0;
+        for (int node : nodes) {
+            if (Float.isNaN(stopLat[node]) || Float.isNaN(stopLon[node])) return null;
+            lat += stopLat[node];
+            lon += stopLon[node];
+        }
+        float[] circle = {(float) (lat / nodes.length), (float) (lon / nodes.length), 0f};
+        for (int node : nodes) {
+            circle[2] = (float) Math.max(circle[2], Common.haversine(circle[0], circle[1], stopLat[node], stopLon[node]));
+        }
+        return circle;
+    }
+
+    /**
+     * Lower bound of the travel time from a node to the closest node of a circle (see
+     * boundingCircle): by the triangle inequality, every node of the circle is at least
+     * the distance to its center minus its radius away. Returns 0 if there is no circle.
+     * @return the bound in minutes
+     */
+    public float lowerBound(int from, float[] circle) {
+        if (topSpeed <= 0 || circle == null) return 0;
+        double distance = Common.haversine(stopLat[from], stopLon[from], circle[0], circle[1]) - circle[2];
+        float bound = (float) (distance / topSpeed);
+        return Float.isNaN(bound) || bound < 0 ? 0 : bound;
+    }
+
+    /*
+     * Getter of the class
+     */
+    public int getNodeCount() { return stopIds.length; }
+    public int getEdgeCount() { return edgeCount; }
+    public int getRouteCount() { return routeIds.length; }
+    public RoutePatterns getTimetable() { return timetable; }
+
+    public String getStopId(int node) { return stopIds[node]; }
+    public String getRouteId(int route) { return route < 0 ? null : routeIds[route]; }
+    public float getStopLat(int node) { return stopLat[node]; }
+    public float getStopLon(int node) { return stopLon[node]; }
+    public int getStopModes(int node) { return stopModes[node]; }
+    public float getTopSpeed() { return topSpeed; }
+
+    public int firstEdge(int node) { return isMoved(node) ? moved.bound(node, 0) : offsets[node]; }
+    public int firstTripEdge(int node) { return isMoved(node) ? moved.bound(node, 1) : tripOffsets[node]; }
+    public int lastEdge(int node) { return isMoved(node) ? moved.bound(node, 2) : offsets[node + 1]; }
+    public int target(int edge) { return edge < targets.length ? targets[edge] : movedTargets[edge - targets.length]; }
+    public float duration(int edge) { return edge < targets.length ? durations[edge] : movedDurations[edge - targets.length]; }
+    public int pattern(int edge) { return edge < targets.length ? patterns[edge] : movedPatterns[edge - targets.length]; }
+    public int position(int edge) { return edge < targets.length ? positions[edge] : movedPositions[edge - targets.length]; }
+    public int route(int edge) { return edge < targets.length ? routes[edge] : movedRoutes[edge - targets.length]; }
+    public boolean isWalk(int edge) { return pattern(edge) < 0; }
+
+    private boolean isMoved(int node) { return moved != null && moved.contains(node); }
+
+    /**
+     * Returns the first trip of a segment edge leaving at or after the given time
+     * and running on the day of the active services, as a trip position in its pattern.
+     * @param edge a segment edge
+     * @param time the time at which its departure node is reached, in minutes
+     * @param activeServices see ServiceCalendar.activeServices, null for every day
+     * @return the trip position, or -1 if no trip is left
+     */
+    public int nextTrip(int edge, float time, long[] activeServices) {
+        RoutePattern pattern = timetable.get(pattern(edge));
+        int trip = pattern.firstTripAfter(position(edge), time);
+        while (trip < pattern.tripCount() && !timetable.runs(pattern.trip(trip), activeServices)) trip++;
+        return trip < pattern.tripCount() ? trip : -1;
+    }
+
+    /**
+     * Departure time of a trip of a segment edge, in minutes.
+     */
+    public float departure(int edge, int trip) {
+        return timetable.get(pattern(edge)).time(trip, position(edge));
+    }
+
+    /**
+     * Scheduled arrival time of a trip of a segment edge at its target, in minutes.
+     */
+    public float arrival(int edge, int trip) {
+        return timetable.get(pattern(edge)).time(trip, position(edge) + 1);
+    }
+
+    /**
+     * Returns the node index of a stop ID, or -1 if the stop is not in the graph.
+     */
+    public int indexOf(String stopId) {
+        Integer index = stopId == null ? null : stopIndex.get(stopId);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Returns the node indices of the given stop IDs, without the unknown stops and duplicates.
+     */
+    public int[] indicesOf(List<String> stopIds) {
+        int[] result = new int[stopIds.size()];
+        int count = 0;
+        for (String stopId : stopIds) {
+            int node = indexOf(stopId);
+            if (node < 0) continue;
+            boolean seen = false;
+            for (int i = 0; i < count && !seen; i++) seen = result[i] == node;
+            if (!seen) result[count++] = node;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Materializes a walking edge as an Edge object (for paths and display only).
+     * @param node the departure node of the edge
+     * @param edge the edge index
+     */
+    public Edge edge(int node, int edge) {
+        return new Edge(stopIds[node], stopIds[target(edge)], "WALK", duration(edge), null, -1f);
+    }
+
+    /**
+     * Materializes one trip of a segment edge as an Edge object (for paths and display only).
+     * @param node the departure node of the edge
+     * @param edge the edge index
+     * @param trip the trip position in the pattern of the edge
+     */
+    public Edge edge(int node, int edge, int trip) {
+        RoutePattern pattern = timetable.get(pattern(edge));
+        float departure = departure(edge, trip);
+        return new Edge(stopIds[node], stopIds[target(edge)], getRouteId(route(edge)), arrival(edge, trip) - departure,
+            timetable.getTripId(pattern.trip(trip)), departure);
+    }
+
+    /**
+     * Accumulates the stops and the walking edges in insertion order, interning the
+     * stop IDs, and freezes them into a CompactGraph (see withPatterns for the trips).
+     */
+    public static class Builder {
+        HashMap<String, Integer> stopIndex = new HashMap<>();
+        String[] stopIds = new String[1024];
+
+        int size = 0;
+        int[] sources = new int[1024];
+        int[] targets = new int[1024];
+        float[] durations = new float[1024];
+
+        /**
+         * Returns the node index of a stop, creating the node if needed.
+         */
+        public int addStop(String stopId) {
+            Integer index = stopIndex.get(stopId);
+            if (index == null) {
+                index = stopIndex.size();
+                if (index == stopIds.length) stopIds = Arrays.copyOf(stopIds, index * 2);
+                stopIds[index] = stopId;
+                stopIndex.put(stopId, index);
+            }
+            return index;
+        }
+
+        /**
+         * Appends a walking edge.
+         */
+        public void addEdge(String departureStopId, String arrivalStopId, float duration) {
+            int source = addStop(departureStopId);
+            int target = addStop(arrivalStopId);
+            if (size == sources.length) {
+                int capacity = size * 2;
+                sources = Arrays.copyOf(sources, capacity);
+                targets = Arrays.copyOf(targets, capacity);
+                durations = Arrays.copyOf(durations, capacity);
+            }
+            sources[size] = source;
+            targets[size] = target;
+            durations[size] = duration;
+            size++;
+        }
+
+        /**
+         * Sorts the edges by departure node (stable, so each adjacency keeps the
+         * insertion order) and returns the frozen graph.
+         */
+        public CompactGraph build() {
+            int nodes = stopIndex.size();
+            int[] offsets = new int[nodes + 1];
+            for (int e = 0; e < size; e++) {
+                offsets[sources[e] + 1]++;
+            }
+            for (int n = 0; n < nodes; n++) {
+                offsets[n + 1] += offsets[n];
+            }
+
+            int[] fill = Arrays.copyOf(offsets, nodes);
+            int[] sortedTargets = new int[size];
+            float[] sortedDurations = new float[size];
+            int[] none = new int[size];
+            Arrays.fill(none, -1);
+            for (int e = 0; e < size; e++) {
+                int position = fill[sources[e]]++;
+                sortedTargets[position] = targets[e];
+                sortedDurations[position] = durations[e];
+            }
+
+            return new CompactGraph(Arrays.copyOf(stopIds, nodes), new String[0], offsets, sortedTargets,
+                sortedDurations, none, none.clone(), none.clone());
+        }
+    }
+}
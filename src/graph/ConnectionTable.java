@@ -0,0 +1,515 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+import process.ServiceCalendar;
+import process.StopTime;
+
+/**
+ * Timetable as an array of elementary connections (one vehicle going from one stop
+ * to the next without stopping), sorted by departure time. This is the input of the
+ * Connection Scan Algorithm. Stops use the node indices of the CompactGraph, times
+ * are in minutes like the rest of the graph.
+ */
+public class ConnectionTable {
+    int size;
+    int[] departureStops;
+    int[] arrivalStops;
+    float[] departureTimes;
+    float[] arrivalTimes;
+    int[] trips;
+
+    // Connections in itinerary order (trip after trip), and the position of each connection in it
+    int[] tripOrder;
+    int[] tripPositions;
+
+    String[] tripIds;
+    String[] tripRouteIds;
+    int[] tripServices;
+    // Trip ID to trip number, built on first use by the real-time updates
+    HashMap<String, Integer> tripIndex;
+
+    // Real-time overlay (see withTrips): the connections of the updated trips, sorted
+    // like the table, the trips of the table they replace (one bit per trip, null if
+    // none), and the trips missing from the table, numbered after its trips
+    ConnectionTable delta;
+    long[] replaced;
+    String[] addedTripIds = new String[0];
+    String[] addedRouteIds = new String[0];
+    HashMap<String, Integer> addedIndex = new HashMap<>();
+
+    private ConnectionTable() {
+    }
+
+    /**
+     * Builds the connections of every trip of the stopTimeMap, using the same
+     * segment rules as Graph.createGraph.
+     * @param compact the graph giving the node index of each stop
+     * @param stopTimeMap the trips and their itineraries
+     * @param tripMap tripId to routeId
+     * @param calendar the service of each trip
+     */
+    public ConnectionTable(CompactGraph compact, HashMap<String, StopTime> stopTimeMap, HashMap<String, String> tripMap,
+            ServiceCalendar calendar) {
+        List<String> ids = new ArrayList<>(stopTimeMap.keySet());
+        tripIds = ids.toArray(new String[0]);
+        tripRouteIds = new String[tripIds.length];
+        tripServices = new int[tripIds.length];
+
+        int capacity = 1024;
+        int[] depStops = new int[capacity];
+        int[] arrStops = new int[capacity];
+        float[] depTimes = new float[capacity];
+        float[] arrTimes = new float[capacity];
+        int[] tripOf = new int[capacity];
+
+        for (int t = 0; t < tripIds.length; t++) {
+            StopTime stopTime = stopTimeMap.get(tripIds[t]);
+            tripRouteIds[t] = tripMap.get(tripIds[t]);
+            tripServices[t] = calendar.serviceOf(tripIds[t]);
+            int previousStop = -1;
+            float previousTime = 0;
+
+            for (int position = 0; position < stopTime.size(); position++) {
+                int currentStop = compact.indexOf(stopTime.getStopId(position));
+                if (currentStop < 0) continue;
+                float time = stopTime.getMinutes(position);
+
+                if (previousStop != -1) {
+                    if (time < previousTime) continue;
+
+                    if (size == capacity) {
+                        capacity *= 2;
+                        depStops = Arrays.copyOf(depStops, capacity);
+                        arrStops = Arrays.copyOf(arrStops, capacity);
+                        depTimes = Arrays.copyOf(depTimes, capacity);
+                        arrTimes = Arrays.copyOf(arrTimes, capacity);
+                        tripOf = Arrays.copyOf(tripOf, capacity);
+                    }
+                    depStops[size] = previousStop;
+                    arrStops[size] = currentStop;
+                    depTimes[size] = previousTime;
+                    arrTimes[size] = time;
+                    tripOf[size] = t;
+                    size++;
+                }
+                previousStop = currentStop;
+                previousTime = time;
+            }
+        }
+
+        // Sort by departure time (the float bits of a positive time keep its order);
+        // on ties the connections keep their insertion order, so a trip stays in itinerary order
+        long[] order = new long[size];
+        for (int c = 0; c < size; c++) {
+            order[c] = ((long) Float.floatToIntBits(Math.max(0f, depTimes[c])) << 32) | c;
+        }
+        Arrays.sort(order);
+
+        departureStops = new int[size];
+        arrivalStops = new int[size];
+        departureTimes = new float[size];
+        arrivalTimes = new float[size];
+        trips = new int[size];
+        tripOrder = new int[size];
+        tripPositions = new int[size];
+        for (int c = 0; c < size; c++) {
+            int source = (int) order[c];
+            departureStops[c] = depStops[source];
+            arrivalStops[c] = arrStops[source];
+            departureTimes[c] = depTimes[source];
+            arrivalTimes[c] = arrTimes[source];
+            trips[c] = tripOf[source];
+            // Connections were appended trip by trip, so the source index is the itinerary position
+            tripOrder[source] = c;
+            tripPositions[c] = source;
+        }
+    }
+
+    /**
+     * Returns the table with the connections of some trips replaced by those of their
+     * real-time itinerary (none for a cancelled trip), the trips missing from the
+     * table being added, running every day. The connections of the timetable are
+     * shared, not copied: the replaced trips are only marked (one bit per trip), and
+     * the connections of the real-time trips are kept in a small table merged with
+     * the timetable at scan time (see Cursor). An update thus costs O(k log k) for k
+     * new connections, plus the copy of the real-time connections of the previous
+     * version. Once these outnumber an eighth of the timetable, they are merged into
+     * a new timetable, in O(connections) but only every so many updated connections.
+     * @param updated the real-time itineraries, at most one per trip
+     */
+    ConnectionTable withTrips(Collection<RealtimeTrip> updated) {
+        int[] numbers = new int[updated.size()];
+        HashSet<Integer> numbered = new HashSet<>();
+        List<RealtimeTrip> added = new ArrayList<>();
+        int i = 0;
+        for (RealtimeTrip trip : updated) {
+            int number = indexOfTrip(trip.tripId);
+            if (number < 0) {
+                number = getTripCount() + added.size();
+                added.add(trip);
+            }
+            numbers[i++] = number;
+            numbered.add(number);
+        }
+
+        ConnectionTable table = new ConnectionTable();
+        table.share(this);
+        if (!added.isEmpty()) {
+            int count = addedTripIds.length;
+            table.addedTripIds = Arrays.copyOf(addedTripIds, count + added.size());
+            table.addedRouteIds = Arrays.copyOf(addedRouteIds, count + added.size());
+            table.addedIndex = new HashMap<>(addedIndex);
+            for (int k = 0; k < added.size(); k++) {
+                table.addedTripIds[count + k] = added.get(k).tripId;
+                table.addedRouteIds[count + k] = added.get(k).routeId;
+                table.addedIndex.put(added.get(k).tripId, tripIds.length + count + k);
+            }
+        }
+        for (int number : numbers) {
+            if (number >= tripIds.length) continue;
+            if (table.replaced == replaced) {
+                table.replaced = replaced == null ? new long[(tripIds.length + 63) / 64] : replaced.clone();
+            }
+            table.replaced[number >>> 6] |= 1L << number;
+        }
+
+        // New connections, trip after trip, sorted like the table, then merged with the
+        // real-time connections of the other trips
+        ConnectionTable fresh = sortedConnections(updated, numbers);
+        ConnectionTable previous = delta != null ? delta : fresh.slice(0);
+        table.delta = previous.mergedWith(fresh, numbered::contains);
+        table.delta.indexTripsBySort();
+        return table.delta.size > size / 8 ? table.compacted() : table;
+    }
+
+    /**
+     * Shares the timetable, the trips and the real-time overlay of another table.
+     */
+    private void share(ConnectionTable other) {
+        size = other.size;
+        departureStops = other.departureStops;
+        arrivalStops = other.arrivalStops;
+        departureTimes = other.departureTimes;
+        arrivalTimes = other.arrivalTimes;
+        trips = other.trips;
+        tripOrder = other.tripOrder;
+        tripPositions = other.tripPositions;
+        tripIds = other.tripIds;
+        tripRouteIds = other.tripRouteIds;
+        tripServices = other.tripServices;
+        tripIndex = other.tripIndex;
+        delta = other.delta;
+        replaced = other.replaced;
+        addedTripIds = other.addedTripIds;
+        addedRouteIds = other.addedRouteIds;
+        addedIndex = other.addedIndex;
+    }
+
+    /**
+     * Returns the connections of real-time itineraries, sorted by departure time (on
+     * ties, in itinerary order).
+     * @param numbers the number of each trip
+     */
+    private static ConnectionTable sortedConnections(Collection<RealtimeTrip> updated, int[] numbers) {
+        int count = 0;
+        for (RealtimeTrip trip : updated) count += Math.max(0, trip.stops.length - 1);
+        int[] depStops = new int[count];
+        int[] arrStops = new int[count];
+        float[] depTimes = new float[count];
+        float[] arrTimes = new float[count];
+        int[] tripOf = new int[count];
+        count = 0;
+        int i = 0;
+        for (RealtimeTrip trip : updated) {
+            int number = numbers[i++];
+            float[] minutes = trip.minutes();
+            for (int position = 0; position + 1 < trip.stops.length; position++) {
+                depStops[count] = trip.stops[position];
+                arrStops[count] = trip.stops[position + 1];
+                depTimes[count] = minutes[position];
+                arrTimes[count] = minutes[position + 1];
+                tripOf[count] = number;
+                count++;
+            }
+        }
+        long[] order = new long[count];
+        for (int c = 0; c < count; c++) {
+            order[c] = ((long) Float.floatToIntBits(Math.max(0f, depTimes[c])) << 32) | c;
+        }
+        Arrays.sort(order);
+
+        ConnectionTable table = new ConnectionTable().slice(count);
+        for (int c = 0; c < count; c++) {
+            int source = (int) order[c];
+            table.departureStops[c] = depStops[source];
+            table.arrivalStops[c] = arrStops[source];
+            table.departureTimes[c] = depTimes[source];
+            table.arrivalTimes[c] = arrTimes[source];
+            table.trips[c] = tripOf[source];
+        }
+        return table;
+    }
+
+    /**
+     * Returns an empty table with room for the given number of connections.
+     */
+    private ConnectionTable slice(int count) {
+        ConnectionTable table = new ConnectionTable();
+        table.size = count;
+        table.departureStops = new int[count];
+        table.arrivalStops = new int[count];
+        table.departureTimes = new float[count];
+        table.arrivalTimes = new float[count];
+        table.trips = new int[count];
+        return table;
+    }
+
+    /**
+     * Merges the connections of this table but those of the dropped trips with the
+     * connections of another table, both sorted by departure time. On ties, the
+     * connections of this table come first. The itinerary order is not numbered.
+     */
+    private ConnectionTable mergedWith(ConnectionTable other, IntPredicate dropped) {
+        int kept = 0;
+        for (int c = 0; c < size; c++) {
+            if (!dropped.test(trips[c])) kept++;
+        }
+        ConnectionTable table = slice(kept + other.size);
+        int old = 0;
+        int next = 0;
+        for (int c = 0; c < table.size; c++) {
+            while (old < size && dropped.test(trips[old])) old++;
+            ConnectionTable source = this;
+            int from = old;
+            if (next < other.size && (old == size || other.departureTimes[next] < departureTimes[old])) {
+                source = other;
+                from = next++;
+            } else {
+                old++;
+            }
+            table.departureStops[c] = source.departureStops[from];
+            table.arrivalStops[c] = source.arrivalStops[from];
+            table.departureTimes[c] = source.departureTimes[from];
+            table.arrivalTimes[c] = source.arrivalTimes[from];
+            table.trips[c] = source.trips[from];
+        }
+        return table;
+    }
+
+    /**
+     * Returns the table with its real-time connections merged into the timetable, and
+     * the added trips into the trips, without overlay.
+     */
+    private ConnectionTable compacted() {
+        ConnectionTable table = mergedWith(delta, this::isReplaced);
+        int count = getTripCount();
+        table.tripIds = Arrays.copyOf(tripIds, count);
+        table.tripRouteIds = Arrays.copyOf(tripRouteIds, count);
+        table.tripServices = Arrays.copyOf(tripServices, count);
+        for (int trip = tripIds.length; trip < count; trip++) {
+            table.tripIds[trip] = addedTripIds[trip - tripIds.length];
+            table.tripRouteIds[trip] = addedRouteIds[trip - tripIds.length];
+            table.tripServices[trip] = -1;
+        }
+        table.indexTrips();
+        if (addedTripIds.length == 0) table.tripIndex = tripIndex;
+        return table;
+    }
+
+    /**
+     * Numbers the connections in itinerary order, trip after trip. The connections of
+     * a trip are sorted by departure in their itinerary order, so the k-th one met in
+     * the table is the k-th of the trip.
+     */
+    private void indexTrips() {
+        int[] starts = new int[tripIds.length + 1];
+        for (int c = 0; c < size; c++) {
+            starts[trips[c] + 1]++;
+        }
+        for (int t = 0; t < tripIds.length; t++) {
+            starts[t + 1] += starts[t];
+        }
+        tripOrder = new int[size];
+        tripPositions = new int[size];
+        for (int c = 0; c < size; c++) {
+            int position = starts[trips[c]]++;
+            tripOrder[position] = c;
+            tripPositions[c] = position;
+        }
+    }
+
+    /**
+     * Numbers the connections in itinerary order like indexTrips, by sorting them
+     * instead of counting the connections of every trip of the timetable (real-time
+     * connections, a few trips among many).
+     */
+    private void indexTripsBySort() {
+        long[] order = new long[size];
+        for (int c = 0; c < size; c++) {
+            order[c] = ((long) trips[c] << 32) | c;
+        }
+        Arrays.sort(order);
+        tripOrder = new int[size];
+        tripPositions = new int[size];
+        for (int position = 0; position < size; position++) {
+            int c = (int) order[position];
+            tripOrder[position] = c;
+            tripPositions[c] = position;
+        }
+    }
+
+    /**
+     * Returns true if the connections of a trip of the timetable were replaced by real-time ones.
+     */
+    private boolean isReplaced(int trip) {
+        return replaced != null && trip < tripIds.length && (replaced[trip >>> 6] & (1L << trip)) != 0;
+    }
+
+    /**
+     * Returns the number of a trip, or -1 if it is not in the table.
+     */
+    synchronized int indexOfTrip(String tripId) {
+        if (tripIndex == null) {
+            tripIndex = new HashMap<>(tripIds.length * 2);
+            for (int trip = 0; trip < tripIds.length; trip++) tripIndex.put(tripIds[trip], trip);
+        }
+        Integer trip = tripIndex.get(tripId);
+        if (trip == null) trip = addedIndex.get(tripId);
+        return trip == null ? -1 : trip;
+    }
+
+    /**
+     * Returns the connections departing at or after the given time, by increasing
+     * departure time.
+     */
+    public Cursor departingFrom(float time) {
+        return new Cursor(time, Float.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Returns the connections departing at or after from and before until, by
+     * decreasing departure time.
+     */
+    public Cursor departingBetween(float from, float until) {
+        return new BackwardCursor(from, until);
+    }
+
+    /**
+     * Walks through the connections of a departure range, merging the real-time
+     * connections with the timetable on the fly: each call to next returns the index
+     * of the next connection by departure time, or -1 after the last one. On ties, the
+     * connections of the timetable come first.
+     */
+    public class Cursor {
+        // Remaining connections of the timetable, and of the real-time overlay
+        int low;
+        int high;
+        int deltaLow;
+        int deltaHigh;
+
+        Cursor(float from, float until) {
+            low = firstDepartingAfter(from);
+            high = firstDepartingAfter(until);
+            if (delta != null) {
+                deltaLow = delta.firstDepartingAfter(from);
+                deltaHigh = delta.firstDepartingAfter(until);
+            }
+        }
+
+        public int next() {
+            if (deltaLow < deltaHigh && (low == high || delta.departureTimes[deltaLow] < departureTimes[low])) {
+                return size + deltaLow++;
+            }
+            return low < high ? low++ : -1;
+        }
+    }
+
+    /**
+     * Cursor going back in time, from the latest departure of its range.
+     */
+    class BackwardCursor extends Cursor {
+        BackwardCursor(float from, float until) {
+            super(from, until);
+        }
+
+        @Override
+        public int next() {
+            if (deltaLow < deltaHigh && (low == high || delta.departureTimes[deltaHigh - 1] >= departureTimes[high - 1])) {
+                return size + --deltaHigh;
+            }
+            return low < high ? --high : -1;
+        }
+    }
+
+    /**
+     * Returns the index of the first connection of this table (without overlay)
+     * departing at or after the given time.
+     */
+    private int firstDepartingAfter(float time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (departureTimes[middle] < time) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Returns true if the trip of connection c runs on the day of the given active
+     * services (see ServiceCalendar.activeServices, null for every day).
+     */
+    public boolean runs(int c, long[] activeServices) {
+        if (c < size) {
+            int trip = trips[c];
+            return (replaced == null || (replaced[trip >>> 6] & (1L << trip)) == 0)
+                && ServiceCalendar.isActive(activeServices, tripServices[trip]);
+        }
+        int trip = delta.trips[c - size];
+        return trip >= tripServices.length || ServiceCalendar.isActive(activeServices, tripServices[trip]);
+    }
+
+    /*
+     * Getter of the class: the connections of the timetable are numbered from 0, the
+     * real-time ones from the size of the timetable on (see Cursor)
+     */
+    public int size() { return delta == null ? size : size + delta.size; }
+    public int departureStop(int c) { return c < size ? departureStops[c] : delta.departureStops[c - size]; }
+    public int arrivalStop(int c) { return c < size ? arrivalStops[c] : delta.arrivalStops[c - size]; }
+    public float departureTime(int c) { return c < size ? departureTimes[c] : delta.departureTimes[c - size]; }
+    public float arrivalTime(int c) { return c < size ? arrivalTimes[c] : delta.arrivalTimes[c - size]; }
+    public int trip(int c) { return c < size ? trips[c] : delta.trips[c - size]; }
+    public int getTripCount() { return tripIds.length + addedTripIds.length; }
+    public String getTripId(int trip) {
+        return trip < tripIds.length ? tripIds[trip] : addedTripIds[trip - tripIds.length];
+    }
+    public String getTripRouteId(int trip) {
+        return trip < tripIds.length ? tripRouteIds[trip] : addedRouteIds[trip - tripIds.length];
+    }
+
+    /**
+     * Returns the connections of a trip between two of its connections (both inclusive), in itinerary order.
+     */
+    public int[] tripLeg(int first, int last) {
+        if (first >= size) {
+            int[] leg = delta.tripLeg(first - size, last - size);
+            for (int i = 0; i < leg.length; i++) leg[i] += size;
+            return leg;
+        }
+        int from = tripPositions[first];
+        int to = tripPositions[last];
+        int[] leg = new int[to - from + 1];
+        for (int i = from; i <= to; i++) {
+            leg[i - from] = tripOrder[i];
+        }
+        return leg;
+    }
+}
@@ -4,7 +4,9 @@ package graph;
  * Represents a directed edge in the transport graph, corresponding to a connection
  * between two stops (nodes) in the network. Each edge contains information about
  * the departure and arrival stops, the road or line ID, the duration of the trip,
- * and the trip ID.
+ * the trip ID and the scheduled departure time.
+ * The graph itself is stored in a CompactGraph: Edge objects are only created
+ * for building the graph and for returning paths.
  */
 public class Edge {
     String departureStopId;
@@ -12,6 +14,7 @@ public class Edge {
     String roadId;
     float duration; 
     String tripId;
+    float departureTime;
 
     /**
      * Constructs an Edge with the specified parameters.
@@ -21,12 +24,26 @@ public class Edge {
      * @param duration the duration in minutes
      * @param tripId the trip ID (can be null for walking edges)
      */
-    public Edge(String departureStop, String arrivalStop, String roadId, float duration, String tripId) { //}, String horraire) {
+    public Edge(String departureStop, String arrivalStop, String roadId, float duration, String tripId) {
+        this(departureStop, arrivalStop, roadId, duration, tripId, -1f);
+    }
+
+    /**
+     * Constructs an Edge with a known departure time.
+     * @param departureStop the ID of the departure stop
+     * @param arrivalStop the ID of the arrival stop
+     * @param roadId the road ID
+     * @param duration the duration in minutes
+     * @param tripId the trip ID (can be null for walking edges)
+     * @param departureTime the departure time in minutes, or -1 for walking edges
+     */
+    public Edge(String departureStop, String arrivalStop, String roadId, float duration, String tripId, float departureTime) {
         this.departureStopId = departureStop;
         this.arrivalStopId = arrivalStop;
         this.roadId = roadId;
         this.duration = duration; 
         this.tripId = tripId;
+        this.departureTime = departureTime;
     }
 
     /*
@@ -38,4 +55,5 @@ public class Edge {
     public String getRoadId() { return roadId; }
     public float getDuration() { return duration; }
     public String getTripId() { return tripId; }
+    public float getDepartureTime() { return departureTime; }
 }
\ No newline at end of file
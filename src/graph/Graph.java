@@ -1,168 +1,437 @@
 package graph;
 
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.TreeMap;
+import java.util.Set;
 
+import metrics.Metrics;
 import process.Road;
+import process.ServiceCalendar;
 import process.Stop;
 import process.StopTime;
+import process.TripUpdate;
 
 /**
  * Represents the transport network as a directed graph.
- * Each node is a stop, and each edge is a connection (trip or walking).
+ * Each node is a stop, and each edge is a connection (route pattern segment or walking
+ * transfer, see Transfers).
  * The graph is built from GTFS data (stops, stop_times, trips, roads).
+ * Once built, the edges are frozen into a CompactGraph; this class is a
+ * thin String-based view over it.
+ * A graph is never modified once built: the real-time updates (withUpdates) give a
+ * new version of it, which shares everything the updates did not change, so the
+ * queries running on the previous version keep a consistent view of the network.
  */
 public class Graph {
-    HashMap<String, List<Edge>> graph = new HashMap<>();
+    // Names suggested for an unknown stop name
+    static final int SUGGESTIONS = 5;
+
+    CompactGraph.Builder builder = new CompactGraph.Builder();
+    CompactGraph compact;
+    ConnectionTable connectionTable;
+    RoutePatterns routePatterns;
+    Landmarks landmarks;
+    ReverseGraph reverseGraph;
+    StopNameIndex nameIndex;
     HashMap<String, Road> roadMap;
     HashMap<String, String> tripMap;
     HashMap<String, Stop> stopMap;
     HashMap<String, StopTime> stopTimeMap;
+    ServiceCalendar calendar;
+    // Longest walking transfer, in minutes
+    float walkingBudget = Transfers.DEFAULT_BUDGET;
+    // Where the engines report the work of each query
+    volatile Metrics metrics = Metrics.NONE;
+    // Itinerary of every trip changed by a real-time update, and the number of updates applied
+    HashMap<String, RealtimeTrip> realtimeTrips = new HashMap<>();
+    int realtimeVersion;
 
+    /**
+     * Creates a graph whose trips run every day.
+     */
     public Graph(HashMap<String, Road> roadMap, HashMap<String, String> tripMap, HashMap<String, Stop> stopMap, HashMap<String, StopTime> stopTimeMap) {
+        this(roadMap, tripMap, stopMap, stopTimeMap, new ServiceCalendar());
+    }
+
+    public Graph(HashMap<String, Road> roadMap, HashMap<String, String> tripMap, HashMap<String, Stop> stopMap,
+            HashMap<String, StopTime> stopTimeMap, ServiceCalendar calendar) {
         this.roadMap = roadMap;
         this.tripMap = tripMap;
         this.stopMap = stopMap;
         this.stopTimeMap = stopTimeMap;
+        this.calendar = calendar;
+        this.nameIndex = new StopNameIndex(stopMap.values());
+    }
+
+    /**
+     * Next version of a built graph, sharing all of it (see withUpdates).
+     */
+    private Graph(Graph other) {
+        this.builder = null;
+        this.compact = other.compact;
+        this.routePatterns = other.routePatterns;
+        this.nameIndex = other.nameIndex;
+        this.roadMap = other.roadMap;
+        this.tripMap = other.tripMap;
+        this.stopMap = other.stopMap;
+        this.stopTimeMap = other.stopTimeMap;
+        this.calendar = other.calendar;
+        this.walkingBudget = other.walkingBudget;
+        this.metrics = other.metrics;
+        this.realtimeTrips = other.realtimeTrips;
+        this.realtimeVersion = other.realtimeVersion;
     }
 
     /*
      * Getter of the class
      */
-    public HashMap<String, List<Edge>> getGraph() { return graph; }
+    public CompactGraph getCompactGraph() { return compact; }
     public HashMap<String, Road> getRoadMap() { return roadMap; }
+    public StopNameIndex getStopNameIndex() { return nameIndex; }
     public HashMap<String, String> getTripMap() { return tripMap; }
     public HashMap<String, Stop> getStopMap() { return stopMap; }
     public HashMap<String, StopTime> getStopTimeMap() { return stopTimeMap; }
+    public ServiceCalendar getCalendar() { return calendar; }
+    public Metrics getMetrics() { return metrics; }
+    public float getWalkingBudget() { return walkingBudget; }
+    public int getRealtimeVersion() { return realtimeVersion; }
+    public int getRealtimeTripCount() { return realtimeTrips.size(); }
 
-    public void addStop(String stopId) {
-        graph.putIfAbsent(stopId, new ArrayList<>());
+    /**
+     * Sets where the engines report the work of each query (Metrics.NONE by default).
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
     }
 
     /**
-     * Adds an edge to the graph, ensuring both endpoints exist.
+     * Returns the services running on a date, to test the trips with the runs methods
+     * of the graph, the connections and the patterns.
+     * @param date the day of the journey, or null to use every trip
+     * @return the active services, or null for every trip
      */
-    public void addEdge(Edge edge) {
-        String departureStopId = edge.getDepartureStopId();
-        String arrivalStopId = edge.getArrivalStopId();
+    public long[] getActiveServices(LocalDate date) {
+        return date == null ? null : calendar.activeServices(date);
+    }
+
+    /**
+     * Returns the outgoing edges of a stop, materialized from the compact graph
+     * (one per walk and one per trip of each pattern segment).
+     * @param stopId the departure stop
+     * @return the edges, or null if the stop is not in the graph
+     */
+    public List<Edge> getEdges(String stopId) {
+        int node = compact.indexOf(stopId);
+        if (node < 0) return null;
+        List<Edge> edges = new ArrayList<>();
+        for (int e = compact.firstEdge(node); e < compact.lastEdge(node); e++) {
+            if (compact.isWalk(e)) {
+                edges.add(compact.edge(node, e));
+                continue;
+            }
+            for (int trip = 0; trip < routePatterns.get(compact.pattern(e)).tripCount(); trip++) {
+                edges.add(compact.edge(node, e, trip));
+            }
+        }
+        return edges;
+    }
+
+    /**
+     * Returns the timetable as sorted connections, building it on first use (with
+     * the real-time updates applied so far).
+     */
+    public synchronized ConnectionTable getConnectionTable() {
+        if (connectionTable == null) {
+            connectionTable = new ConnectionTable(compact, stopTimeMap, tripMap, calendar);
+            if (!realtimeTrips.isEmpty()) connectionTable = connectionTable.withTrips(realtimeTrips.values());
+        }
+        return connectionTable;
+    }
+
+    /**
+     * Returns the trips grouped into route patterns, the timetable of the graph.
+     */
+    public RoutePatterns getRoutePatterns() {
+        return routePatterns;
+    }
+
+    /**
+     * Returns the landmark lower bounds of the A* heuristic, computing them on first use.
+     */
+    public synchronized Landmarks getLandmarks() {
+        if (landmarks == null) {
+            landmarks = new Landmarks(compact, Landmarks.DEFAULT_COUNT);
+        }
+        return landmarks;
+    }
+
+    /**
+     * Returns the reverse view of the graph, for the searches back in time from the
+     * goals (see ReverseGraph), building its walks on first use.
+     */
+    public synchronized ReverseGraph getReverseGraph() {
+        if (reverseGraph == null) {
+            reverseGraph = new ReverseGraph(compact);
+        }
+        return reverseGraph;
+    }
+
+    /**
+     * Finds every stop carrying a given name (case and accent insensitive), so that a
+     * search can start from or end at any platform of a station.
+     * @return the IDs of the matching stops, empty if there is none
+     */
+    public List<String> getStopIdsViaName(String stopName) {
+        return stopName == null ? List.of() : nameIndex.exact(stopName);
+    }
+
+    /**
+     * Checks that a stop name is known, so that a query never answers for another stop
+     * than the one asked for.
+     * @throws IllegalArgumentException if no stop carries the name, with the closest names
+     */
+    public void checkStopName(String stopName) {
+        if (!getStopIdsViaName(stopName).isEmpty()) return;
+        List<String> suggestions = stopName == null ? List.of() : nameIndex.suggest(stopName, SUGGESTIONS);
+        if (suggestions.isEmpty()) throw new IllegalArgumentException("Arrêt inconnu : " + stopName);
+        throw new IllegalArgumentException("Arrêt inconnu : " + stopName + ". Vouliez-vous dire : "
+            + String.join(", ", suggestions) + " ?");
+    }
+
+    /**
+     * Returns the route of a trip, from the timetable or from the real-time update that added it.
+     */
+    public String getRouteIdOfTrip(String tripId) {
+        RealtimeTrip trip = realtimeTrips.get(tripId);
+        return trip != null ? trip.routeId : tripMap.get(tripId);
+    }
+
+    /**
+     * Returns the real-time time of a trip at a stop as "HH:mm:ss", "" if the trip no
+     * longer calls at it, or null if the trip runs on schedule.
+     */
+    public String getRealtimeHoraire(String tripId, String stopId) {
+        RealtimeTrip trip = tripId == null ? null : realtimeTrips.get(tripId);
+        if (trip == null) return null;
+        String horaire = trip.getHoraire(compact.indexOf(stopId));
+        return horaire == null ? "" : horaire;
+    }
 
-        graph.putIfAbsent(departureStopId, new ArrayList<>());
-        graph.putIfAbsent(arrivalStopId, new ArrayList<>());
+    /**
+     * Applies real-time updates (delays, cancellations and added trips) to a copy of
+     * the graph and returns it; this graph is left unchanged. Each updated trip is
+     * taken out of its route pattern and put back with its new times, in the same
+     * pattern if it keeps it sorted: only the patterns of the updated trips are copied.
+     * The connections, when already built, are not copied: the new ones are kept
+     * apart and merged at scan time (see ConnectionTable.withTrips). A trip overtaking
+     * another one, or added with a new stop sequence, gets a pattern of its own, and
+     * only the edges of its stops are moved to carry its segments (see
+     * CompactGraph.withTimetable). The static landmark bounds are kept unless a
+     * changed or new segment is faster than they allow (see Landmarks.admits).
+     * An update replaces the previous update of its trip (see TripUpdate).
+     * @param updates the trip updates, in order
+     * @return the next version of the graph
+     */
+    public Graph withUpdates(List<TripUpdate> updates) {
+        long startTime = System.nanoTime();
+        Graph next = new Graph(this);
+        next.realtimeTrips = new HashMap<>(realtimeTrips);
+        RoutePatterns.Editor editor = routePatterns.new Editor();
+        // Last itinerary of each trip updated, the connections taking at most one per trip
+        LinkedHashMap<String, RealtimeTrip> updated = new LinkedHashMap<>();
+        boolean newPatterns = false;
+        int ignored = 0;
+
+        for (TripUpdate update : updates) {
+            RealtimeTrip trip = RealtimeTrip.of(next, update);
+            if (trip == null) {
+                ignored++;
+                continue;
+            }
+            // Its current itinerary: the previous update, else the timetable
+            RealtimeTrip previous = next.realtimeTrips.get(trip.tripId);
+            int number = editor.tripOf(trip.tripId);
+            if (number >= 0) {
+                int firstStop = previous == null ? scheduledFirstStop(trip.tripId)
+                    : previous.stops.length > 0 ? previous.stops[0] : -1;
+                if (firstStop >= 0) editor.remove(number, firstStop);
+            }
+            if (trip.stops.length >= 2) {
+                if (number < 0) number = editor.addTrip(trip.tripId);
+                newPatterns |= editor.insert(number, editor.routeOf(trip.routeId), trip.stops, trip.minutes());
+            }
+            next.realtimeTrips.put(trip.tripId, trip);
+            updated.put(trip.tripId, trip);
+        }
 
-        List<Edge> edges = graph.get(departureStopId);
-        if (!edges.contains(edge)) { 
-            edges.add(edge);
+        next.routePatterns = editor.build(compact.getNodeCount());
+        next.compact = compact.withTimetable(next.routePatterns, editor.changed, roadMap);
+        synchronized (this) {
+            if (connectionTable != null) next.connectionTable = connectionTable.withTrips(updated.values());
+            if (landmarks != null && landmarksHold(next, editor.changed)) next.landmarks = landmarks;
+            if (reverseGraph != null) next.reverseGraph = reverseGraph.withTimetable(next.routePatterns);
         }
+        next.realtimeVersion = realtimeVersion + 1;
+
+        double millis = (System.nanoTime() - startTime) / 1_000_000.0;
+        metrics.observe("realtime.update_ms", millis);
+        metrics.increment("realtime.trips", updated.size());
+        System.out.printf("- Mises à jour temps réel appliquées en %.3f ms : %d courses (%d ignorées)%s\n", millis,
+            updated.size(), ignored, newPatterns ? ", nouvelles suites d’arrêts" : "");
+        return next;
+    }
+
+    /**
+     * Returns true if the landmark bounds of this version hold in the next one: the
+     * changed and new patterns pass Landmarks.admits.
+     */
+    private boolean landmarksHold(Graph next, Set<Integer> changed) {
+        for (int p : changed) {
+            if (!landmarks.admits(next.routePatterns.get(p))) return false;
+        }
+        for (int p = routePatterns.size(); p < next.routePatterns.size(); p++) {
+            if (!landmarks.admits(next.routePatterns.get(p))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the first stop of a trip in the timetable, where its pattern starts, or -1 if it has none.
+     */
+    private int scheduledFirstStop(String tripId) {
+        StopTime stopTime = stopTimeMap.get(tripId);
+        for (int position = 0; stopTime != null && position < stopTime.size(); position++) {
+            int stop = compact.indexOf(stopTime.getStopId(position));
+            if (stop >= 0) return stop;
+        }
+        return -1;
+    }
+
+    public void addStop(String stopId) {
+        builder.addStop(stopId);
+    }
+
+    /**
+     * Adds a walking edge to the graph, ensuring both endpoints exist.
+     * Only possible while the graph is being built; the trips come from the route patterns.
+     */
+    public void addEdge(Edge edge) {
+        builder.addEdge(edge.getDepartureStopId(), edge.getArrivalStopId(), edge.getDuration());
+    }
+
+    /**
+     * Sets the longest walking transfer of the graph, before createGraph.
+     * @param minutes the budget of the transfers, in minutes
+     */
+    public void setWalkingBudget(float minutes) {
+        if (!(minutes >= 0)) throw new IllegalArgumentException("Durée de marche invalide : " + minutes);
+        this.walkingBudget = minutes;
     }
 
     /**
      * Builds the graph from the GTFS data:
      * - Adds all stops as nodes.
-     * - Adds edges for each trip segment (from stop_times).
-     * - Adds walking edges between stops within a certain distance.
+     * - Adds the walking transfers between stops, closed up to the walking budget.
+     * - Groups the trips (from stop_times) into route patterns and adds one edge
+     *   per pattern segment, instead of one per trip segment.
      */
     public void createGraph() {
-        int edgeCounter = 0;
+        createGraph(false);
+    }
+
+    /**
+     * Builds the graph from the GTFS data, optionally searching the walking
+     * transfers on all available cores.
+     * @param parallel true to compute the walking transfers in parallel
+     */
+    public void createGraph(boolean parallel) {
+        createGraph(parallel, null);
+    }
 
-        // Add all stops as nodes
+    /**
+     * Builds the graph from the GTFS data, reading the walking transfers from a
+     * cache file when it holds those of the same stops, else computing and saving them.
+     * @param parallel true to compute the walking transfers in parallel
+     * @param transferCache the cache file of the transfers, or null to always compute them
+     */
+    public void createGraph(boolean parallel, File transferCache) {
+        // Add all stops as nodes, then the stops only known from the trips
         for (Stop stop : stopMap.values()) {
             String stopId = stop.getStopId();
             addStop(stopId);
         }
-
-        // Add edges for each trip segment
         for (StopTime stopTime : stopTimeMap.values()) {
-            TreeMap<Integer, List<String>> itinerary = stopTime.getItinerary();
-            String previousStopId = null;
-            String previousDepartureTime = null;
-
-            for (List<String> stopInfo : itinerary.values()) {
-                String currentStopId = stopInfo.get(0);
-                String departureTime = stopInfo.get(1);
-
-                if (currentStopId == null) continue;
-
-                if (previousStopId != null) {
-                    float duration = computeDuration(previousDepartureTime, departureTime);
-                    if (duration < 0) continue;
-
-                    Edge edge = new Edge(
-                        previousStopId,
-                        currentStopId,
-                        tripMap.get(stopTime.getTripId()),
-                        duration,
-                        stopTime.getTripId()
-                    );
-                    addEdge(edge);
-                    edgeCounter++;
-                }
-
-                previousStopId = currentStopId;
-                previousDepartureTime = departureTime;
+            for (int position = 0; position < stopTime.size(); position++) {
+                addStop(stopTime.getStopId(position));
             }
         }
 
-        // Add walking edges between nearby stops
-        float walkingSpeed = 1.4f; // 5 km/h
-        float maxWalkingDistance = 1000f; // 1km
+        // Add the walking transfers between nearby stops
+        addTransfers(loadTransfers(parallel, transferCache));
 
+        // Add one edge per segment of each route pattern
+        compact = builder.build();
+        routePatterns = new RoutePatterns(compact, stopTimeMap, tripMap, calendar);
+        compact = compact.withPatterns(routePatterns);
+        compact.setCoordinates(stopMap);
+        compact.setTransportTypes(roadMap);
+        builder = null;
+
+        int segmentCount = 0;
+        for (int edge = 0; edge < compact.getEdgeCount(); edge++) {
+            if (!compact.isWalk(edge)) segmentCount++;
+        }
+        System.out.println("- Nombre total de edges créées : " + segmentCount
+            + " (" + routePatterns.size() + " patterns, " + routePatterns.getTripCount() + " trips)");
+        System.out.println("- Nombre total de nodes créées : " + compact.getNodeCount());
+    }
+
+    /**
+     * Returns the transfers of the stops, from the cache file if it is up to date.
+     */
+    private Transfers loadTransfers(boolean parallel, File transferCache) {
         List<Stop> stops = new ArrayList<>(stopMap.values());
-        for (int i = 0; i < stops.size(); i++) {
-            Stop stopA = stops.get(i);
-            for (int j = i + 1; j < stops.size(); j++) {
-                Stop stopB = stops.get(j);
-
-                // Approximate distance in meters using latitude/longitude
-                float dLat = stopA.getStopLat() - stopB.getStopLat();
-                float dLon = stopA.getStopLon() - stopB.getStopLon();
-                float distance = (float) (Math.sqrt(dLat * dLat + dLon * dLon) * 111_000); 
-
-                if (distance > 0 && distance <= maxWalkingDistance) {
-                    float duration = distance / walkingSpeed / 60f; 
-
-                    Edge walkEdgeAB = new Edge(
-                        stopA.getStopId(),
-                        stopB.getStopId(),
-                        "WALK",
-                        duration,
-                        null
-                    );
-                    addEdge(walkEdgeAB);
-
-                    Edge walkEdgeBA = new Edge(
-                        stopB.getStopId(),
-                        stopA.getStopId(),
-                        "WALK",
-                        duration,
-                        null
-                    );
-                    addEdge(walkEdgeBA);
+        float maxDistance = Transfers.DEFAULT_MAX_DISTANCE;
+        if (transferCache != null) {
+            try {
+                Transfers transfers = Transfers.read(transferCache, stops, maxDistance, walkingBudget);
+                if (transfers != null) {
+                    System.out.println("- Transferts à pied lus depuis " + transferCache);
+                    return transfers;
                 }
+            } catch (IOException e) {
+                System.err.println("Cache des transferts illisible, ils vont être recalculés : " + e.getMessage());
             }
         }
 
-        System.out.println("- Nombre total de edges créées : " + edgeCounter);
-        System.out.println("- Nombre total de nodes créées : " + graph.size());
+        long startTime = System.nanoTime();
+        Transfers transfers = Transfers.compute(stops, maxDistance, walkingBudget, parallel);
+        System.out.printf("- Transferts à pied calculés en %.3f ms\n", (System.nanoTime() - startTime) / 1_000_000.0);
+        if (transferCache != null) {
+            try {
+                transfers.write(transferCache);
+            } catch (IOException e) {
+                System.err.println("Impossible d'écrire le cache des transferts : " + e.getMessage());
+            }
+        }
+        return transfers;
     }
 
     /**
-     * Computes the duration in minutes between two time strings ("HH:mm:ss").
-     * Returns 0 if parsing fails.
+     * Adds one walking edge per transfer, in the order of the stop IDs.
      */
-    private float computeDuration(String startTime, String endTime) {
-        try {
-            int startSeconds = Integer.parseInt(startTime.substring(0, 2)) * 3600
-                            + Integer.parseInt(startTime.substring(3, 5)) * 60
-                            + Integer.parseInt(startTime.substring(6, 8));
-            int endSeconds = Integer.parseInt(endTime.substring(0, 2)) * 3600
-                        + Integer.parseInt(endTime.substring(3, 5)) * 60
-                        + Integer.parseInt(endTime.substring(6, 8));
-            return (endSeconds - startSeconds) / 60.0f;
-        } catch (Exception e) {
-            System.err.println("Erreur lors du calcul de la durée entre " + startTime + " et " + endTime);
-            return 0;
+    private void addTransfers(Transfers transfers) {
+        for (int stop = 0; stop < transfers.stopCount(); stop++) {
+            for (int transfer = transfers.firstTransfer(stop); transfer < transfers.lastTransfer(stop); transfer++) {
+                builder.addEdge(transfers.getStopId(stop), transfers.getStopId(transfers.target(transfer)),
+                    transfers.duration(transfer));
+            }
         }
+        System.out.println("- Nombre de transferts à pied : " + transfers.size());
     }
 }
@@ -0,0 +1,153 @@
+package graph;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of node indices keyed by a float, with decrease-key.
+ * The position of every node in the heap is kept in an array indexed by node
+ * (-1 when absent), so a node is never queued twice and its key can be lowered
+ * in place. Equal keys are ordered by node index.
+ * The heap counts its insertions and decrease-keys, for the metrics of a search.
+ */
+public class IndexedMinHeap {
+    int[] nodes;
+    float[] keys;
+    int[] position;
+    int size;
+    int insertCount;
+    int decreaseCount;
+
+    /**
+     * Creates a heap for the nodes 0..capacity-1.
+     */
+    public IndexedMinHeap(int capacity) {
+        nodes = new int[Math.max(16, capacity)];
+        keys = new float[nodes.length];
+        position = new int[capacity];
+        Arrays.fill(position, -1);
+    }
+
+    /**
+     * Makes room for the nodes 0..capacity-1.
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity <= position.length) return;
+        int old = position.length;
+        position = Arrays.copyOf(position, capacity);
+        Arrays.fill(position, old, capacity, -1);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int node) {
+        return position[node] != -1;
+    }
+
+    /**
+     * Sets the counts of insertions and decrease-keys back to 0.
+     */
+    public void resetCounts() {
+        insertCount = 0;
+        decreaseCount = 0;
+    }
+
+    public int getInsertCount() {
+        return insertCount;
+    }
+
+    public int getDecreaseCount() {
+        return decreaseCount;
+    }
+
+    /**
+     * Removes every node, in time proportional to the number of nodes left.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            position[nodes[i]] = -1;
+        }
+        size = 0;
+    }
+
+    /**
+     * Adds the node with the given key, or lowers its key if it is already queued
+     * with a higher one.
+     */
+    public void insertOrDecrease(int node, float key) {
+        int i = position[node];
+        if (i == -1) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            i = size++;
+            insertCount++;
+        } else if (!less(key, node, keys[i], nodes[i])) {
+            return;
+        } else {
+            decreaseCount++;
+        }
+        siftUp(i, node, key);
+    }
+
+    /**
+     * Returns the smallest key, the heap being non-empty.
+     */
+    public float peekKey() {
+        return keys[0];
+    }
+
+    /**
+     * Removes and returns the node with the smallest key.
+     */
+    public int poll() {
+        int top = nodes[0];
+        position[top] = -1;
+        size--;
+        if (size > 0) {
+            siftDown(0, nodes[size], keys[size]);
+        }
+        return top;
+    }
+
+    private static boolean less(float key, int node, float otherKey, int otherNode) {
+        return key < otherKey || (key == otherKey && node < otherNode);
+    }
+
+    private void siftUp(int i, int node, float key) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!less(key, node, keys[parent], nodes[parent])) break;
+            move(nodes[parent], keys[parent], i);
+            i = parent;
+        }
+        move(node, key, i);
+    }
+
+    private void siftDown(int i, int node, float key) {
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && less(keys[right], nodes[right], keys[child], nodes[child])) {
+                child = right;
+            }
+            if (!less(keys[child], nodes[child], key, node)) break;
+            move(nodes[child], keys[child], i);
+            i = child;
+        }
+        move(node, key, i);
+    }
+
+    private void move(int node, float key, int i) {
+        nodes[i] = node;
+        keys[i] = key;
+        position[node] = i;
+    }
+}
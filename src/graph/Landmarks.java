@@ -0,0 +1,178 @@
+package graph;
+
+import java.util.Arrays;
+
+/**
+ * Landmark lower bounds for A* (ALT: A*, landmarks, triangle inequality).
+ * The timetable is reduced to a static graph whose edge weights are the smallest
+ * duration between two stops (the time spent riding or walking, never waiting), and
+ * the shortest static times from and to a few landmarks are computed once.
+ * Every real journey from v to t lasts at least the static distance d(v, t), and by
+ * the triangle inequality d(v, t) >= d(L, t) - d(L, v) and d(v, t) >= d(v, L) - d(t, L)
+ * for every landmark L, which gives a consistent lower bound to the goal.
+ * The landmarks are chosen one by one, each as far as possible from the ones already
+ * chosen (farthest-point selection). Distances are kept as one float array per
+ * landmark and direction, indexed by node.
+ */
+public class Landmarks {
+    public static final int DEFAULT_COUNT = 16;
+    // Covers the float rounding between the summed durations and the scheduled times
+    private static final float SLACK = 1e-3f;
+
+    int[] landmarks;
+    // fromLandmark[l][v] = d(L, v), toLandmark[l][v] = d(v, L), infinite when unreachable
+    float[][] fromLandmark;
+    float[][] toLandmark;
+
+    /**
+     * Chooses the landmarks and computes their distances on the given graph.
+     * @param compact the graph
+     * @param count the number of landmarks
+     */
+    public Landmarks(CompactGraph compact, int count) {
+        int nodeCount = compact.getNodeCount();
+        StaticGraph forward = StaticGraph.of(compact);
+        StaticGraph backward = forward.reverse();
+
+        count = Math.min(count, nodeCount);
+        landmarks = new int[count];
+        fromLandmark = new float[count][];
+        toLandmark = new float[count][];
+
+        // Sum of the distances from and to the closest landmark, for the selection
+        double[] spread = new double[nodeCount];
+        Arrays.fill(spread, Double.POSITIVE_INFINITY);
+        int chosen = 0;
+        int next = firstCandidate(forward, backward);
+        while (chosen < count && next >= 0) {
+            landmarks[chosen] = next;
+            fromLandmark[chosen] = forward.distances(next);
+            toLandmark[chosen] = backward.distances(next);
+            for (int node = 0; node < nodeCount; node++) {
+                double around = (double) fromLandmark[chosen][node] + toLandmark[chosen][node];
+                if (around < spread[node]) spread[node] = around;
+            }
+            chosen++;
+
+            next = -1;
+            double farthest = 0;
+            for (int node = 0; node < nodeCount; node++) {
+                if (spread[node] > farthest && spread[node] != Double.POSITIVE_INFINITY) {
+                    farthest = spread[node];
+                    next = node;
+                }
+            }
+        }
+        if (chosen < count) {
+            landmarks = Arrays.copyOf(landmarks, chosen);
+            fromLandmark = Arrays.copyOf(fromLandmark, chosen);
+            toLandmark = Arrays.copyOf(toLandmark, chosen);
+        }
+    }
+
+    /**
+     * Starts the selection from the node farthest from the best connected node,
+     * so the first landmark lies on the edge of the main component of the network.
+     */
+    private static int firstCandidate(StaticGraph forward, StaticGraph backward) {
+        int center = -1;
+        int degree = 0;
+        for (int node = 0; node < forward.nodeCount(); node++) {
+            int nodeDegree = forward.degree(node) + backward.degree(node);
+            if (nodeDegree > degree) {
+                degree = nodeDegree;
+                center = node;
+            }
+        }
+        if (center < 0) return -1;
+        float[] distances = forward.distances(center);
+        int farthest = center;
+        for (int node = 0; node < distances.length; node++) {
+            if (distances[node] != Float.POSITIVE_INFINITY && distances[node] > distances[farthest]) {
+                farthest = node;
+            }
+        }
+        return farthest;
+    }
+
+    /**
+     * Returns true if the bounds still hold with the segments of a new or edited
+     * pattern: none of them is shorter than the distances from and to the landmarks
+     * allow (d(L, b) <= d(L, a) + duration and d(a, L) <= duration + d(b, L)), so the
+     * bounds stay consistent without being computed again.
+     */
+    public boolean admits(RoutePattern pattern) {
+        for (int position = 0; position + 1 < pattern.stopCount(); position++) {
+            float shortest = Float.POSITIVE_INFINITY;
+            for (int trip = 0; trip < pattern.tripCount(); trip++) {
+                shortest = Math.min(shortest, pattern.time(trip, position + 1) - pattern.time(trip, position));
+            }
+            int from = pattern.stop(position);
+            int to = pattern.stop(position + 1);
+            for (int l = 0; l < landmarks.length; l++) {
+                if (fromLandmark[l][to] > fromLandmark[l][from] + shortest) return false;
+                if (toLandmark[l][from] > shortest + toLandmark[l][to]) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lower bound of the travel time from node to goal, in minutes (0 if nothing is known).
+     */
+    public float lowerBound(int node, int goal) {
+        float bound = 0f;
+        for (int l = 0; l < landmarks.length; l++) {
+            float[] from = fromLandmark[l];
+            float[] to = toLandmark[l];
+            // Terms with an unreachable side give infinity or NaN and are skipped
+            float forward = from[goal] - from[node];
+            if (forward > bound && forward != Float.POSITIVE_INFINITY) bound = forward;
+            float backward = to[node] - to[goal];
+            if (backward > bound && backward != Float.POSITIVE_INFINITY) bound = backward;
+        }
+        return bound > SLACK ? bound - SLACK : 0f;
+    }
+
+    /**
+     * Precomputes the bounds to the closest of several goals: for each landmark, the
+     * smallest distance from it to a goal and the largest distance from a goal to it.
+     * @return the argument of lowerBound(int, float[])
+     */
+    public float[] goalBounds(int[] goals) {
+        float[] bounds = new float[2 * landmarks.length];
+        for (int l = 0; l < landmarks.length; l++) {
+            float from = Float.POSITIVE_INFINITY;
+            float to = Float.NEGATIVE_INFINITY;
+            for (int goal : goals) {
+                from = Math.min(from, fromLandmark[l][goal]);
+                to = Math.max(to, toLandmark[l][goal]);
+            }
+            bounds[2 * l] = from;
+            bounds[2 * l + 1] = to;
+        }
+        return bounds;
+    }
+
+    /**
+     * Lower bound of the travel time from node to the closest of the goals given to
+     * goalBounds, in minutes: every goal is at least as far as the bounds of the
+     * landmarks computed with the closest goal from and the farthest goal to them.
+     */
+    public float lowerBound(int node, float[] goalBounds) {
+        float bound = 0f;
+        for (int l = 0; l < landmarks.length; l++) {
+            float forward = goalBounds[2 * l] - fromLandmark[l][node];
+            if (forward > bound && forward != Float.POSITIVE_INFINITY) bound = forward;
+            float backward = toLandmark[l][node] - goalBounds[2 * l + 1];
+            if (backward > bound && backward != Float.POSITIVE_INFINITY) bound = backward;
+        }
+        return bound > SLACK ? bound - SLACK : 0f;
+    }
+
+    /*
+     * Getter of the class
+     */
+    public int getCount() { return landmarks.length; }
+    public int getLandmark(int l) { return landmarks[l]; }
+}
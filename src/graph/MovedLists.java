@@ -0,0 +1,63 @@
+package graph;
+
+import java.util.Arrays;
+
+/**
+ * Nodes whose adjacency list a real-time update moved after the arrays of a
+ * compressed sparse row structure (the edges of CompactGraph, the patterns serving
+ * each stop in RoutePatterns). The versions share the arrays of the timetable, and
+ * each one only writes the lists it changed, in a small overlay of its own: a bit
+ * per node tells whether its list moved, and the bounds of the moved lists are
+ * found by binary search among the moved nodes, sorted.
+ */
+class MovedLists {
+    long[] moved;
+    int[] nodes;
+    // width bounds per moved node, in the order of nodes
+    int[] bounds;
+    int width;
+
+    /**
+     * @param nodeCount the number of nodes of the structure
+     * @param nodes the moved nodes, sorted
+     * @param bounds the bounds of their lists, width per node
+     * @param width the number of bounds of a list
+     */
+    MovedLists(int nodeCount, int[] nodes, int[] bounds, int width) {
+        this.moved = new long[(nodeCount + 63) / 64];
+        for (int node : nodes) moved[node >>> 6] |= 1L << node;
+        this.nodes = nodes;
+        this.bounds = bounds;
+        this.width = width;
+    }
+
+    /**
+     * Returns true if the list of a node moved.
+     */
+    boolean contains(int node) {
+        return (moved[node >>> 6] & (1L << node)) != 0;
+    }
+
+    /**
+     * Returns the k-th bound of the list of a moved node.
+     */
+    int bound(int node, int k) {
+        return bounds[Arrays.binarySearch(nodes, node) * width + k];
+    }
+
+    /**
+     * Returns the moved nodes, sorted, with the given nodes added.
+     * @param others nodes sorted, possibly already moved
+     */
+    int[] union(int[] others) {
+        int[] result = new int[nodes.length + others.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < nodes.length || j < others.length) {
+            int node = j == others.length || (i < nodes.length && nodes[i] < others[j]) ? nodes[i++] : others[j++];
+            if (size == 0 || result[size - 1] != node) result[size++] = node;
+        }
+        return Arrays.copyOf(result, size);
+    }
+}
@@ -0,0 +1,129 @@
+package graph;
+
+import java.util.Arrays;
+
+import common.Common;
+import process.StopTime;
+import process.TripUpdate;
+
+/**
+ * Itinerary of a trip after its last real-time update: the stops it still calls at
+ * (node indices, none when it is cancelled) and the time at each one, in seconds
+ * after midnight. The stops and times follow the same rules as the timetable (see
+ * RoutePatterns): unknown stops are skipped, and so are the stops whose scheduled
+ * time goes back.
+ */
+class RealtimeTrip {
+    String tripId;
+    String routeId;
+    int[] stops;
+    int[] seconds;
+
+    RealtimeTrip(String tripId, String routeId, int[] stops, int[] seconds) {
+        this.tripId = tripId;
+        this.routeId = routeId;
+        this.stops = stops;
+        this.seconds = seconds;
+    }
+
+    /**
+     * Builds the itinerary of an update, or returns null if the update does not
+     * apply (unknown trip, trip added twice to the timetable, added trip without route).
+     * @param graph the graph holding the schedule and the previous updates
+     * @param update the update of the trip
+     */
+    static RealtimeTrip of(Graph graph, TripUpdate update) {
+        String tripId = update.getTripId();
+        StopTime scheduled = graph.stopTimeMap.get(tripId);
+        RealtimeTrip previous = graph.realtimeTrips.get(tripId);
+        switch (update.getRelationship()) {
+            case TripUpdate.CANCELED:
+                if (scheduled == null && previous == null) return null;
+                return new RealtimeTrip(tripId, previous != null ? previous.routeId : graph.tripMap.get(tripId),
+                    new int[0], new int[0]);
+            case TripUpdate.ADDED:
+                if (scheduled != null || update.getRouteId() == null) return null;
+                return added(graph.compact, update);
+            default:
+                if (scheduled == null) return null;
+                return delayed(graph.compact, scheduled, graph.tripMap.get(tripId), update);
+        }
+    }
+
+    /**
+     * Applies the delays of an update to the schedule of the trip, each delay running
+     * from its stop to the next stop of the update. A trip never goes back in time:
+     * when a delay is shorter than the previous one, the stops are not earlier than the stop before.
+     */
+    private static RealtimeTrip delayed(CompactGraph compact, StopTime scheduled, String routeId, TripUpdate update) {
+        int[] stops = new int[scheduled.size()];
+        int[] seconds = new int[scheduled.size()];
+        int count = 0;
+        float last = 0;
+        for (int position = 0; position < scheduled.size(); position++) {
+            int stop = compact.indexOf(scheduled.getStopId(position));
+            if (stop < 0) continue;
+            float time = scheduled.getMinutes(position);
+            if (count > 0 && time < last) continue;
+            stops[count] = stop;
+            seconds[count] = scheduled.getTime(position);
+            last = time;
+            count++;
+        }
+
+        // The stops of the update are matched in itinerary order, a stop visited twice at its visit after the previous match
+        int[] delays = new int[count];
+        int from = 0;
+        for (int i = 0; i < update.size(); i++) {
+            int stop = compact.indexOf(update.getStopId(i));
+            int position = from;
+            while (position < count && stops[position] != stop) position++;
+            if (position == count) continue;
+            for (int p = position; p < count; p++) delays[p] = update.getDelay(i);
+            from = position;
+        }
+        for (int position = 0; position < count; position++) {
+            seconds[position] += delays[position];
+            if (position > 0) seconds[position] = Math.max(seconds[position], seconds[position - 1]);
+        }
+        return new RealtimeTrip(update.getTripId(), routeId, Arrays.copyOf(stops, count),
+            Arrays.copyOf(seconds, count));
+    }
+
+    private static RealtimeTrip added(CompactGraph compact, TripUpdate update) {
+        int[] stops = new int[update.size()];
+        int[] seconds = new int[update.size()];
+        int count = 0;
+        for (int i = 0; i < update.size(); i++) {
+            int stop = compact.indexOf(update.getStopId(i));
+            if (stop < 0) continue;
+            if (count > 0 && update.getTime(i) < seconds[count - 1]) continue;
+            stops[count] = stop;
+            seconds[count] = update.getTime(i);
+            count++;
+        }
+        return new RealtimeTrip(update.getTripId(), update.getRouteId(), Arrays.copyOf(stops, count),
+            Arrays.copyOf(seconds, count));
+    }
+
+    /**
+     * Returns the time at each stop in minutes, with the rounding of the timetable.
+     */
+    float[] minutes() {
+        float[] minutes = new float[seconds.length];
+        for (int i = 0; i < minutes.length; i++) {
+            minutes[i] = Common.secondsToFloat(seconds[i]);
+        }
+        return minutes;
+    }
+
+    /**
+     * Returns the time of the first visit of a stop as "HH:mm:ss", or null if the trip does not call at it.
+     */
+    String getHoraire(int stop) {
+        for (int i = 0; i < stops.length; i++) {
+            if (stops[i] == stop) return Common.secondsToHoraire(seconds[i]);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,109 @@
+package graph;
+
+import java.util.Arrays;
+
+/**
+ * Reverse view of the CompactGraph, for the searches that go back in time from the
+ * goals (latest departure, see request.Astar with -BIDIR). For each node, it gives
+ * the walking edges arriving at it, in CSR form, and the segments arriving at it:
+ * those are read from the index of the stops of the route patterns, as the slots
+ * where the node is not the first stop of its pattern, so they follow the real-time
+ * updates of the patterns for free. The walks never change, and the versions of the
+ * graph share them (withTimetable). The latest trip of a segment arriving by a given
+ * time is found by binary search, the mirror of CompactGraph.nextTrip.
+ */
+public class ReverseGraph {
+    // Walks arriving at node n: sources and durations [offsets[n] .. offsets[n + 1] - 1]
+    int[] offsets;
+    int[] sources;
+    float[] durations;
+    RoutePatterns timetable;
+
+    /**
+     * Builds the reverse of the walking edges of a graph.
+     */
+    ReverseGraph(CompactGraph compact) {
+        int nodeCount = compact.getNodeCount();
+        offsets = new int[nodeCount + 1];
+        for (int node = 0; node < nodeCount; node++) {
+            for (int edge = compact.firstEdge(node); edge < compact.firstTripEdge(node); edge++) {
+                offsets[compact.target(edge) + 1]++;
+            }
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            offsets[node + 1] += offsets[node];
+        }
+        sources = new int[offsets[nodeCount]];
+        durations = new float[offsets[nodeCount]];
+        int[] fill = Arrays.copyOf(offsets, nodeCount);
+        for (int node = 0; node < nodeCount; node++) {
+            for (int edge = compact.firstEdge(node); edge < compact.firstTripEdge(node); edge++) {
+                int slot = fill[compact.target(edge)]++;
+                sources[slot] = node;
+                durations[slot] = compact.duration(edge);
+            }
+        }
+        timetable = compact.getTimetable();
+    }
+
+    private ReverseGraph(ReverseGraph other, RoutePatterns timetable) {
+        this.offsets = other.offsets;
+        this.sources = other.sources;
+        this.durations = other.durations;
+        this.timetable = timetable;
+    }
+
+    /**
+     * Returns the same view over another version of the patterns (real-time updates).
+     */
+    ReverseGraph withTimetable(RoutePatterns timetable) {
+        return new ReverseGraph(this, timetable);
+    }
+
+    /*
+     * Getter of the class
+     */
+    public RoutePatterns getTimetable() { return timetable; }
+    public int getNodeCount() { return offsets.length - 1; }
+
+    public int firstWalkTo(int node) { return offsets[node]; }
+    public int lastWalkTo(int node) { return offsets[node + 1]; }
+    public int walkSource(int walk) { return sources[walk]; }
+    public float walkDuration(int walk) { return durations[walk]; }
+
+    public int firstSegmentTo(int node) { return timetable.firstPatternOf(node); }
+    public int lastSegmentTo(int node) { return timetable.lastPatternOf(node); }
+
+    /**
+     * Returns the pattern of a segment arriving at a node, or -1 if the node is the
+     * first stop of the pattern of this slot, which no segment reaches.
+     * @param slot a slot between firstSegmentTo and lastSegmentTo of the node
+     */
+    public int segmentPattern(int slot) {
+        return timetable.positionAt(slot) == 0 ? -1 : timetable.patternAt(slot);
+    }
+
+    /**
+     * Position of the departure stop of a segment in its pattern (the node arrived
+     * at is the next one).
+     */
+    public int segmentPosition(int slot) {
+        return timetable.positionAt(slot) - 1;
+    }
+
+    /**
+     * Returns the last trip of a segment arriving at or before the given time and
+     * running on the day of the active services, as a trip position in its pattern.
+     * Trips never overtake each other, so it is also the last to leave.
+     * @param slot a slot whose segmentPattern is not -1
+     * @param time the latest arrival, in minutes
+     * @param activeServices see ServiceCalendar.activeServices, null for every day
+     * @return the trip position, or -1 if no trip arrives by then
+     */
+    public int previousTrip(int slot, float time, long[] activeServices) {
+        RoutePattern pattern = timetable.get(timetable.patternAt(slot));
+        int trip = pattern.lastTripBefore(timetable.positionAt(slot), time);
+        while (trip >= 0 && !timetable.runs(pattern.trip(trip), activeServices)) trip--;
+        return trip;
+    }
+}
@@ -0,0 +1,110 @@
+package graph;
+
+/**
+ * Group of trips of one route that serve exactly the same sequence of stops.
+ * The trips are sorted by departure and never overtake each other, so the
+ * departure times at every position of the pattern are sorted too.
+ * Times are stored trip-major: times[trip * stopCount + position], in minutes.
+ */
+public class RoutePattern {
+    int routeIndex;
+    int[] stops;
+    int[] trips;
+    float[] times;
+
+    RoutePattern(int routeIndex, int[] stops, int[] trips, float[] times) {
+        this.routeIndex = routeIndex;
+        this.stops = stops;
+        this.trips = trips;
+        this.times = times;
+    }
+
+    /*
+     * Getter of the class
+     */
+    public int getRouteIndex() { return routeIndex; }
+    public int stopCount() { return stops.length; }
+    public int tripCount() { return trips.length; }
+    public int stop(int position) { return stops[position]; }
+    public int trip(int tripPosition) { return trips[tripPosition]; }
+    public float time(int tripPosition, int position) { return times[tripPosition * stops.length + position]; }
+
+    /**
+     * Returns the position of the first trip leaving the given stop position
+     * at or after the given time, or tripCount() if there is none.
+     */
+    public int firstTripAfter(int position, float time) {
+        int low = 0;
+        int high = trips.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (time(middle, position) < time) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Returns the position of the last trip at the given stop position at or before
+     * the given time, or -1 if there is none.
+     */
+    public int lastTripBefore(int position, float time) {
+        int low = 0;
+        int high = trips.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (time(middle, position) <= time) low = middle + 1;
+            else high = middle;
+        }
+        return low - 1;
+    }
+
+    /**
+     * Returns a copy of the pattern with one more trip, placed by departure time, or
+     * null if the trip would overtake a trip of the pattern or be overtaken by one.
+     * @param trip the trip number
+     * @param tripTimes the time of the trip at each position, in minutes
+     */
+    RoutePattern with(int trip, float[] tripTimes) {
+        int count = stops.length;
+        int at = firstTripAfter(0, tripTimes[0]);
+        // Sorted at every position: no trip before it leaves later, no trip after it earlier
+        for (int position = 0; position < count; position++) {
+            if (at > 0 && time(at - 1, position) > tripTimes[position]) return null;
+            if (at < trips.length && time(at, position) < tripTimes[position]) return null;
+        }
+        int[] newTrips = new int[trips.length + 1];
+        System.arraycopy(trips, 0, newTrips, 0, at);
+        newTrips[at] = trip;
+        System.arraycopy(trips, at, newTrips, at + 1, trips.length - at);
+        float[] newTimes = new float[times.length + count];
+        System.arraycopy(times, 0, newTimes, 0, at * count);
+        System.arraycopy(tripTimes, 0, newTimes, at * count, count);
+        System.arraycopy(times, at * count, newTimes, (at + 1) * count, times.length - at * count);
+        return new RoutePattern(routeIndex, stops, newTrips, newTimes);
+    }
+
+    /**
+     * Returns a copy of the pattern without the trip at the given position.
+     */
+    RoutePattern without(int tripPosition) {
+        int count = stops.length;
+        int[] newTrips = new int[trips.length - 1];
+        System.arraycopy(trips, 0, newTrips, 0, tripPosition);
+        System.arraycopy(trips, tripPosition + 1, newTrips, tripPosition, newTrips.length - tripPosition);
+        float[] newTimes = new float[times.length - count];
+        System.arraycopy(times, 0, newTimes, 0, tripPosition * count);
+        System.arraycopy(times, (tripPosition + 1) * count, newTimes, tripPosition * count, newTimes.length - tripPosition * count);
+        return new RoutePattern(routeIndex, stops, newTrips, newTimes);
+    }
+
+    /**
+     * Returns the position of a trip in the pattern, or -1 if it is not in it.
+     */
+    int positionOf(int trip) {
+        for (int i = 0; i < trips.length; i++) {
+            if (trips[i] == trip) return i;
+        }
+        return -1;
+    }
+}
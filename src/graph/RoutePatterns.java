@@ -0,0 +1,434 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import process.ServiceCalendar;
+import process.StopTime;
+
+/**
+ * Groups the trips of the timetable into route patterns (same route, same stop
+ * sequence, no overtaking) and indexes, for every stop, the patterns serving it.
+ * Stops use the node indices of the CompactGraph, trips are numbered from 0.
+ */
+public class RoutePatterns {
+    RoutePattern[] patterns;
+    String[] tripIds;
+    String[] routeIds;
+    int[] tripServices;
+
+    // Patterns serving each stop: stopPatterns[stopOffsets[s] .. stopOffsets[s + 1] - 1],
+    // with the position of the stop in the pattern in stopPositions
+    int[] stopOffsets;
+    int[] stopPatterns;
+    int[] stopPositions;
+    // Stops whose patterns were moved by real-time updates, null if none; their slots
+    // are numbered from stopPatterns.length on, in the moved arrays
+    MovedLists movedStops;
+    int[] movedPatterns;
+    int[] movedPositions;
+
+    // Trip ID to trip number, built on first use by the real-time updates
+    HashMap<String, Integer> tripIndex;
+
+    /**
+     * Builds the patterns of every trip of the stopTimeMap, using the same segment
+     * rules as Graph.createGraph (unknown stops and stops going back in time are skipped).
+     * @param compact the graph giving the node index of each stop
+     * @param stopTimeMap the trips and their itineraries
+     * @param tripMap tripId to routeId
+     * @param calendar the service of each trip
+     */
+    public RoutePatterns(CompactGraph compact, HashMap<String, StopTime> stopTimeMap, HashMap<String, String> tripMap,
+            ServiceCalendar calendar) {
+        List<String> tripList = new ArrayList<>();
+        List<String> routeList = new ArrayList<>();
+        HashMap<String, Integer> routeIndex = new HashMap<>();
+        List<int[]> tripStops = new ArrayList<>();
+        List<float[]> tripTimes = new ArrayList<>();
+        HashMap<String, List<Integer>> groups = new HashMap<>();
+
+        for (StopTime stopTime : stopTimeMap.values()) {
+            int[] stops = new int[stopTime.size()];
+            float[] times = new float[stopTime.size()];
+            int count = 0;
+            for (int position = 0; position < stopTime.size(); position++) {
+                int stop = compact.indexOf(stopTime.getStopId(position));
+                if (stop < 0) continue;
+                float time = stopTime.getMinutes(position);
+                if (count > 0 && time < times[count - 1]) continue;
+                stops[count] = stop;
+                times[count] = time;
+                count++;
+            }
+            if (count < 2) continue;
+
+            String routeId = tripMap.get(stopTime.getTripId());
+            Integer route = routeIndex.get(routeId);
+            if (route == null) {
+                route = routeList.size();
+                routeList.add(routeId);
+                routeIndex.put(routeId, route);
+            }
+
+            int trip = tripList.size();
+            tripList.add(stopTime.getTripId());
+            tripStops.add(Arrays.copyOf(stops, count));
+            tripTimes.add(Arrays.copyOf(times, count));
+
+            String key = route + ":" + Arrays.toString(tripStops.get(trip));
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(trip);
+        }
+
+        tripIds = tripList.toArray(new String[0]);
+        routeIds = routeList.toArray(new String[0]);
+        tripServices = new int[tripIds.length];
+        for (int trip = 0; trip < tripIds.length; trip++) {
+            tripServices[trip] = calendar.serviceOf(tripIds[trip]);
+        }
+
+        List<RoutePattern> patternList = new ArrayList<>();
+        for (List<Integer> group : groups.values()) {
+            int route = routeIndex.get(tripMap.get(tripIds[group.get(0)]));
+            splitWithoutOvertaking(route, group, tripStops, tripTimes, patternList);
+        }
+        patterns = patternList.toArray(new RoutePattern[0]);
+        indexStops(compact.getNodeCount());
+    }
+
+    /**
+     * Rebuilds the patterns from their arrays (snapshot loading).
+     * @param nodeCount the number of nodes of the graph
+     */
+    RoutePatterns(RoutePattern[] patterns, String[] tripIds, String[] routeIds, int[] tripServices, int nodeCount) {
+        this.patterns = patterns;
+        this.tripIds = tripIds;
+        this.routeIds = routeIds;
+        this.tripServices = tripServices;
+        indexStops(nodeCount);
+    }
+
+    /**
+     * Version of the patterns with other trips, sharing the index of the stops
+     * (real-time updates, see Editor).
+     */
+    private RoutePatterns(RoutePattern[] patterns, String[] tripIds, String[] routeIds, int[] tripServices,
+            RoutePatterns stopIndex) {
+        this.patterns = patterns;
+        this.tripIds = tripIds;
+        this.routeIds = routeIds;
+        this.tripServices = tripServices;
+        this.stopOffsets = stopIndex.stopOffsets;
+        this.stopPatterns = stopIndex.stopPatterns;
+        this.stopPositions = stopIndex.stopPositions;
+        this.movedStops = stopIndex.movedStops;
+        this.movedPatterns = stopIndex.movedPatterns;
+        this.movedPositions = stopIndex.movedPositions;
+    }
+
+    /**
+     * Sorts the trips of a group by departure and splits them into patterns in
+     * which no trip overtakes the previous one.
+     */
+    private void splitWithoutOvertaking(int route, List<Integer> group, List<int[]> tripStops, List<float[]> tripTimes,
+            List<RoutePattern> patternList) {
+        group.sort((a, b) -> {
+            float[] timesA = tripTimes.get(a);
+            float[] timesB = tripTimes.get(b);
+            for (int p = 0; p < timesA.length; p++) {
+                int compare = Float.compare(timesA[p], timesB[p]);
+                if (compare != 0) return compare;
+            }
+            return 0;
+        });
+
+        List<List<Integer>> parts = new ArrayList<>();
+        for (int trip : group) {
+            float[] times = tripTimes.get(trip);
+            List<Integer> target = null;
+            for (List<Integer> part : parts) {
+                float[] last = tripTimes.get(part.get(part.size() - 1));
+                boolean overtakes = false;
+                for (int p = 0; p < times.length && !overtakes; p++) {
+                    overtakes = times[p] < last[p];
+                }
+                if (!overtakes) {
+                    target = part;
+                    break;
+                }
+            }
+            if (target == null) {
+                target = new ArrayList<>();
+                parts.add(target);
+            }
+            target.add(trip);
+        }
+
+        int[] stops = tripStops.get(group.get(0));
+        for (List<Integer> part : parts) {
+            int[] trips = new int[part.size()];
+            float[] times = new float[part.size() * stops.length];
+            for (int i = 0; i < trips.length; i++) {
+                trips[i] = part.get(i);
+                System.arraycopy(tripTimes.get(trips[i]), 0, times, i * stops.length, stops.length);
+            }
+            patternList.add(new RoutePattern(route, stops, trips, times));
+        }
+    }
+
+    private void indexStops(int nodeCount) {
+        stopOffsets = new int[nodeCount + 1];
+        for (RoutePattern pattern : patterns) {
+            for (int stop : pattern.stops) stopOffsets[stop + 1]++;
+        }
+        for (int s = 0; s < nodeCount; s++) {
+            stopOffsets[s + 1] += stopOffsets[s];
+        }
+        int[] fill = Arrays.copyOf(stopOffsets, nodeCount);
+        stopPatterns = new int[stopOffsets[nodeCount]];
+        stopPositions = new int[stopOffsets[nodeCount]];
+        for (int p = 0; p < patterns.length; p++) {
+            int[] stops = patterns[p].stops;
+            for (int position = 0; position < stops.length; position++) {
+                int slot = fill[stops[position]]++;
+                stopPatterns[slot] = p;
+                stopPositions[slot] = position;
+            }
+        }
+    }
+
+    /**
+     * Adds the patterns from first on to the shared index of the stops: the lists of
+     * their stops are moved after the arrays of the index (see MovedLists), so that
+     * the cost is that of the moved lists, or the index is rebuilt once they outgrow
+     * an eighth of it.
+     */
+    private void indexNewPatterns(int first, int nodeCount) {
+        TreeMap<Integer, List<int[]>> added = new TreeMap<>();
+        int size = 0;
+        for (int p = first; p < patterns.length; p++) {
+            int[] stops = patterns[p].stops;
+            for (int position = 0; position < stops.length; position++) {
+                added.computeIfAbsent(stops[position], k -> new ArrayList<>()).add(new int[] {p, position});
+            }
+            size += stops.length;
+        }
+        int[] stops = added.keySet().stream().mapToInt(Integer::intValue).toArray();
+        if (movedStops != null) stops = movedStops.union(stops);
+        for (int stop : stops) size += lastPatternOf(stop) - firstPatternOf(stop);
+        if (size > stopPatterns.length / 8) {
+            indexStops(nodeCount);
+            movedStops = null;
+            movedPatterns = null;
+            movedPositions = null;
+            return;
+        }
+
+        int[] bounds = new int[2 * stops.length];
+        int[] newPatterns = new int[size];
+        int[] newPositions = new int[size];
+        int fill = 0;
+        for (int i = 0; i < stops.length; i++) {
+            bounds[2 * i] = stopPatterns.length + fill;
+            for (int slot = firstPatternOf(stops[i]); slot < lastPatternOf(stops[i]); slot++) {
+                newPatterns[fill] = patternAt(slot);
+                newPositions[fill] = positionAt(slot);
+                fill++;
+            }
+            for (int[] entry : added.getOrDefault(stops[i], Collections.emptyList())) {
+                newPatterns[fill] = entry[0];
+                newPositions[fill] = entry[1];
+                fill++;
+            }
+            bounds[2 * i + 1] = stopPatterns.length + fill;
+        }
+        movedStops = new MovedLists(nodeCount, stops, bounds, 2);
+        movedPatterns = newPatterns;
+        movedPositions = newPositions;
+    }
+
+    /**
+     * Returns true if the trip runs on the day of the given active services
+     * (see ServiceCalendar.activeServices, null for every day).
+     */
+    public boolean runs(int trip, long[] activeServices) {
+        return ServiceCalendar.isActive(activeServices, tripServices[trip]);
+    }
+
+    /**
+     * Returns the number of a trip, or -1 if it is in no pattern.
+     */
+    synchronized int indexOfTrip(String tripId) {
+        if (tripIndex == null) {
+            tripIndex = new HashMap<>(tripIds.length * 2);
+            for (int trip = 0; trip < tripIds.length; trip++) tripIndex.put(tripIds[trip], trip);
+        }
+        Integer trip = tripIndex.get(tripId);
+        return trip == null ? -1 : trip;
+    }
+
+    /**
+     * Moves trips between the patterns of a new version of the timetable, for the
+     * real-time updates. Each pattern whose trips change is copied, the other
+     * patterns, the trips and the index of the stops are shared with this version,
+     * which is never modified; the new trips and patterns are appended, and the
+     * stops of the new patterns get their lists moved (see indexNewPatterns).
+     */
+    class Editor {
+        RoutePattern[] edited = patterns.clone();
+        List<RoutePattern> newPatterns = new ArrayList<>();
+        List<String> newTripIds = new ArrayList<>();
+        HashMap<String, Integer> newTripIndex = new HashMap<>();
+        List<String> newRouteIds = new ArrayList<>();
+        HashMap<String, Integer> routeIndex;
+        // Patterns of this version whose trips changed
+        Set<Integer> changed = new TreeSet<>();
+
+        /**
+         * Returns the number of a trip, or -1 if it is in no pattern.
+         */
+        int tripOf(String tripId) {
+            int trip = indexOfTrip(tripId);
+            if (trip >= 0) return trip;
+            Integer added = newTripIndex.get(tripId);
+            return added == null ? -1 : added;
+        }
+
+        /**
+         * Numbers a trip missing from the timetable; it runs every day.
+         */
+        int addTrip(String tripId) {
+            int trip = tripIds.length + newTripIds.size();
+            newTripIds.add(tripId);
+            newTripIndex.put(tripId, trip);
+            return trip;
+        }
+
+        /**
+         * Returns the number of a route, numbering it if it has no pattern yet.
+         */
+        int routeOf(String routeId) {
+            if (routeIndex == null) {
+                routeIndex = new HashMap<>(routeIds.length * 2);
+                for (int route = 0; route < routeIds.length; route++) routeIndex.put(routeIds[route], route);
+            }
+            Integer route = routeIndex.get(routeId);
+            if (route == null) {
+                route = routeIds.length + newRouteIds.size();
+                newRouteIds.add(routeId);
+                routeIndex.put(routeId, route);
+            }
+            return route;
+        }
+
+        /**
+         * Removes a trip from its pattern, found among the patterns starting at its first stop.
+         */
+        void remove(int trip, int firstStop) {
+            for (int slot = firstPatternOf(firstStop); slot < lastPatternOf(firstStop); slot++) {
+                int p = patternAt(slot);
+                int position = positionAt(slot) == 0 ? edited[p].positionOf(trip) : -1;
+                if (position >= 0) {
+                    edited[p] = edited[p].without(position);
+                    changed.add(p);
+                    return;
+                }
+            }
+            for (int p = 0; p < newPatterns.size(); p++) {
+                int position = newPatterns.get(p).stops[0] == firstStop ? newPatterns.get(p).positionOf(trip) : -1;
+                if (position >= 0) {
+                    newPatterns.set(p, newPatterns.get(p).without(position));
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Puts a trip in a pattern of its route and stops that it keeps sorted, or in a new pattern.
+         * @param times the time of the trip at each stop, in minutes
+         * @return true if a new pattern was needed
+         */
+        boolean insert(int trip, int route, int[] stops, float[] times) {
+            for (int slot = firstPatternOf(stops[0]); slot < lastPatternOf(stops[0]); slot++) {
+                int p = patternAt(slot);
+                if (positionAt(slot) != 0 || !fits(edited[p], route, stops)) continue;
+                RoutePattern pattern = edited[p].with(trip, times);
+                if (pattern != null) {
+                    edited[p] = pattern;
+                    changed.add(p);
+                    return false;
+                }
+            }
+            for (int p = 0; p < newPatterns.size(); p++) {
+                RoutePattern pattern = fits(newPatterns.get(p), route, stops) ? newPatterns.get(p).with(trip, times) : null;
+                if (pattern != null) {
+                    newPatterns.set(p, pattern);
+                    return true;
+                }
+            }
+            newPatterns.add(new RoutePattern(route, stops, new int[] {trip}, times));
+            return true;
+        }
+
+        private boolean fits(RoutePattern pattern, int route, int[] stops) {
+            return pattern.routeIndex == route && Arrays.equals(pattern.stops, stops);
+        }
+
+        /**
+         * Returns the edited version of the timetable.
+         * @param nodeCount the number of nodes of the graph
+         */
+        RoutePatterns build(int nodeCount) {
+            String[] allTripIds = tripIds;
+            int[] allServices = tripServices;
+            if (!newTripIds.isEmpty()) {
+                allTripIds = Arrays.copyOf(tripIds, tripIds.length + newTripIds.size());
+                allServices = Arrays.copyOf(tripServices, allTripIds.length);
+                for (int i = 0; i < newTripIds.size(); i++) {
+                    allTripIds[tripIds.length + i] = newTripIds.get(i);
+                    allServices[tripIds.length + i] = -1;
+                }
+            }
+            String[] allRouteIds = routeIds;
+            if (!newRouteIds.isEmpty()) {
+                allRouteIds = Arrays.copyOf(routeIds, routeIds.length + newRouteIds.size());
+                for (int i = 0; i < newRouteIds.size(); i++) allRouteIds[routeIds.length + i] = newRouteIds.get(i);
+            }
+            RoutePattern[] all = edited;
+            if (!newPatterns.isEmpty()) {
+                all = Arrays.copyOf(edited, edited.length + newPatterns.size());
+                for (int i = 0; i < newPatterns.size(); i++) all[edited.length + i] = newPatterns.get(i);
+            }
+            RoutePatterns timetable = new RoutePatterns(all, allTripIds, allRouteIds, allServices, RoutePatterns.this);
+            if (newTripIds.isEmpty()) timetable.tripIndex = tripIndex;
+            if (!newPatterns.isEmpty()) timetable.indexNewPatterns(edited.length, nodeCount);
+            return timetable;
+        }
+    }
+
+    /*
+     * Getter of the class
+     */
+    public int size() { return patterns.length; }
+    public RoutePattern get(int pattern) { return patterns[pattern]; }
+    public String getTripId(int trip) { return tripIds[trip]; }
+    public String getRouteId(int route) { return routeIds[route]; }
+    public int getTripCount() { return tripIds.length; }
+
+    public int firstPatternOf(int stop) { return isMoved(stop) ? movedStops.bound(stop, 0) : stopOffsets[stop]; }
+    public int lastPatternOf(int stop) { return isMoved(stop) ? movedStops.bound(stop, 1) : stopOffsets[stop + 1]; }
+    public int patternAt(int slot) {
+        return slot < stopPatterns.length ? stopPatterns[slot] : movedPatterns[slot - stopPatterns.length];
+    }
+    public int positionAt(int slot) {
+        return slot < stopPositions.length ? stopPositions[slot] : movedPositions[slot - stopPositions.length];
+    }
+
+    private boolean isMoved(int stop) { return movedStops != null && movedStops.contains(stop); }
+}
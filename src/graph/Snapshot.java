@@ -0,0 +1,508 @@
+package graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import process.IdDictionary;
+import process.Road;
+import process.ServiceCalendar;
+import process.Stop;
+import process.StopTime;
+import process.TripStore;
+
+/**
+ * Versioned binary snapshot of a parsed and built network (roads, stops, trips,
+ * stop times, service calendar, route patterns, the edges of the CompactGraph and the
+ * walking budget of its transfers), so that the GTFS files do not have to be parsed
+ * again at every start.
+ *
+ * Every distinct string is written once in a string table and referenced by its
+ * index; everything else is written as primitive arrays. The loader maps the file
+ * with a FileChannel and copies each array in bulk, so it creates one object per
+ * distinct string and per parsed entity, and nothing per edge.
+ */
+public class Snapshot {
+    static final int MAGIC = 0x53505031; // "SPP1"
+    static final int VERSION = 6;
+
+    // Size of the window mapped at once when reading
+    private static final int WINDOW = 64 << 20;
+
+    /**
+     * Returns true if the snapshot exists and is newer than every source file.
+     * @param snapshot the snapshot file
+     * @param sources the CSV files it was built from
+     */
+    public static boolean isNewerThan(File snapshot, List<String> sources) {
+        if (!snapshot.isFile()) return false;
+        for (String source : sources) {
+            File file = new File(source);
+            if (file.exists() && file.lastModified() >= snapshot.lastModified()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the network of a built graph.
+     * @param file the snapshot file
+     * @param graph the graph, after createGraph
+     */
+    public static void write(File file, Graph graph) throws IOException {
+        IdDictionary strings = new IdDictionary();
+
+        // Roads, stops and trips as string references and coordinates
+        List<Road> roads = new ArrayList<>(graph.getRoadMap().values());
+        int[] roadRefs = new int[roads.size() * 4];
+        for (int i = 0; i < roads.size(); i++) {
+            Road road = roads.get(i);
+            roadRefs[i * 4] = intern(road.getRoadId(), strings);
+            roadRefs[i * 4 + 1] = intern(road.getRoadShortName(), strings);
+            roadRefs[i * 4 + 2] = intern(road.getRoadLongName(), strings);
+            roadRefs[i * 4 + 3] = intern(road.getTransportType(), strings);
+        }
+
+        List<Stop> stops = new ArrayList<>(graph.getStopMap().values());
+        int[] stopRefs = new int[stops.size() * 2];
+        float[] stopLat = new float[stops.size()];
+        float[] stopLon = new float[stops.size()];
+        for (int i = 0; i < stops.size(); i++) {
+            stopRefs[i * 2] = intern(stops.get(i).getStopId(), strings);
+            stopRefs[i * 2 + 1] = intern(stops.get(i).getStopName(), strings);
+            stopLat[i] = stops.get(i).getStopLat();
+            stopLon[i] = stops.get(i).getStopLon();
+        }
+
+        int[] tripRefs = new int[graph.getTripMap().size() * 2];
+        int t = 0;
+        for (Map.Entry<String, String> trip : graph.getTripMap().entrySet()) {
+            tripRefs[t++] = intern(trip.getKey(), strings);
+            tripRefs[t++] = intern(trip.getValue(), strings);
+        }
+
+        // Stop times: the trip of each itinerary, then the flattened itineraries (times in seconds)
+        List<StopTime> stopTimes = new ArrayList<>(graph.getStopTimeMap().values());
+        int[] stopTimeRefs = new int[stopTimes.size()];
+        int[] itineraryOffsets = new int[stopTimes.size() + 1];
+        for (int i = 0; i < stopTimes.size(); i++) {
+            itineraryOffsets[i + 1] = itineraryOffsets[i] + stopTimes.get(i).size();
+        }
+        int[] sequences = new int[itineraryOffsets[stopTimes.size()]];
+        int[] itineraryStops = new int[sequences.length];
+        int[] itineraryTimes = new int[sequences.length];
+        for (int i = 0; i < stopTimes.size(); i++) {
+            StopTime stopTime = stopTimes.get(i);
+            stopTimeRefs[i] = intern(stopTime.getTripId(), strings);
+            for (int position = 0; position < stopTime.size(); position++) {
+                int row = itineraryOffsets[i] + position;
+                sequences[row] = stopTime.getSequence(position);
+                itineraryStops[row] = intern(stopTime.getStopId(position), strings);
+                itineraryTimes[row] = stopTime.getTime(position);
+            }
+        }
+
+        // Services as flattened day bitsets, then the service of each trip
+        ServiceCalendar calendar = graph.getCalendar();
+        int serviceCount = calendar.getServiceCount();
+        int[] serviceRefs = new int[serviceCount];
+        int[] firstDays = new int[serviceCount];
+        int[] dayOffsets = new int[serviceCount + 1];
+        for (int service = 0; service < serviceCount; service++) {
+            serviceRefs[service] = intern(calendar.getServiceId(service), strings);
+            firstDays[service] = calendar.getFirstDay(service);
+            dayOffsets[service + 1] = dayOffsets[service] + calendar.getDays(service).length;
+        }
+        long[] dayWords = new long[dayOffsets[serviceCount]];
+        for (int service = 0; service < serviceCount; service++) {
+            long[] words = calendar.getDays(service);
+            System.arraycopy(words, 0, dayWords, dayOffsets[service], words.length);
+        }
+        int[] tripServiceRefs = new int[calendar.getTripServices().size() * 2];
+        int s = 0;
+        for (Map.Entry<String, Integer> trip : calendar.getTripServices().entrySet()) {
+            tripServiceRefs[s++] = intern(trip.getKey(), strings);
+            tripServiceRefs[s++] = trip.getValue();
+        }
+
+        // Route patterns: stops, trips and times of each one, flattened
+        RoutePatterns timetable = graph.getRoutePatterns();
+        int patternCount = timetable.size();
+        int[] patternRoutes = new int[patternCount];
+        int[] patternStopOffsets = new int[patternCount + 1];
+        int[] patternTripOffsets = new int[patternCount + 1];
+        for (int p = 0; p < patternCount; p++) {
+            RoutePattern pattern = timetable.get(p);
+            patternRoutes[p] = pattern.routeIndex;
+            patternStopOffsets[p + 1] = patternStopOffsets[p] + pattern.stops.length;
+            patternTripOffsets[p + 1] = patternTripOffsets[p] + pattern.trips.length;
+        }
+        int[] patternStops = new int[patternStopOffsets[patternCount]];
+        int[] patternTrips = new int[patternTripOffsets[patternCount]];
+        int timeCount = 0;
+        for (int p = 0; p < patternCount; p++) timeCount += timetable.get(p).times.length;
+        float[] patternTimes = new float[timeCount];
+        int time = 0;
+        for (int p = 0; p < patternCount; p++) {
+            RoutePattern pattern = timetable.get(p);
+            System.arraycopy(pattern.stops, 0, patternStops, patternStopOffsets[p], pattern.stops.length);
+            System.arraycopy(pattern.trips, 0, patternTrips, patternTripOffsets[p], pattern.trips.length);
+            System.arraycopy(pattern.times, 0, patternTimes, time, pattern.times.length);
+            time += pattern.times.length;
+        }
+        int[] timetableTripRefs = internAll(timetable.tripIds, strings);
+        int[] timetableRouteRefs = internAll(timetable.routeIds, strings);
+
+        // Identifiers of the compact graph, its routes are those of the patterns
+        CompactGraph compact = graph.getCompactGraph().compacted();
+        int[] nodeRefs = internAll(compact.stopIds, strings);
+
+        try (Output out = new Output(file)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeStrings(strings.toArray());
+
+            out.writeInts(roadRefs);
+            out.writeInts(stopRefs);
+            out.writeFloats(stopLat);
+            out.writeFloats(stopLon);
+            out.writeInts(tripRefs);
+            out.writeInts(stopTimeRefs);
+            out.writeInts(itineraryOffsets);
+            out.writeInts(sequences);
+            out.writeInts(itineraryStops);
+            out.writeInts(itineraryTimes);
+
+            out.writeInts(serviceRefs);
+            out.writeInts(firstDays);
+            out.writeInts(dayOffsets);
+            out.writeLongs(dayWords);
+            out.writeInts(tripServiceRefs);
+
+            out.writeInts(patternRoutes);
+            out.writeInts(patternStopOffsets);
+            out.writeInts(patternStops);
+            out.writeInts(patternTripOffsets);
+            out.writeInts(patternTrips);
+            out.writeFloats(patternTimes);
+            out.writeInts(timetableTripRefs);
+            out.writeInts(timetableRouteRefs);
+            out.writeInts(timetable.tripServices);
+
+            out.writeInts(nodeRefs);
+            out.writeInts(compact.offsets);
+            out.writeInts(compact.targets);
+            out.writeFloats(compact.durations);
+            out.writeInts(compact.patterns);
+            out.writeInts(compact.positions);
+            out.writeInts(compact.routes);
+            out.writeFloats(new float[] {graph.getWalkingBudget()});
+        }
+    }
+
+    /**
+     * Loads a snapshot.
+     * @param file the snapshot file
+     * @return the built graph, or null if the snapshot has another version
+     */
+    public static Graph read(File file) throws IOException {
+        try (Input in = new Input(file)) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            String[] table = in.readStrings();
+
+            int[] roadRefs = in.readInts();
+            HashMap<String, Road> roadMap = new HashMap<>(roadRefs.length / 2);
+            for (int i = 0; i < roadRefs.length; i += 4) {
+                Road road = new Road(ref(table, roadRefs[i]), ref(table, roadRefs[i + 1]), ref(table, roadRefs[i + 2]), ref(table, roadRefs[i + 3]));
+                roadMap.put(road.getRoadId(), road);
+            }
+
+            int[] stopRefs = in.readInts();
+            float[] stopLat = in.readFloats();
+            float[] stopLon = in.readFloats();
+            HashMap<String, Stop> stopMap = new HashMap<>(stopLat.length * 2);
+            for (int i = 0; i < stopLat.length; i++) {
+                Stop stop = new Stop(ref(table, stopRefs[i * 2]), ref(table, stopRefs[i * 2 + 1]), stopLat[i], stopLon[i]);
+                stopMap.put(stop.getStopId(), stop);
+            }
+
+            int[] tripRefs = in.readInts();
+            HashMap<String, String> tripMap = new HashMap<>(tripRefs.length);
+            for (int i = 0; i < tripRefs.length; i += 2) {
+                tripMap.put(ref(table, tripRefs[i]), ref(table, tripRefs[i + 1]));
+            }
+
+            int[] stopTimeRefs = in.readInts();
+            int[] itineraryOffsets = in.readInts();
+            int[] sequences = in.readInts();
+            int[] itineraryStops = in.readInts();
+            int[] itineraryTimes = in.readInts();
+            // The string table is the dictionary of the stop times: a reference is a stop ID
+            TripStore store = new TripStore(IdDictionary.of(table));
+            for (int i = 0; i < stopTimeRefs.length; i++) {
+                String tripId = ref(table, stopTimeRefs[i]);
+                store.addTrip(tripId);
+                for (int p = itineraryOffsets[i]; p < itineraryOffsets[i + 1]; p++) {
+                    store.add(tripId, sequences[p], itineraryStops[p], itineraryTimes[p]);
+                }
+            }
+            HashMap<String, StopTime> stopTimeMap = new HashMap<>(stopTimeRefs.length * 2);
+            store.putViews(stopTimeMap);
+
+            int[] serviceRefs = in.readInts();
+            int[] firstDays = in.readInts();
+            int[] dayOffsets = in.readInts();
+            long[] dayWords = in.readLongs();
+            int[] tripServiceRefs = in.readInts();
+            ServiceCalendar calendar = new ServiceCalendar();
+            for (int service = 0; service < serviceRefs.length; service++) {
+                calendar.appendService(ref(table, serviceRefs[service]), firstDays[service],
+                    Arrays.copyOfRange(dayWords, dayOffsets[service], dayOffsets[service + 1]));
+            }
+            for (int i = 0; i < tripServiceRefs.length; i += 2) {
+                calendar.addTrip(ref(table, tripServiceRefs[i]), tripServiceRefs[i + 1]);
+            }
+
+            int[] patternRoutes = in.readInts();
+            int[] patternStopOffsets = in.readInts();
+            int[] patternStops = in.readInts();
+            int[] patternTripOffsets = in.readInts();
+            int[] patternTrips = in.readInts();
+            float[] patternTimes = in.readFloats();
+            RoutePattern[] patterns = new RoutePattern[patternRoutes.length];
+            int time = 0;
+            for (int p = 0; p < patterns.length; p++) {
+                int[] stops = Arrays.copyOfRange(patternStops, patternStopOffsets[p], patternStopOffsets[p + 1]);
+                int[] trips = Arrays.copyOfRange(patternTrips, patternTripOffsets[p], patternTripOffsets[p + 1]);
+                float[] times = Arrays.copyOfRange(patternTimes, time, time + stops.length * trips.length);
+                time += times.length;
+                patterns[p] = new RoutePattern(patternRoutes[p], stops, trips, times);
+            }
+            String[] timetableTripIds = refs(table, in.readInts());
+            String[] timetableRouteIds = refs(table, in.readInts());
+            int[] tripServices = in.readInts();
+
+            String[] stopIds = refs(table, in.readInts());
+            RoutePatterns timetable = new RoutePatterns(patterns, timetableTripIds, timetableRouteIds, tripServices, stopIds.length);
+            CompactGraph compact = new CompactGraph(stopIds, timetableRouteIds, in.readInts(), in.readInts(),
+                in.readFloats(), in.readInts(), in.readInts(), in.readInts());
+            compact.timetable = timetable;
+            compact.setCoordinates(stopMap);
+            compact.setTransportTypes(roadMap);
+            float[] walkingBudget = in.readFloats();
+
+            Graph graph = new Graph(roadMap, tripMap, stopMap, stopTimeMap, calendar);
+            graph.compact = compact;
+            graph.routePatterns = timetable;
+            graph.builder = null;
+            graph.walkingBudget = walkingBudget[0];
+            return graph;
+        }
+    }
+
+    private static int intern(String value, IdDictionary strings) {
+        return value == null ? -1 : strings.encode(value);
+    }
+
+    private static int[] internAll(String[] values, IdDictionary strings) {
+        int[] refs = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            refs[i] = intern(values[i], strings);
+        }
+        return refs;
+    }
+
+    private static String ref(String[] table, int index) {
+        return index < 0 ? null : table[index];
+    }
+
+    private static String[] refs(String[] table, int[] indices) {
+        String[] values = new String[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            values[i] = ref(table, indices[i]);
+        }
+        return values;
+    }
+
+    /**
+     * Buffered writer of big-endian primitive arrays on a FileChannel.
+     */
+    static class Output implements AutoCloseable {
+        RandomAccessFile raf;
+        FileChannel channel;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+
+        Output(File file) throws IOException {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(0);
+            channel = raf.getChannel();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                buffer.flip();
+                while (buffer.hasRemaining()) channel.write(buffer);
+                buffer.clear();
+            }
+        }
+
+        void writeInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void writeInts(int[] values) throws IOException {
+            writeInt(values.length);
+            for (int value : values) writeInt(value);
+        }
+
+        void writeLongs(long[] values) throws IOException {
+            writeInt(values.length);
+            for (long value : values) {
+                ensure(8);
+                buffer.putLong(value);
+            }
+        }
+
+        void writeFloats(float[] values) throws IOException {
+            writeInt(values.length);
+            for (float value : values) {
+                ensure(4);
+                buffer.putFloat(value);
+            }
+        }
+
+        /**
+         * Writes strings as their UTF-8 byte offsets followed by the concatenated bytes.
+         */
+        void writeStrings(String... values) throws IOException {
+            byte[][] encoded = new byte[values.length][];
+            int[] offsets = new int[values.length + 1];
+            for (int i = 0; i < values.length; i++) {
+                encoded[i] = values[i].getBytes(StandardCharsets.UTF_8);
+                offsets[i + 1] = offsets[i] + encoded[i].length;
+            }
+            writeInts(offsets);
+            for (byte[] bytes : encoded) {
+                for (int written = 0; written < bytes.length; ) {
+                    ensure(1);
+                    int length = Math.min(buffer.remaining(), bytes.length - written);
+                    buffer.put(bytes, written, length);
+                    written += length;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            raf.close();
+        }
+    }
+
+    /**
+     * Reader of the arrays written by Output, through memory-mapped windows of the file.
+     */
+    static class Input implements AutoCloseable {
+        RandomAccessFile raf;
+        FileChannel channel;
+        long size;
+        long windowStart;
+        MappedByteBuffer window;
+
+        Input(File file) throws IOException {
+            raf = new RandomAccessFile(file, "r");
+            channel = raf.getChannel();
+            size = channel.size();
+            map(0);
+        }
+
+        private void map(long position) throws IOException {
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, size - position));
+        }
+
+        /**
+         * Makes sure the next bytes are in the mapped window (at most WINDOW bytes).
+         */
+        private void ensure(int bytes) throws IOException {
+            if (window.remaining() < bytes) {
+                long position = windowStart + window.position();
+                if (size - position < bytes) throw new IOException("Snapshot tronqué");
+                map(position);
+            }
+        }
+
+        int readInt() throws IOException {
+            ensure(4);
+            return window.getInt();
+        }
+
+        int[] readInts() throws IOException {
+            int[] values = new int[readInt()];
+            for (int done = 0; done < values.length; ) {
+                ensure(4);
+                int count = Math.min(values.length - done, window.remaining() / 4);
+                window.asIntBuffer().get(values, done, count);
+                window.position(window.position() + count * 4);
+                done += count;
+            }
+            return values;
+        }
+
+        long[] readLongs() throws IOException {
+            long[] values = new long[readInt()];
+            for (int done = 0; done < values.length; ) {
+                ensure(8);
+                int count = Math.min(values.length - done, window.remaining() / 8);
+                window.asLongBuffer().get(values, done, count);
+                window.position(window.position() + count * 8);
+                done += count;
+            }
+            return values;
+        }
+
+        float[] readFloats() throws IOException {
+            float[] values = new float[readInt()];
+            for (int done = 0; done < values.length; ) {
+                ensure(4);
+                int count = Math.min(values.length - done, window.remaining() / 4);
+                window.asFloatBuffer().get(values, done, count);
+                window.position(window.position() + count * 4);
+                done += count;
+            }
+            return values;
+        }
+
+        String[] readStrings() throws IOException {
+            int[] offsets = readInts();
+            int total = offsets[offsets.length - 1];
+            byte[] bytes = new byte[total];
+            for (int done = 0; done < total; ) {
+                ensure(1);
+                int count = Math.min(total - done, window.remaining());
+                window.get(bytes, done, count);
+                done += count;
+            }
+            String[] values = new String[offsets.length - 1];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = new String(bytes, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8);
+            }
+            return values;
+        }
+
+        @Override
+        public void close() throws IOException {
+            raf.close();
+        }
+    }
+}
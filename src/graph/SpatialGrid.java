@@ -0,0 +1,119 @@
+package graph;
+
+import java.util.Arrays;
+
+/**
+ * Uniform latitude/longitude grid over a set of points (the stops of the network).
+ * Points are bucketed into square cells so that a radius query only has to look at
+ * the few cells around the query point instead of comparing every pair of points.
+ * The cells are stored as flat arrays (counting sort by cell) to keep the index compact.
+ */
+public class SpatialGrid {
+    // Upper bound on the number of cells, to protect against outlier coordinates
+    private static final long MAX_CELLS = 1L << 24;
+
+    float[] lat;
+    float[] lon;
+    float cellSize;
+    float minLat;
+    float minLon;
+    int rows;
+    int cols;
+    int[] cellStart;
+    int[] cellItems;
+
+    /**
+     * Builds the grid over the given coordinates.
+     * @param lat latitudes of the points, in degrees
+     * @param lon longitudes of the points, in degrees (same length as lat)
+     * @param cellSize side of a cell, in degrees (usually the query radius)
+     */
+    public SpatialGrid(float[] lat, float[] lon, float cellSize) {
+        this.lat = lat;
+        this.lon = lon;
+
+        float maxLat = Float.NEGATIVE_INFINITY;
+        float maxLon = Float.NEGATIVE_INFINITY;
+        minLat = Float.POSITIVE_INFINITY;
+        minLon = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < lat.length; i++) {
+            minLat = Math.min(minLat, lat[i]);
+            minLon = Math.min(minLon, lon[i]);
+            maxLat = Math.max(maxLat, lat[i]);
+            maxLon = Math.max(maxLon, lon[i]);
+        }
+        if (lat.length == 0) {
+            minLat = minLon = maxLat = maxLon = 0f;
+        }
+
+        // Grow the cells if the bounding box is too large for the requested size
+        float size = cellSize > 0 ? cellSize : 1f;
+        while ((long) ((maxLat - minLat) / size + 1) * (long) ((maxLon - minLon) / size + 1) > MAX_CELLS) {
+            size *= 2;
+        }
+        this.cellSize = size;
+        rows = (int) ((maxLat - minLat) / size) + 1;
+        cols = (int) ((maxLon - minLon) / size) + 1;
+
+        // Counting sort of the points by cell
+        cellStart = new int[rows * cols + 1];
+        int[] cellOf = new int[lat.length];
+        for (int i = 0; i < lat.length; i++) {
+            cellOf[i] = row(lat[i]) * cols + col(lon[i]);
+            cellStart[cellOf[i] + 1]++;
+        }
+        for (int c = 0; c < rows * cols; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        cellItems = new int[lat.length];
+        int[] fill = Arrays.copyOf(cellStart, rows * cols);
+        for (int i = 0; i < lat.length; i++) {
+            cellItems[fill[cellOf[i]]++] = i;
+        }
+    }
+
+    private int row(float latitude) {
+        return Math.min(rows - 1, Math.max(0, (int) ((latitude - minLat) / cellSize)));
+    }
+
+    private int col(float longitude) {
+        return Math.min(cols - 1, Math.max(0, (int) ((longitude - minLon) / cellSize)));
+    }
+
+    /**
+     * Returns, in ascending order, the indices of every point whose cell lies within
+     * the given radius of the query point. The result is a superset of the points
+     * within the radius: callers apply their own exact distance test on it.
+     * @param latitude latitude of the query point
+     * @param longitude longitude of the query point
+     * @param radius search radius, in degrees
+     * @return the candidate indices, sorted
+     */
+    public int[] candidates(float latitude, float longitude, float radius) {
+        int reach = (int) Math.ceil(radius / cellSize);
+        int r0 = Math.max(0, row(latitude) - reach);
+        int r1 = Math.min(rows - 1, row(latitude) + reach);
+        int c0 = Math.max(0, col(longitude) - reach);
+        int c1 = Math.min(cols - 1, col(longitude) + reach);
+
+        int count = 0;
+        for (int r = r0; r <= r1; r++) {
+            count += cellStart[r * cols + c1 + 1] - cellStart[r * cols + c0];
+        }
+        int[] result = new int[count];
+        int k = 0;
+        for (int r = r0; r <= r1; r++) {
+            for (int p = cellStart[r * cols + c0]; p < cellStart[r * cols + c1 + 1]; p++) {
+                result[k++] = cellItems[p];
+            }
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /*
+     * Getter of the class
+     */
+    public float getCellSize() { return cellSize; }
+    public int size() { return lat.length; }
+}
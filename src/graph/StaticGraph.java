@@ -0,0 +1,129 @@
+package graph;
+
+import java.util.Arrays;
+
+/**
+ * Time-independent view of the graph: one edge per pair of connected stops,
+ * weighted by the smallest duration between them, in CSR form.
+ * Every journey between two stops lasts at least their static distance, so the
+ * graph gives lower bounds, from and to the landmarks (see Landmarks).
+ */
+public class StaticGraph {
+    int[] offsets;
+    int[] targets;
+    float[] weights;
+
+    StaticGraph(int[] offsets, int[] targets, float[] weights) {
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+    }
+
+    /**
+     * Builds the static graph of the given graph.
+     */
+    public static StaticGraph of(CompactGraph compact) {
+        int nodeCount = compact.getNodeCount();
+        int[] offsets = new int[nodeCount + 1];
+        int[] targets = new int[16];
+        float[] weights = new float[16];
+        int size = 0;
+        // slot[target] = position of the edge to target among those of the current node
+        int[] slot = new int[nodeCount];
+        Arrays.fill(slot, -1);
+        for (int node = 0; node < nodeCount; node++) {
+            int first = size;
+            for (int edge = compact.firstEdge(node); edge < compact.lastEdge(node); edge++) {
+                int target = compact.target(edge);
+                float weight = Math.max(0f, compact.duration(edge));
+                if (target == node) continue;
+                if (slot[target] >= first) {
+                    if (weight < weights[slot[target]]) weights[slot[target]] = weight;
+                    continue;
+                }
+                if (size == targets.length) {
+                    targets = Arrays.copyOf(targets, size * 2);
+                    weights = Arrays.copyOf(weights, size * 2);
+                }
+                slot[target] = size;
+                targets[size] = target;
+                weights[size] = weight;
+                size++;
+            }
+            offsets[node + 1] = size;
+        }
+        return new StaticGraph(offsets, Arrays.copyOf(targets, size), Arrays.copyOf(weights, size));
+    }
+
+    /**
+     * Returns the same graph with every edge reversed.
+     */
+    public StaticGraph reverse() {
+        int nodeCount = nodeCount();
+        int[] reverseOffsets = new int[nodeCount + 1];
+        for (int edge = 0; edge < targets.length; edge++) {
+            reverseOffsets[targets[edge] + 1]++;
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            reverseOffsets[node + 1] += reverseOffsets[node];
+        }
+        int[] fill = Arrays.copyOf(reverseOffsets, nodeCount);
+        int[] reverseTargets = new int[targets.length];
+        float[] reverseWeights = new float[targets.length];
+        for (int node = 0; node < nodeCount; node++) {
+            for (int edge = offsets[node]; edge < offsets[node + 1]; edge++) {
+                int position = fill[targets[edge]]++;
+                reverseTargets[position] = node;
+                reverseWeights[position] = weights[edge];
+            }
+        }
+        return new StaticGraph(reverseOffsets, reverseTargets, reverseWeights);
+    }
+
+    public int nodeCount() {
+        return offsets.length - 1;
+    }
+
+    public int degree(int node) {
+        return offsets[node + 1] - offsets[node];
+    }
+
+    /*
+     * Getter of the class
+     */
+    public int firstEdge(int node) { return offsets[node]; }
+    public int lastEdge(int node) { return offsets[node + 1]; }
+    public int target(int edge) { return targets[edge]; }
+    public float weight(int edge) { return weights[edge]; }
+
+    /**
+     * Dijkstra from source: the shortest static time to every node.
+     */
+    float[] distances(int source) {
+        int nodeCount = nodeCount();
+        double[] distance = new double[nodeCount];
+        Arrays.fill(distance, Double.POSITIVE_INFINITY);
+        boolean[] settled = new boolean[nodeCount];
+        IndexedMinHeap heap = new IndexedMinHeap(nodeCount);
+        distance[source] = 0;
+        heap.insertOrDecrease(source, 0f);
+        while (!heap.isEmpty()) {
+            int node = heap.poll();
+            settled[node] = true;
+            for (int edge = offsets[node]; edge < offsets[node + 1]; edge++) {
+                int target = targets[edge];
+                if (settled[target]) continue;
+                double candidate = distance[node] + weights[edge];
+                if (candidate < distance[target]) {
+                    distance[target] = candidate;
+                    heap.insertOrDecrease(target, (float) candidate);
+                }
+            }
+        }
+        float[] result = new float[nodeCount];
+        for (int node = 0; node < nodeCount; node++) {
+            result[node] = (float) distance[node];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,330 @@
+package graph;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import process.Stop;
+
+/**
+ * Index of the stop names, built once, for exact, prefix and typo-tolerant lookups.
+ * Names are normalized (lower case, no accents, punctuation turned into spaces) and
+ * every distinct normalized name keeps the IDs of all the stops carrying it, so a
+ * station served by several agencies or platforms resolves to all of its stops.
+ * Exact and prefix lookups are binary searches in the sorted names; prefixes of the
+ * inner words are found the same way in a sorted word list; typo-tolerant lookups
+ * use a trigram index to find candidates, checked with an edit distance.
+ */
+public class StopNameIndex {
+    // Sorted distinct normalized names, with the display name and stop IDs of each
+    String[] keys;
+    String[] names;
+    String[][] stopIds;
+
+    // Sorted words of the names, with the name each one belongs to
+    String[] words;
+    int[] wordKeys;
+
+    // Names containing each trigram of their padded normalized form
+    HashMap<String, int[]> trigrams;
+
+    /**
+     * Indexes the names of the given stops.
+     */
+    public StopNameIndex(Collection<Stop> stops) {
+        TreeMap<String, List<Stop>> byKey = new TreeMap<>();
+        for (Stop stop : stops) {
+            if (stop.getStopName() == null) continue;
+            byKey.computeIfAbsent(normalize(stop.getStopName()), key -> new ArrayList<>()).add(stop);
+        }
+
+        int count = byKey.size();
+        keys = new String[count];
+        names = new String[count];
+        stopIds = new String[count][];
+        int index = 0;
+        for (Map.Entry<String, List<Stop>> entry : byKey.entrySet()) {
+            List<Stop> group = entry.getValue();
+            String[] ids = new String[group.size()];
+            for (int i = 0; i < ids.length; i++) ids[i] = group.get(i).getStopId();
+            Arrays.sort(ids);
+            keys[index] = entry.getKey();
+            // The most common spelling among the stops is shown
+            names[index] = mostCommonName(group);
+            stopIds[index] = ids;
+            index++;
+        }
+
+        // Words sorted by an index sort, so each keeps the name it belongs to
+        List<String> wordList = new ArrayList<>();
+        List<Integer> ownerList = new ArrayList<>();
+        for (int key = 0; key < count; key++) {
+            for (String word : keys[key].split(" ")) {
+                if (word.isEmpty()) continue;
+                wordList.add(word);
+                ownerList.add(key);
+            }
+        }
+        Integer[] order = new Integer[wordList.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> wordList.get(a).compareTo(wordList.get(b)));
+        words = new String[order.length];
+        wordKeys = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            words[i] = wordList.get(order[i]);
+            wordKeys[i] = ownerList.get(order[i]);
+        }
+
+        // Names are visited in order, so every list is sorted
+        HashMap<String, int[]> grams = new HashMap<>();
+        for (int key = 0; key < count; key++) {
+            for (String gram : trigramsOf(keys[key])) {
+                int[] list = grams.get(gram);
+                if (list == null) {
+                    list = new int[4];
+                    grams.put(gram, list);
+                } else if (list[list[0]] == key) {
+                    continue;
+                } else if (list[0] + 1 == list.length) {
+                    list = Arrays.copyOf(list, list.length * 2);
+                    grams.put(gram, list);
+                }
+                // list[0] holds the size of the list, the names follow
+                list[++list[0]] = key;
+            }
+        }
+        trigrams = new HashMap<>(grams.size() * 2);
+        for (Map.Entry<String, int[]> entry : grams.entrySet()) {
+            int[] list = entry.getValue();
+            trigrams.put(entry.getKey(), Arrays.copyOfRange(list, 1, list[0] + 1));
+        }
+    }
+
+    private static String mostCommonName(List<Stop> group) {
+        HashMap<String, Integer> counts = new HashMap<>();
+        String best = group.get(0).getStopName();
+        for (Stop stop : group) {
+            int seen = counts.merge(stop.getStopName(), 1, Integer::sum);
+            if (seen > counts.get(best)) best = stop.getStopName();
+        }
+        return best;
+    }
+
+    /**
+     * Lower case, accents removed, every run of other characters than letters and
+     * digits turned into a single space.
+     */
+    public static String normalize(String name) {
+        String decomposed = isAscii(name) ? name : Normalizer.normalize(name, Normalizer.Form.NFD);
+        StringBuilder builder = new StringBuilder(decomposed.length());
+        boolean space = true;
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) continue;
+            if (Character.isLetterOrDigit(c)) {
+                builder.append(Character.toLowerCase(c));
+                space = false;
+            } else if (!space) {
+                builder.append(' ');
+                space = true;
+            }
+        }
+        int length = builder.length();
+        if (length > 0 && builder.charAt(length - 1) == ' ') builder.setLength(length - 1);
+        return builder.toString();
+    }
+
+    private static boolean isAscii(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) >= 0x80) return false;
+        }
+        return true;
+    }
+
+    private static List<String> trigramsOf(String key) {
+        String padded = "  " + key + " ";
+        List<String> result = new ArrayList<>(padded.length());
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            result.add(padded.substring(i, i + 3));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the position of the first element of sorted that is >= value.
+     */
+    private static int lowerBound(String[] sorted, String value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted[middle].compareTo(value) < 0) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Returns the IDs of the stops whose name equals the given one once normalized.
+     */
+    public List<String> exact(String name) {
+        String key = normalize(name);
+        int position = lowerBound(keys, key);
+        if (position < keys.length && keys[position].equals(key)) {
+            return List.of(stopIds[position]);
+        }
+        return List.of();
+    }
+
+    /**
+     * Returns the IDs of the stops whose normalized name starts with the given prefix.
+     */
+    public List<String> prefix(String prefix) {
+        String key = normalize(prefix);
+        List<String> result = new ArrayList<>();
+        for (int position = lowerBound(keys, key); position < keys.length && keys[position].startsWith(key); position++) {
+            result.addAll(Arrays.asList(stopIds[position]));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the IDs of the stops whose name is the closest to the given one, within
+     * a number of typing errors (insertion, deletion, substitution or swap of two
+     * letters) growing with its length: none up to 3 letters, 1 up to 7, then 2.
+     */
+    public List<String> fuzzy(String name) {
+        List<String> result = new ArrayList<>();
+        for (int candidate : closestKeys(name)) {
+            result.addAll(Arrays.asList(stopIds[candidate]));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the names closest to the given one (see fuzzy), as positions in keys.
+     */
+    private List<Integer> closestKeys(String name) {
+        String key = normalize(name);
+        int maxEdits = key.length() <= 3 ? 0 : key.length() <= 7 ? 1 : 2;
+
+        // Each edit changes at most 3 trigrams, so a match shares at least needed of the
+        // query trigrams, and so at least one of its (3 * maxEdits + 1) rarest ones
+        List<int[]> lists = new ArrayList<>();
+        for (String gram : new TreeSet<>(trigramsOf(key))) {
+            int[] list = trigrams.get(gram);
+            lists.add(list == null ? new int[0] : list);
+        }
+        int needed = lists.size() - 3 * maxEdits;
+        lists.sort((a, b) -> Integer.compare(a.length, b.length));
+        int seeds = needed > 0 ? lists.size() - needed + 1 : lists.size();
+        TreeSet<Integer> candidates = new TreeSet<>();
+        for (int i = 0; i < seeds; i++) {
+            for (int candidate : lists.get(i)) candidates.add(candidate);
+        }
+
+        int bestDistance = maxEdits;
+        List<Integer> result = new ArrayList<>();
+        for (int candidate : candidates) {
+            int shared = 0;
+            for (int[] list : lists) {
+                if (Arrays.binarySearch(list, candidate) >= 0) shared++;
+            }
+            if (shared < needed) continue;
+            // Bounded one above the best distance, so a name as close as the best ones is told from a farther one
+            int distance = editDistance(key, keys[candidate], bestDistance + 1);
+            if (distance > bestDistance) continue;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                result.clear();
+            }
+            if (distance == bestDistance) result.add(candidate);
+        }
+        return result;
+    }
+
+    /**
+     * Suggests stop names for a name that matches none: the closest names (see fuzzy),
+     * then the names starting with it (see autocomplete), without duplicates.
+     * @param limit the maximum number of names
+     */
+    public List<String> suggest(String name, int limit) {
+        List<String> result = new ArrayList<>();
+        for (int candidate : closestKeys(name)) {
+            if (result.size() < limit) result.add(names[candidate]);
+        }
+        for (String completed : autocomplete(name, limit)) {
+            if (result.size() < limit && !result.contains(completed)) result.add(completed);
+        }
+        return result;
+    }
+
+    /**
+     * Suggests stop names for what the user typed so far: the names starting with it,
+     * then the names with an inner word starting with it, each group in alphabetical
+     * order, without duplicates.
+     * @param typed the beginning of the name
+     * @param limit the maximum number of names
+     */
+    public List<String> autocomplete(String typed, int limit) {
+        String key = normalize(typed);
+        List<String> result = new ArrayList<>();
+        if (key.isEmpty()) return result;
+        for (int position = lowerBound(keys, key); position < keys.length && keys[position].startsWith(key) && result.size() < limit; position++) {
+            result.add(names[position]);
+        }
+        if (result.size() < limit && key.indexOf(' ') < 0) {
+            TreeSet<Integer> inner = new TreeSet<>();
+            for (int position = lowerBound(words, key); position < words.length && words[position].startsWith(key); position++) {
+                int name = wordKeys[position];
+                if (!keys[name].startsWith(key)) inner.add(name);
+            }
+            for (int name : inner) {
+                if (result.size() >= limit) break;
+                result.add(names[name]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Optimal string alignment distance between a and b, or bound if it is at least bound.
+     */
+    static int editDistance(String a, String b, int bound) {
+        if (Math.abs(a.length() - b.length()) >= bound) return bound;
+        int[] previous2 = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) previous[j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int value = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    value = Math.min(value, previous2[j - 2] + 1);
+                }
+                current[j] = value;
+                rowMin = Math.min(rowMin, value);
+            }
+            if (rowMin >= bound) return bound;
+            int[] swap = previous2;
+            previous2 = previous;
+            previous = current;
+            current = swap;
+        }
+        return Math.min(previous[b.length()], bound);
+    }
+
+    /*
+     * Getter of the class
+     */
+    public int size() { return keys.length; }
+}
@@ -0,0 +1,264 @@
+package graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import common.Common;
+import process.Stop;
+
+/**
+ * Walking transfers between the stops, computed once before the graph is built.
+ * Two stops closer than maxDistance (great-circle distance) are linked by a direct
+ * footpath, then the footpaths are closed transitively up to a time budget: a
+ * transfer joins every pair of stops whose shortest chain of footpaths lasts at
+ * most the budget, with the duration of that chain. A journey therefore never walks
+ * twice in a row, and the engines relax the transfers of a stop only once.
+ * A chain is never shorter than the direct footpath between its ends (triangle
+ * inequality), so the closure only adds the pairs farther apart than maxDistance: with
+ * a budget no longer than the walk of maxDistance (the default), the direct footpaths
+ * are already closed and the bounded searches are skipped.
+ * The transfers of each stop are stored in CSR form (offsets, targets, durations),
+ * the duration being the minimum time to change from the stop to the target. They go
+ * both ways with the same duration.
+ * The result depends only on the stops and the parameters, so it is cached in a
+ * file (see read and write) checked against their fingerprint.
+ */
+public class Transfers {
+    static final int MAGIC = 0x53505432; // "SPT2"
+    static final int VERSION = 1;
+
+    public static final float WALKING_SPEED = 1.4f; // 5 km/h, in m/s
+    public static final float DEFAULT_MAX_DISTANCE = 1000f; // 1 km, in meters
+    // The walk of DEFAULT_MAX_DISTANCE (about 12 minutes), so no transfer is longer than a direct footpath
+    public static final float DEFAULT_BUDGET = DEFAULT_MAX_DISTANCE / WALKING_SPEED / 60f;
+
+    // The stops sorted by ID, the targets are indices in this array
+    String[] stopIds;
+    int[] offsets;
+    int[] targets;
+    float[] durations;
+    long fingerprint;
+
+    Transfers(String[] stopIds, int[] offsets, int[] targets, float[] durations, long fingerprint) {
+        this.stopIds = stopIds;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.durations = durations;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Working memory of the bounded searches of one thread.
+     */
+    private static class Closure {
+        IndexedMinHeap heap;
+        float[] distance;
+        int[] stamp;
+        int generation;
+
+        Closure(int stopCount) {
+            heap = new IndexedMinHeap(stopCount);
+            distance = new float[stopCount];
+            stamp = new int[stopCount];
+        }
+    }
+
+    /**
+     * Computes the transfers of the given stops.
+     * @param stops the stops of the network, in any order
+     * @param maxDistance the longest direct footpath, in meters
+     * @param budget the longest transfer, in minutes
+     * @param parallel true to search the stops on all available cores
+     */
+    public static Transfers compute(List<Stop> stops, float maxDistance, float budget, boolean parallel) {
+        List<Stop> sorted = sortById(stops);
+        int count = sorted.size();
+        float[] lat = new float[count];
+        float[] lon = new float[count];
+        String[] stopIds = new String[count];
+        for (int i = 0; i < count; i++) {
+            stopIds[i] = sorted.get(i).getStopId();
+            lat[i] = sorted.get(i).getStopLat();
+            lon[i] = sorted.get(i).getStopLon();
+        }
+
+        // Direct footpaths, from the candidates of a grid whose cells are maxDistance wide in latitude
+        float radius = (float) (maxDistance / 1000.0 / Common.EARTH_RADIUS_KM * 180.0 / Math.PI) * 1.001f;
+        SpatialGrid grid = new SpatialGrid(lat, lon, radius);
+        int[][] neighbors = new int[count][];
+        float[][] footpaths = new float[count][];
+        IntStream range = IntStream.range(0, count);
+        if (parallel) range = range.parallel();
+        range.forEach(i -> {
+            // A degree of longitude shrinks with the latitude, so the search is wider along it
+            double shrink = Math.cos(Math.toRadians(Math.min(89.0, Math.abs(lat[i]) + radius)));
+            int[] candidates = grid.candidates(lat[i], lon[i], (float) (radius / shrink));
+            int[] found = new int[candidates.length];
+            float[] foundDurations = new float[candidates.length];
+            int size = 0;
+            for (int j : candidates) {
+                if (j == i) continue;
+                double distance = Common.haversine(lat[i], lon[i], lat[j], lon[j]) * 1000.0;
+                if (distance > 0 && distance <= maxDistance) {
+                    found[size] = j;
+                    foundDurations[size] = (float) (distance / WALKING_SPEED / 60.0);
+                    size++;
+                }
+            }
+            neighbors[i] = Arrays.copyOf(found, size);
+            footpaths[i] = Arrays.copyOf(foundDurations, size);
+        });
+
+        // Closure: a search bounded by the budget from every stop, keeping the farther half of each pair
+        int[][] closedTargets = new int[count][];
+        float[][] closedDurations = new float[count][];
+        ThreadLocal<Closure> closures = ThreadLocal.withInitial(() -> new Closure(count));
+        boolean direct = budget <= maxDistance / WALKING_SPEED / 60f;
+        range = IntStream.range(0, count);
+        if (parallel) range = range.parallel();
+        range.forEach(i -> {
+            if (direct) {
+                // Every chain within the budget joins stops a direct footpath joins faster
+                int[] found = new int[neighbors[i].length];
+                float[] foundDurations = new float[found.length];
+                int size = 0;
+                for (int k = 0; k < found.length; k++) {
+                    if (neighbors[i][k] <= i || footpaths[i][k] > budget) continue;
+                    found[size] = neighbors[i][k];
+                    foundDurations[size] = footpaths[i][k];
+                    size++;
+                }
+                closedTargets[i] = Arrays.copyOf(found, size);
+                closedDurations[i] = Arrays.copyOf(foundDurations, size);
+                return;
+            }
+            Closure closure = closures.get();
+            closure.generation++;
+            closure.stamp[i] = closure.generation;
+            closure.distance[i] = 0f;
+            closure.heap.insertOrDecrease(i, 0f);
+            int[] found = new int[8];
+            float[] foundDurations = new float[8];
+            int size = 0;
+            while (!closure.heap.isEmpty()) {
+                int stop = closure.heap.poll();
+                if (stop > i) {
+                    if (size == found.length) {
+                        found = Arrays.copyOf(found, size * 2);
+                        foundDurations = Arrays.copyOf(foundDurations, size * 2);
+                    }
+                    found[size] = stop;
+                    foundDurations[size] = closure.distance[stop];
+                    size++;
+                }
+                for (int k = 0; k < neighbors[stop].length; k++) {
+                    int next = neighbors[stop][k];
+                    float distance = closure.distance[stop] + footpaths[stop][k];
+                    if (distance > budget) continue;
+                    if (closure.stamp[next] != closure.generation) {
+                        closure.stamp[next] = closure.generation;
+                        closure.distance[next] = Float.POSITIVE_INFINITY;
+                    }
+                    if (distance < closure.distance[next]) {
+                        closure.distance[next] = distance;
+                        closure.heap.insertOrDecrease(next, distance);
+                    }
+                }
+            }
+            closedTargets[i] = Arrays.copyOf(found, size);
+            closedDurations[i] = Arrays.copyOf(foundDurations, size);
+        });
+
+        // Both directions of each pair, in CSR form
+        int[] offsets = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            offsets[i + 1] += closedTargets[i].length;
+            for (int j : closedTargets[i]) offsets[j + 1]++;
+        }
+        for (int i = 0; i < count; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] targets = new int[offsets[count]];
+        float[] durations = new float[offsets[count]];
+        int[] fill = Arrays.copyOf(offsets, count);
+        for (int i = 0; i < count; i++) {
+            for (int k = 0; k < closedTargets[i].length; k++) {
+                int j = closedTargets[i][k];
+                targets[fill[i]] = j;
+                durations[fill[i]++] = closedDurations[i][k];
+                targets[fill[j]] = i;
+                durations[fill[j]++] = closedDurations[i][k];
+            }
+        }
+        return new Transfers(stopIds, offsets, targets, durations, fingerprint(sorted, maxDistance, budget));
+    }
+
+    private static List<Stop> sortById(List<Stop> stops) {
+        List<Stop> sorted = new ArrayList<>(stops);
+        sorted.sort(Comparator.comparing(Stop::getStopId));
+        return sorted;
+    }
+
+    /**
+     * Hash of everything the transfers depend on: the IDs and coordinates of the
+     * stops, in ID order, and the parameters.
+     */
+    static long fingerprint(List<Stop> sorted, float maxDistance, float budget) {
+        long hash = 1125899906842597L;
+        hash = 31 * hash + Float.floatToIntBits(WALKING_SPEED);
+        hash = 31 * hash + Float.floatToIntBits(maxDistance);
+        hash = 31 * hash + Float.floatToIntBits(budget);
+        for (Stop stop : sorted) {
+            hash = 31 * hash + stop.getStopId().hashCode();
+            hash = 31 * hash + Float.floatToIntBits(stop.getStopLat());
+            hash = 31 * hash + Float.floatToIntBits(stop.getStopLon());
+        }
+        return hash;
+    }
+
+    /**
+     * Loads the transfers of the given stops and parameters from a cache file.
+     * @return the transfers, or null if the file is missing or was computed from other stops or parameters
+     */
+    public static Transfers read(File file, List<Stop> stops, float maxDistance, float budget) throws IOException {
+        if (!file.isFile()) return null;
+        long expected = fingerprint(sortById(stops), maxDistance, budget);
+        try (Snapshot.Input in = new Snapshot.Input(file)) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            long[] header = in.readLongs();
+            if (header.length != 1 || header[0] != expected) return null;
+            return new Transfers(in.readStrings(), in.readInts(), in.readInts(), in.readFloats(), expected);
+        }
+    }
+
+    /**
+     * Writes the transfers to a cache file.
+     */
+    public void write(File file) throws IOException {
+        try (Snapshot.Output out = new Snapshot.Output(file)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLongs(new long[] {fingerprint});
+            out.writeStrings(stopIds);
+            out.writeInts(offsets);
+            out.writeInts(targets);
+            out.writeFloats(durations);
+        }
+    }
+
+    /*
+     * Getter of the class
+     */
+    public int stopCount() { return stopIds.length; }
+    public int size() { return targets.length; }
+    public String getStopId(int stop) { return stopIds[stop]; }
+    public int firstTransfer(int stop) { return offsets[stop]; }
+    public int lastTransfer(int stop) { return offsets[stop + 1]; }
+    public int target(int transfer) { return targets[transfer]; }
+    public float duration(int transfer) { return durations[transfer]; }
+}
@@ -0,0 +1,71 @@
+package metrics;
+
+/**
+ * Distribution of the samples of a measurement, in logarithmic buckets: every power
+ * of two is split into SUB_BUCKETS buckets of equal width, so a quantile is known
+ * within 25% whatever the magnitude of the values (times, node counts, bytes).
+ * The count, sum, minimum and maximum are exact.
+ */
+public class Histogram {
+    static final int SUB_BUCKETS = 4;
+    // Powers of two covered, from 2^MIN_EXPONENT to 2^MAX_EXPONENT
+    static final int MIN_EXPONENT = -20;
+    static final int MAX_EXPONENT = 62;
+
+    // Bucket 0 holds the values <= 0
+    long[] buckets = new long[1 + (MAX_EXPONENT - MIN_EXPONENT + 1) * SUB_BUCKETS];
+    long count;
+    double sum;
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Adds a sample.
+     */
+    public synchronized void record(double value) {
+        buckets[bucketOf(value)]++;
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    private static int bucketOf(double value) {
+        if (!(value > 0)) return 0;
+        int exponent = Math.max(MIN_EXPONENT, Math.min(MAX_EXPONENT, Math.getExponent(value)));
+        int sub = (int) ((value / Math.scalb(1.0, exponent) - 1) * SUB_BUCKETS);
+        sub = Math.max(0, Math.min(SUB_BUCKETS - 1, sub));
+        return 1 + (exponent - MIN_EXPONENT) * SUB_BUCKETS + sub;
+    }
+
+    private static double upperBound(int bucket) {
+        if (bucket == 0) return 0;
+        int exponent = (bucket - 1) / SUB_BUCKETS + MIN_EXPONENT;
+        int sub = (bucket - 1) % SUB_BUCKETS;
+        return Math.scalb(1.0 + (sub + 1) / (double) SUB_BUCKETS, exponent);
+    }
+
+    /**
+     * Returns an upper estimate of the given quantile (0.5 for the median), at most
+     * the maximum, or 0 if there is no sample.
+     */
+    public synchronized double quantile(double q) {
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(q * count);
+        long seen = 0;
+        for (int bucket = 0; bucket < buckets.length; bucket++) {
+            seen += buckets[bucket];
+            if (seen >= Math.max(1, rank)) return Math.max(min, Math.min(max, upperBound(bucket)));
+        }
+        return max;
+    }
+
+    /*
+     * Getter of the class
+     */
+    public synchronized long getCount() { return count; }
+    public synchronized double getSum() { return sum; }
+    public synchronized double getMean() { return count == 0 ? 0 : sum / count; }
+    public synchronized double getMin() { return count == 0 ? 0 : min; }
+    public synchronized double getMax() { return count == 0 ? 0 : max; }
+}
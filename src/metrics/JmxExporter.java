@@ -0,0 +1,118 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Exposes a MetricsRegistry as a read-only MBean (routing:type=Metrics), for jconsole
+ * or any JMX client. Every counter is a Long attribute and every histogram gives the
+ * Double attributes name.count, name.mean, name.p50, name.p90, name.p99 and name.max.
+ * The attributes are read from the registry on each access, so new metrics appear
+ * without registering again.
+ */
+public class JmxExporter implements DynamicMBean {
+    public static final String NAME = "routing:type=Metrics";
+    static final String[] STATISTICS = {"count", "mean", "p50", "p90", "p99", "max"};
+
+    MetricsRegistry registry;
+
+    JmxExporter(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Registers the registry in the platform MBean server.
+     * @return the name of the MBean
+     */
+    public static ObjectName register(MetricsRegistry registry) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(NAME);
+        if (server.isRegistered(name)) server.unregisterMBean(name);
+        server.registerMBean(new JmxExporter(registry), name);
+        return name;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Long counter = registry.getCounters().get(attribute);
+        if (counter != null) return counter;
+        int dot = attribute.lastIndexOf('.');
+        Histogram histogram = dot < 0 ? null : registry.getHistograms().get(attribute.substring(0, dot));
+        if (histogram != null) {
+            switch (attribute.substring(dot + 1)) {
+                case "count":
+                    return (double) histogram.getCount();
+                case "mean":
+                    return histogram.getMean();
+                case "p50":
+                    return histogram.quantile(0.5);
+                case "p90":
+                    return histogram.quantile(0.9);
+                case "p99":
+                    return histogram.quantile(0.99);
+                case "max":
+                    return histogram.getMax();
+                default:
+                    break;
+            }
+        }
+        throw new AttributeNotFoundException("Métrique inconnue : " + attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // Unknown attributes are left out, as the DynamicMBean contract allows
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Métrique en lecture seule : " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (String counter : registry.getCounters().keySet()) {
+            attributes.add(new MBeanAttributeInfo(counter, "java.lang.Long", "Compteur", true, false, false));
+        }
+        for (Map.Entry<String, Histogram> histogram : registry.getHistograms().entrySet()) {
+            for (String statistic : STATISTICS) {
+                attributes.add(new MBeanAttributeInfo(histogram.getKey() + "." + statistic, "java.lang.Double",
+                    "Histogramme", true, false, false));
+            }
+        }
+        return new MBeanInfo(getClass().getName(), "Métriques du calculateur d'itinéraires",
+            attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+}
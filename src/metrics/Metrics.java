@@ -0,0 +1,46 @@
+package metrics;
+
+/**
+ * Receiver of the measurements of the application: counters (number of events) and
+ * histograms (distribution of a value, such as the work or the time of each query).
+ * The engines count their work in plain int fields during a search and report it
+ * once at the end, so the hot loops never call it. Implementations must be thread-safe.
+ */
+public interface Metrics {
+    /**
+     * Metrics that ignore everything, used when no metrics are wanted.
+     */
+    Metrics NONE = new Metrics() {
+        @Override
+        public void increment(String name, long delta) { }
+
+        @Override
+        public void observe(String name, double value) { }
+
+        @Override
+        public boolean isEnabled() { return false; }
+    };
+
+    /**
+     * Adds delta to a counter.
+     */
+    void increment(String name, long delta);
+
+    /**
+     * Adds a sample to a histogram.
+     */
+    void observe(String name, double value);
+
+    /**
+     * Records the duration of a routing query, to find the slowest ones.
+     * @param description the query (stops, time and options)
+     * @param millis the search time in milliseconds
+     */
+    default void recordQuery(String description, double millis) { }
+
+    /**
+     * Returns false if the measurements are ignored, so that the callers can skip
+     * measuring them (timers, allocation counters).
+     */
+    default boolean isEnabled() { return true; }
+}
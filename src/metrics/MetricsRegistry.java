@@ -0,0 +1,107 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics kept in memory, to be read by an exporter (TextExporter, JmxExporter):
+ * counters, histograms and the slowest queries seen so far.
+ */
+public class MetricsRegistry implements Metrics {
+    // Number of slow queries kept
+    static final int SLOWEST = 10;
+
+    ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    // Min-heap on the duration, so the fastest of the kept queries is dropped first
+    PriorityQueue<SlowQuery> slowest = new PriorityQueue<>((a, b) -> Double.compare(a.millis, b.millis));
+
+    /**
+     * A query and its search time.
+     */
+    public static class SlowQuery {
+        String description;
+        double millis;
+
+        SlowQuery(String description, double millis) {
+            this.description = description;
+            this.millis = millis;
+        }
+
+        public String getDescription() { return description; }
+        public double getMillis() { return millis; }
+    }
+
+    @Override
+    public void increment(String name, long delta) {
+        counters.computeIfAbsent(name, key -> new LongAdder()).add(delta);
+    }
+
+    @Override
+    public void observe(String name, double value) {
+        histograms.computeIfAbsent(name, key -> new Histogram()).record(value);
+    }
+
+    @Override
+    public void recordQuery(String description, double millis) {
+        synchronized (slowest) {
+            if (slowest.size() < SLOWEST) {
+                slowest.add(new SlowQuery(description, millis));
+            } else if (slowest.peek().millis < millis) {
+                slowest.poll();
+                slowest.add(new SlowQuery(description, millis));
+            }
+        }
+    }
+
+    /**
+     * Returns the bytes allocated so far by the calling thread, or -1 if the JVM
+     * does not measure it. The difference between two calls is the allocation of
+     * the code in between.
+     */
+    public static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+            if (hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled()) {
+                return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the value of every counter, by name.
+     */
+    public SortedMap<String, Long> getCounters() {
+        SortedMap<String, Long> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        return values;
+    }
+
+    /**
+     * Returns every histogram, by name.
+     */
+    public SortedMap<String, Histogram> getHistograms() {
+        return new TreeMap<>(histograms);
+    }
+
+    /**
+     * Returns the slowest queries seen so far, the slowest first.
+     */
+    public List<SlowQuery> getSlowestQueries() {
+        List<SlowQuery> queries;
+        synchronized (slowest) {
+            queries = new ArrayList<>(slowest);
+        }
+        queries.sort((a, b) -> Double.compare(b.millis, a.millis));
+        return queries;
+    }
+}
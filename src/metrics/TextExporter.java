@@ -0,0 +1,43 @@
+package metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes the content of a MetricsRegistry as plain text, one line per counter and
+ * per histogram (count, mean, median, 90th and 99th percentiles, maximum), followed
+ * by the slowest queries.
+ */
+public class TextExporter {
+    /**
+     * Writes the metrics to the given stream.
+     */
+    public static void export(MetricsRegistry registry, PrintStream out) {
+        for (Map.Entry<String, Long> counter : registry.getCounters().entrySet()) {
+            out.printf(Locale.ROOT, "%s %d\n", counter.getKey(), counter.getValue());
+        }
+        for (Map.Entry<String, Histogram> entry : registry.getHistograms().entrySet()) {
+            Histogram histogram = entry.getValue();
+            out.printf(Locale.ROOT, "%s count=%d mean=%.3f p50=%.3f p90=%.3f p99=%.3f max=%.3f\n", entry.getKey(),
+                histogram.getCount(), histogram.getMean(), histogram.quantile(0.5), histogram.quantile(0.9),
+                histogram.quantile(0.99), histogram.getMax());
+        }
+        for (MetricsRegistry.SlowQuery query : registry.getSlowestQueries()) {
+            out.printf(Locale.ROOT, "slow_query %.3f ms %s\n", query.getMillis(), query.getDescription());
+        }
+    }
+
+    /**
+     * Returns the metrics as text.
+     */
+    public static String export(MetricsRegistry registry) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(buffer, false, StandardCharsets.UTF_8);
+        export(registry, out);
+        out.flush();
+        return buffer.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,345 @@
+package process;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Byte-level CSV reader for the GTFS files.
+ * The file is read from a FileChannel into a reusable byte buffer; nextRow() splits
+ * the current line into fields (quoted fields may contain commas, and "" stands for
+ * a quote) by recording their offsets, without creating any object. Like the
+ * line-based reader it replaces, a line break always ends the row. Integers and
+ * times are then parsed directly from the bytes, and repeated identifiers can be
+ * turned into a String once and shared (getInterned). With an IdDictionary, the
+ * strings are also shared with the other files and get a dense int ID (getId); the
+ * dictionary is only consulted the first time a value appears in the file.
+ */
+public class CsvTokenizer implements AutoCloseable {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    FileChannel channel;
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int limit = 0;
+    int position = 0;
+    boolean endOfFile = false;
+
+    int rowStart;
+    int rowEnd;
+    int fieldCount;
+    int[] fieldStart = new int[16];
+    int[] fieldEnd = new int[16];
+    boolean[] fieldEscaped = new boolean[16];
+    int[] timeParts = new int[3];
+
+    // Open-addressing table of the strings already created by getInterned,
+    // with their ID in the dictionary (-1 without dictionary)
+    String[] internStrings = new String[1 << 12];
+    byte[][] internBytes = new byte[1 << 12][];
+    int[] internIds = new int[1 << 12];
+    int internCount = 0;
+    IdDictionary dictionary;
+
+    /**
+     * Opens a CSV file.
+     * @param path the path of the file
+     */
+    public CsvTokenizer(String path) throws IOException {
+        this(path, null);
+    }
+
+    /**
+     * Opens a CSV file whose interned strings come from a shared dictionary.
+     * @param path the path of the file
+     * @param dictionary the dictionary of the identifiers, or null
+     */
+    public CsvTokenizer(String path, IdDictionary dictionary) throws IOException {
+        this.channel = new FileInputStream(path).getChannel();
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Moves to the next non-empty line of the file and splits it into fields.
+     * @return false at the end of the file
+     */
+    public boolean nextRow() throws IOException {
+        while (true) {
+            int end = findRowEnd();
+            if (end < 0) return false;
+            rowStart = position;
+            rowEnd = end;
+            // Skip "\r\n" and the line break itself
+            position = end < limit ? end + 1 : end;
+            if (rowEnd > rowStart && buffer[rowEnd - 1] == '\r') rowEnd--;
+            if (rowEnd > rowStart) {
+                split();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns the offset of the line break ending the current line (or the end of
+     * the data at the end of the file), reading more of the file when needed.
+     * Returns -1 when there is nothing left.
+     */
+    private int findRowEnd() throws IOException {
+        int scan = position;
+        while (true) {
+            for (; scan < limit; scan++) {
+                if (buffer[scan] == '\n') return scan;
+            }
+            if (endOfFile) {
+                return position < limit ? limit : -1;
+            }
+            int consumed = position;
+            fill();
+            scan -= consumed;
+        }
+    }
+
+    /**
+     * Moves the unread bytes to the start of the buffer (growing it if a single line
+     * fills it) and reads more bytes from the channel.
+     */
+    private void fill() throws IOException {
+        int remaining = limit - position;
+        if (position == 0 && remaining == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        } else {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        }
+        position = 0;
+        limit = remaining;
+        int read = channel.read(ByteBuffer.wrap(buffer, limit, buffer.length - limit));
+        if (read < 0) endOfFile = true;
+        else limit += read;
+    }
+
+    private void split() {
+        fieldCount = 0;
+        int i = rowStart;
+        while (true) {
+            if (fieldCount == fieldStart.length) {
+                fieldStart = Arrays.copyOf(fieldStart, fieldCount * 2);
+                fieldEnd = Arrays.copyOf(fieldEnd, fieldCount * 2);
+                fieldEscaped = Arrays.copyOf(fieldEscaped, fieldCount * 2);
+            }
+            boolean escaped = false;
+            int start;
+            int end;
+            if (i < rowEnd && buffer[i] == '"') {
+                start = ++i;
+                while (i < rowEnd) {
+                    if (buffer[i] == '"') {
+                        if (i + 1 < rowEnd && buffer[i + 1] == '"') {
+                            escaped = true;
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                end = i;
+                // Skip the closing quote and anything up to the separator
+                while (i < rowEnd && buffer[i] != ',') i++;
+            } else {
+                start = i;
+                while (i < rowEnd && buffer[i] != ',') i++;
+                end = i;
+            }
+            fieldStart[fieldCount] = start;
+            fieldEnd[fieldCount] = end;
+            fieldEscaped[fieldCount] = escaped;
+            fieldCount++;
+            if (i >= rowEnd) break;
+            i++; // separator
+        }
+    }
+
+    /*
+     * Getter of the class
+     */
+    public int fieldCount() { return fieldCount; }
+
+    private void check(int field) {
+        if (field >= fieldCount) {
+            throw new NumberFormatException("Champ " + field + " absent");
+        }
+    }
+
+    /**
+     * Returns a field as a new String (quotes removed, "" unescaped).
+     */
+    public String getString(int field) {
+        check(field);
+        String value = new String(buffer, fieldStart[field], fieldEnd[field] - fieldStart[field], StandardCharsets.UTF_8);
+        return fieldEscaped[field] ? value.replace("\"\"", "\"") : value;
+    }
+
+    /**
+     * Returns a field as a String shared with every previous field of the same
+     * content, so that repeated identifiers are only allocated once.
+     */
+    public String getInterned(int field) {
+        check(field);
+        if (fieldEscaped[field]) return dictionary == null ? getString(field) : dictionary.intern(getString(field));
+        int slot = internSlot(field);
+        return internStrings[slot];
+    }
+
+    /**
+     * Returns the ID of a field in the dictionary (see getInterned).
+     * @throws IllegalStateException if the tokenizer has no dictionary
+     */
+    public int getId(int field) {
+        check(field);
+        if (dictionary == null) throw new IllegalStateException("Aucun dictionnaire d'identifiants");
+        if (fieldEscaped[field]) return dictionary.encode(getString(field));
+        int slot = internSlot(field);
+        return internIds[slot];
+    }
+
+    /**
+     * Returns the slot of a field in the intern table, adding it if needed.
+     */
+    private int internSlot(int field) {
+        int start = fieldStart[field];
+        int length = fieldEnd[field] - start;
+        int hash = 1;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        int mask = internStrings.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (internBytes[slot] != null) {
+            byte[] candidate = internBytes[slot];
+            if (candidate.length == length && Arrays.equals(candidate, 0, length, buffer, start, start + length)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        String value = new String(buffer, start, length, StandardCharsets.UTF_8);
+        internBytes[slot] = Arrays.copyOfRange(buffer, start, start + length);
+        if (dictionary == null) {
+            internStrings[slot] = value;
+            internIds[slot] = -1;
+        } else {
+            internIds[slot] = dictionary.encode(value);
+            internStrings[slot] = dictionary.intern(value);
+        }
+        if (++internCount * 2 > internStrings.length) {
+            growInternTable();
+            return internSlot(field);
+        }
+        return slot;
+    }
+
+    private void growInternTable() {
+        String[] oldStrings = internStrings;
+        byte[][] oldBytes = internBytes;
+        int[] oldIds = internIds;
+        internStrings = new String[oldStrings.length * 2];
+        internBytes = new byte[oldStrings.length * 2][];
+        internIds = new int[oldStrings.length * 2];
+        int mask = internStrings.length - 1;
+        for (int i = 0; i < oldBytes.length; i++) {
+            if (oldBytes[i] == null) continue;
+            int hash = 1;
+            for (byte b : oldBytes[i]) hash = 31 * hash + b;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (internBytes[slot] != null) slot = (slot + 1) & mask;
+            internBytes[slot] = oldBytes[i];
+            internStrings[slot] = oldStrings[i];
+            internIds[slot] = oldIds[i];
+        }
+    }
+
+    /**
+     * Parses a field as a decimal integer.
+     * @throws NumberFormatException if the field is not an integer
+     */
+    public int getInt(int field) {
+        check(field);
+        int i = fieldStart[field];
+        int end = fieldEnd[field];
+        boolean negative = i < end && buffer[i] == '-';
+        if (negative || i < end && buffer[i] == '+') i++;
+        if (i == end) throw new NumberFormatException("Entier vide");
+        int value = 0;
+        for (; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Entier invalide : " + getString(field));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a field as a float.
+     * @throws NumberFormatException if the field is not a number
+     */
+    public float getFloat(int field) {
+        return Float.parseFloat(getString(field));
+    }
+
+    /**
+     * Parses a "HH:mm:ss" field into timeParts (hours may go past 24).
+     * @throws NumberFormatException if the field is not a time
+     */
+    private void parseTime(int field) {
+        check(field);
+        timeParts[0] = timeParts[1] = timeParts[2] = 0;
+        int part = 0;
+        int digits = 0;
+        for (int i = fieldStart[field]; i < fieldEnd[field]; i++) {
+            byte b = buffer[i];
+            if (b == ':' && part < 2 && digits > 0) {
+                part++;
+                digits = 0;
+            } else if (b >= '0' && b <= '9') {
+                timeParts[part] = timeParts[part] * 10 + (b - '0');
+                digits++;
+            } else if (b != ' ') {
+                throw new NumberFormatException("Heure invalide : " + getString(field));
+            }
+        }
+        if (part != 2 || digits == 0) throw new NumberFormatException("Heure invalide : " + getString(field));
+    }
+
+    /**
+     * Parses a "HH:mm:ss" field as a number of seconds.
+     * @throws NumberFormatException if the field is not a time
+     */
+    public int getTimeSeconds(int field) {
+        parseTime(field);
+        return timeParts[0] * 3600 + timeParts[1] * 60 + timeParts[2];
+    }
+
+    /**
+     * Parses a "HH:mm:ss" field as minutes, with the same rounding as Common.HoraireToFloat.
+     * @throws NumberFormatException if the field is not a time
+     */
+    public float getTimeMinutes(int field) {
+        parseTime(field);
+        return timeParts[0] * 60 + timeParts[1] + timeParts[2] / 60f;
+    }
+
+    /**
+     * Returns the current line as text (for error messages).
+     */
+    public String rowText() {
+        return new String(buffer, rowStart, rowEnd - rowStart, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,75 @@
+package process;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Load-time dictionary of the GTFS identifiers (stop, trip, route and service IDs,
+ * transport types): each distinct string gets a dense int ID, in order of first
+ * appearance, and a single String instance shared by every object referring to it.
+ * The parsing tasks of all the files and agencies share one dictionary; encode may
+ * be called from several threads, decode only once loading is done (the reverse
+ * table is for display and output).
+ */
+public class IdDictionary {
+    HashMap<String, Integer> index = new HashMap<>();
+    String[] values = new String[1024];
+    int size;
+
+    /**
+     * Returns the dictionary holding the given distinct strings, with their position as ID.
+     */
+    public static IdDictionary of(String[] values) {
+        IdDictionary dictionary = new IdDictionary();
+        for (String value : values) dictionary.encode(value);
+        return dictionary;
+    }
+
+    /**
+     * Returns the ID of a string, adding it if needed.
+     */
+    public synchronized int encode(String value) {
+        Integer id = index.get(value);
+        if (id == null) {
+            id = size++;
+            if (id == values.length) values = Arrays.copyOf(values, id * 2);
+            values[id] = value;
+            index.put(value, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the ID of a string, or -1 if it is not in the dictionary.
+     */
+    public synchronized int find(String value) {
+        Integer id = value == null ? null : index.get(value);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the shared instance of a string, adding it if needed.
+     */
+    public synchronized String intern(String value) {
+        return values[encode(value)];
+    }
+
+    /**
+     * Returns the string of an ID.
+     */
+    public String decode(int id) {
+        return values[id];
+    }
+
+    /**
+     * Returns the strings of the dictionary, indexed by ID.
+     */
+    public synchronized String[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    /*
+     * Getter of the class
+     */
+    public int size() { return size; }
+}
@@ -1,42 +1,37 @@
 package process;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.HashMap;
-
-import common.Common;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class ParseData {
-    /*
-    * Parses a single line from a CSV file, taking into account quoted fields with commas
-    */
-    private String[] parseCsvLine(String line) {
-        String[] parts = line.split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)");
-    
-        for (int i = 0; i < parts.length; i++) {
-            parts[i] = parts[i].replaceAll("^\"|\"$", "");
-        }
-    
-        return parts;
-    }
+    // Identifiers of every file parsed by this instance, shared by all the parsing tasks
+    IdDictionary ids = new IdDictionary();
 
     /*
     * Parses a CSV file containing road data and fills the roadMap with Road objects
     */
     void parseRoad(String path, HashMap<String, Road> roadMap) { 
-        try (BufferedReader br = new BufferedReader(new FileReader(path))) {
-            String line;
-            br.readLine(); // Skip header line
+        try (CsvTokenizer tok = new CsvTokenizer(path, ids)) {
+            tok.nextRow(); // Skip header line
 
-            while ((line = br.readLine()) != null) {
-                String[] data = parseCsvLine(line);
-                
+            while (tok.nextRow()) {
                 try {
-                    Road road = new Road(data[0], data[1], data[2], data[3]);
-                    roadMap.put(data[0], road);
+                    String routeId = tok.getInterned(0);
+                    Road road = new Road(routeId, tok.getString(1), tok.getString(2), tok.getInterned(3));
+                    roadMap.put(routeId, road);
                 } catch (NumberFormatException e) {
-                    System.err.println("Road : Erreur de format pour les coordonnées dans la ligne : " + line);
+                    System.err.println("Road : Erreur de format pour les coordonnées dans la ligne : " + tok.rowText());
                 }
             }
         } catch (IOException e) {
@@ -45,60 +40,54 @@ public class ParseData {
     }
 
     /*
-    * Parses a CSV file containing stop_times data and fills the stopTimeMap with StopTime objects
+    * Parses a CSV file containing stop_times data into a columnar TripStore, and fills the
+    * stopTimeMap with a StopTime view of each of its trips (joined with the trips already there).
+    * Every stop time of the day is kept, the departure time is chosen by each query.
     */
-    void parseStopTime(String path, HashMap<String, StopTime> stopTimeMap, float horraire) {
-        try (BufferedReader br = new BufferedReader(new FileReader(path))) {
-            String line;
-            br.readLine(); // Skip header line
-
-            while ((line = br.readLine()) != null) {
-                String[] data = line.split(",");
+    void parseStopTime(String path, HashMap<String, StopTime> stopTimeMap) {
+        TripStore store = new TripStore(ids);
+        try (CsvTokenizer tok = new CsvTokenizer(path, ids)) {
+            tok.nextRow(); // Skip header line
 
+            while (tok.nextRow()) {
                 try {
-                    int stopSequence = Integer.parseInt(data[3]);
-                    String tripId = data[0];
-                    String stopId = data[2];
-                    String departureTime = data[1];
-
-                    // Skip stops before the given time threshold
-                    if (Common.HoraireToFloat(departureTime) < horraire) continue;
-
-                    // Retrieve or create StopTime object and update it
-                    StopTime stopTime = stopTimeMap.get(tripId);
-                    if (stopTime == null) {
-                        stopTime = new StopTime(tripId, departureTime, stopId);
-                        stopTimeMap.put(tripId, stopTime);
-                    } 
-                    
-                    stopTime.addToItinerary(stopSequence, stopId, departureTime);
+                    int stopSequence = tok.getInt(3);
+                    int time = tok.getTimeSeconds(1);
+                    store.add(tok.getInterned(0), stopSequence, tok.getId(2), time);
                 } catch (NumberFormatException e) {
-                    System.err.println("StopTime : Erreur de format pour les coordonnées dans la ligne : " + line);
+                    System.err.println("StopTime : Erreur de format pour les coordonnées dans la ligne : " + tok.rowText());
                 }
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
+
+        HashMap<String, StopTime> views = new HashMap<>();
+        store.putViews(views);
+        for (StopTime stopTime : views.values()) {
+            StopTime existing = stopTimeMap.putIfAbsent(stopTime.getTripId(), stopTime);
+            if (existing != null) {
+                existing.merge(stopTime);
+            }
+        }
     }
 
     /*
     * Parses a CSV file containing stop data and fills the stopMap with Stop objects
     */
     void parseStop(String path, HashMap<String, Stop> stopMap) { 
-        try (BufferedReader br = new BufferedReader(new FileReader(path))) {
-            String line;
-            br.readLine(); // Skip header line
+        try (CsvTokenizer tok = new CsvTokenizer(path, ids)) {
+            tok.nextRow(); // Skip header line
             
-            while ((line = br.readLine()) != null) {
-                String[] data = parseCsvLine(line);
-                
+            while (tok.nextRow()) {
                 try {
-                    float stopLat = Float.parseFloat(data[2]);
-                    float stopLon = Float.parseFloat(data[3]);
-                    Stop stop = new Stop(data[0], data[1], stopLat, stopLon);
-                    stopMap.put(data[0], stop);
+                    float stopLat = tok.getFloat(2);
+                    float stopLon = tok.getFloat(3);
+                    String stopId = tok.getInterned(0);
+                    Stop stop = new Stop(stopId, tok.getString(1), stopLat, stopLon);
+                    stopMap.put(stopId, stop);
                 } catch (NumberFormatException e) {
-                    System.err.println("Stop : Erreur de format pour les coordonnées dans la ligne : " + line);
+                    System.err.println("Stop : Erreur de format pour les coordonnées dans la ligne : " + tok.rowText());
                 }
             }
         } catch (IOException e) {
@@ -107,20 +96,20 @@ public class ParseData {
     }
 
     /*
-    * Parses a CSV file containing trip data and fills the tripMap
+    * Parses a CSV file containing trip data and fills the tripMap, and the service of
+    * each trip in tripServiceIds when the file has a service_id column
     */
-    void parseTrip(String path, HashMap<String, String> tripMap) {
-        try (BufferedReader br = new BufferedReader(new FileReader(path))) {
-            String line;
-            br.readLine(); // Skip header line
-
-            while ((line = br.readLine()) != null) {
-                String[] data = line.split(",");
-                
+    void parseTrip(String path, HashMap<String, String> tripMap, HashMap<String, String> tripServiceIds) {
+        try (CsvTokenizer tok = new CsvTokenizer(path, ids)) {
+            tok.nextRow(); // Skip header line
+
+            while (tok.nextRow()) {
                 try {
-                    tripMap.put(data[0], data[1]);
+                    String tripId = tok.getInterned(0);
+                    tripMap.put(tripId, tok.getInterned(1));
+                    if (tok.fieldCount() > 2) tripServiceIds.put(tripId, tok.getInterned(2));
                 } catch (NumberFormatException e) {
-                    System.err.println("Trip : Erreur de format pour les coordonnées dans la ligne : " + line);
+                    System.err.println("Trip : Erreur de format pour les coordonnées dans la ligne : " + tok.rowText());
                 }
             }
         } catch (IOException e) {
@@ -128,13 +117,194 @@ public class ParseData {
         }
     }
 
+    /*
+    * Parses the optional calendar.csv (weekly services) then calendar_dates.csv
+    * (added and removed days) of an agency into its calendar
+    */
+    void parseCalendar(String calendarPath, String calendarDatesPath, ServiceCalendar calendar) {
+        if (calendarPath != null && new File(calendarPath).isFile()) {
+            try (CsvTokenizer tok = new CsvTokenizer(calendarPath, ids)) {
+                tok.nextRow(); // Skip header line
+
+                while (tok.nextRow()) {
+                    try {
+                        boolean[] weekdays = new boolean[7];
+                        for (int day = 0; day < 7; day++) {
+                            weekdays[day] = tok.getInt(day + 1) == 1;
+                        }
+                        calendar.addWeekly(tok.getInterned(0), weekdays, toDate(tok.getInt(8)), toDate(tok.getInt(9)));
+                    } catch (NumberFormatException | DateTimeException e) {
+                        System.err.println("Calendar : Erreur de format dans la ligne : " + tok.rowText());
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        if (calendarDatesPath != null && new File(calendarDatesPath).isFile()) {
+            try (CsvTokenizer tok = new CsvTokenizer(calendarDatesPath, ids)) {
+                tok.nextRow(); // Skip header line
+
+                while (tok.nextRow()) {
+                    try {
+                        // exception_type 1 adds the date, 2 removes it
+                        calendar.addException(tok.getInterned(0), toDate(tok.getInt(1)), tok.getInt(2) == 1);
+                    } catch (NumberFormatException | DateTimeException e) {
+                        System.err.println("CalendarDates : Erreur de format dans la ligne : " + tok.rowText());
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Parses a trip updates feed, a CSV file with the columns trip_id,
+     * schedule_relationship, stop_id, delay, time, route_id (see TripUpdate):
+     * - SCHEDULED (or empty): one line per stop with a delay in seconds, a line
+     *   without stop bringing the trip back to its schedule;
+     * - CANCELED: a single line;
+     * - ADDED: one line per stop in itinerary order, with its time (HH:mm:ss), the
+     *   route being given on any of them.
+     * The lines of a trip are grouped, a line with another relationship replacing the
+     * previous ones of the trip.
+     * @param path the path of the feed
+     * @return the updates, in the order of the first line of each trip
+     */
+    public List<TripUpdate> parseTripUpdates(String path) throws IOException {
+        LinkedHashMap<String, TripUpdate> updates = new LinkedHashMap<>();
+        try (CsvTokenizer tok = new CsvTokenizer(path, ids)) {
+            tok.nextRow(); // Skip header line
+
+            while (tok.nextRow()) {
+                try {
+                    String tripId = tok.getInterned(0);
+                    String relationship = tok.fieldCount() > 1 ? tok.getString(1).strip() : "";
+                    if (relationship.isEmpty()) relationship = TripUpdate.SCHEDULED;
+                    if (!relationship.equals(TripUpdate.SCHEDULED) && !relationship.equals(TripUpdate.CANCELED)
+                            && !relationship.equals(TripUpdate.ADDED)) {
+                        throw new NumberFormatException("Type de mise à jour inconnu : " + relationship);
+                    }
+                    TripUpdate update = updates.get(tripId);
+                    if (update == null || !update.getRelationship().equals(relationship)) {
+                        update = new TripUpdate(tripId, relationship);
+                        updates.put(tripId, update);
+                    }
+
+                    String stopId = tok.fieldCount() > 2 ? tok.getInterned(2) : "";
+                    if (relationship.equals(TripUpdate.SCHEDULED) && !stopId.isEmpty()) {
+                        update.addStop(stopId, tok.getInt(3));
+                    } else if (relationship.equals(TripUpdate.ADDED)) {
+                        update.addStop(stopId, tok.getTimeSeconds(4));
+                        if (tok.fieldCount() > 5 && !tok.getString(5).isEmpty()) update.setRouteId(tok.getInterned(5));
+                    }
+                } catch (NumberFormatException e) {
+                    System.err.println("TripUpdate : Erreur de format dans la ligne : " + tok.rowText());
+                }
+            }
+        }
+        return new ArrayList<>(updates.values());
+    }
+
+    /**
+     * Converts a GTFS date (YYYYMMDD) to a LocalDate.
+     */
+    private static LocalDate toDate(int yyyymmdd) {
+        return LocalDate.of(yyyymmdd / 10000, yyyymmdd / 100 % 100, yyyymmdd % 100);
+    }
+
+    private static String optionalPath(String[] paths, int index) {
+        return paths.length > index ? paths[index] : null;
+    }
+
+    /**
+     * Parses several agencies at the same time: every file of every agency is parsed
+     * by its own task into its own map, then the maps are merged in agency order, so
+     * the result is the same as calling parseMain for each agency one after another.
+     * @param agencies the paths of each agency, in the order expected by parseMain
+     */
+    public void parseAll(List<String[]> agencies, HashMap<String, Road> roadMap, HashMap<String, String> tripMap,
+        HashMap<String, Stop> stopMap, HashMap<String, StopTime> stopTimeMap, ServiceCalendar calendar) {
+        int count = agencies.size();
+        List<HashMap<String, Road>> roadMaps = new ArrayList<>();
+        List<HashMap<String, String>> tripMaps = new ArrayList<>();
+        List<HashMap<String, Stop>> stopMaps = new ArrayList<>();
+        List<HashMap<String, StopTime>> stopTimeMaps = new ArrayList<>();
+        List<HashMap<String, String>> tripServiceMaps = new ArrayList<>();
+        List<ServiceCalendar> calendars = new ArrayList<>();
+        List<Callable<Void>> tasks = new ArrayList<>();
+
+        for (String[] paths : agencies) {
+            HashMap<String, Road> roads = new HashMap<>();
+            HashMap<String, String> trips = new HashMap<>();
+            HashMap<String, Stop> stops = new HashMap<>();
+            HashMap<String, StopTime> stopTimes = new HashMap<>();
+            HashMap<String, String> tripServices = new HashMap<>();
+            ServiceCalendar services = new ServiceCalendar();
+            roadMaps.add(roads);
+            tripMaps.add(trips);
+            stopMaps.add(stops);
+            stopTimeMaps.add(stopTimes);
+            tripServiceMaps.add(tripServices);
+            calendars.add(services);
+
+            tasks.add(() -> { parseRoad(paths[0], roads); return null; });
+            tasks.add(() -> { parseStop(paths[2], stops); return null; });
+            tasks.add(() -> { parseTrip(paths[3], trips, tripServices); return null; });
+            tasks.add(() -> { parseStopTime(paths[1], stopTimes); return null; });
+            tasks.add(() -> { parseCalendar(optionalPath(paths, 4), optionalPath(paths, 5), services); return null; });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(tasks.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Parsing interrompu", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Erreur lors du parsing", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        // Merge in agency order: later agencies overwrite, trips split across agencies are joined
+        for (int i = 0; i < count; i++) {
+            roadMap.putAll(roadMaps.get(i));
+            stopMap.putAll(stopMaps.get(i));
+            tripMap.putAll(tripMaps.get(i));
+            calendar.merge(calendars.get(i), tripServiceMaps.get(i));
+            for (StopTime stopTime : stopTimeMaps.get(i).values()) {
+                StopTime existing = stopTimeMap.putIfAbsent(stopTime.getTripId(), stopTime);
+                if (existing != null) {
+                    existing.merge(stopTime);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the dictionary of the identifiers parsed so far.
+     */
+    public IdDictionary getIds() {
+        return ids;
+    }
+
     // Main method to parse all data files in the correct order
+    // (routes, stop_times, stops, trips, then the optional calendar and calendar_dates)
     public void parseMain(String[] paths, HashMap<String, Road> roadMap, HashMap<String, String> tripMap, 
-        HashMap<String, Stop> stopMap, HashMap<String, StopTime> stopTimeMap, String horraire) {
+        HashMap<String, Stop> stopMap, HashMap<String, StopTime> stopTimeMap, ServiceCalendar calendar) {
+        HashMap<String, String> tripServices = new HashMap<>();
+        ServiceCalendar services = new ServiceCalendar();
         parseRoad(paths[0], roadMap);
         parseStop(paths[2], stopMap);
-        parseTrip(paths[3], tripMap);
-        parseStopTime(paths[1], stopTimeMap, Common.HoraireToFloat(horraire));
+        parseTrip(paths[3], tripMap, tripServices);
+        parseStopTime(paths[1], stopTimeMap);
+        parseCalendar(optionalPath(paths, 4), optionalPath(paths, 5), services);
+        calendar.merge(services, tripServices);
     }
     
 }
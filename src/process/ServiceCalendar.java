@@ -0,0 +1,179 @@
+package process;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Days on which each service of the GTFS calendar runs (calendar.csv and
+ * calendar_dates.csv), and the service of each trip.
+ * The days of a service are a bitset of epoch days starting at firstDay (a multiple
+ * of 64 days before its first running day), so a year of service takes 6 longs.
+ * A query date is turned once into a bitset over the services (activeServices),
+ * after which a trip is tested with a single bit test (isActive).
+ * Trips without a service, or whose service is in no calendar, run every day.
+ */
+public class ServiceCalendar {
+    HashMap<String, Integer> serviceIndex = new HashMap<>();
+    List<String> serviceIds = new ArrayList<>();
+    List<long[]> days = new ArrayList<>();
+    int[] firstDays = new int[16];
+
+    // Trip ID to service index
+    HashMap<String, Integer> tripServices = new HashMap<>();
+
+    /**
+     * Returns the index of a service, creating it (running on no day) if needed.
+     */
+    public int addService(String serviceId) {
+        Integer index = serviceIndex.get(serviceId);
+        if (index == null) {
+            index = serviceIds.size();
+            serviceIds.add(serviceId);
+            days.add(new long[0]);
+            if (index == firstDays.length) firstDays = Arrays.copyOf(firstDays, index * 2);
+            serviceIndex.put(serviceId, index);
+        }
+        return index;
+    }
+
+    /**
+     * Appends a service with its days already as a bitset, even if another agency
+     * uses the same ID (snapshot loading and merge).
+     * @param firstDay the epoch day of bit 0
+     * @param words the bitset
+     * @return the index of the service
+     */
+    public int appendService(String serviceId, int firstDay, long[] words) {
+        int index = serviceIds.size();
+        serviceIds.add(serviceId);
+        days.add(words);
+        if (index == firstDays.length) firstDays = Arrays.copyOf(firstDays, index * 2);
+        firstDays[index] = firstDay;
+        serviceIndex.putIfAbsent(serviceId, index);
+        return index;
+    }
+
+    /**
+     * Makes a service run on the given days of the week between two dates (a line of calendar.csv).
+     * @param weekdays whether the service runs on each day, monday first
+     * @param start the first date, included
+     * @param end the last date, included
+     */
+    public void addWeekly(String serviceId, boolean[] weekdays, LocalDate start, LocalDate end) {
+        int service = addService(serviceId);
+        for (LocalDate date = start; !date.isAfter(end); date = date.plusDays(1)) {
+            if (weekdays[date.getDayOfWeek().getValue() - 1]) setDay(service, date.toEpochDay(), true);
+        }
+    }
+
+    /**
+     * Adds or removes one day of a service (a line of calendar_dates.csv).
+     * @param running true if the service is added on that date, false if it is removed
+     */
+    public void addException(String serviceId, LocalDate date, boolean running) {
+        setDay(addService(serviceId), date.toEpochDay(), running);
+    }
+
+    private void setDay(int service, long epochDay, boolean running) {
+        long[] words = days.get(service);
+        if (words.length == 0) {
+            if (!running) return;
+            words = new long[1];
+            firstDays[service] = (int) Math.floorDiv(epochDay, 64) * 64;
+        }
+        int first = firstDays[service];
+        if (epochDay < first) {
+            if (!running) return;
+            int shift = (int) ((first - epochDay + 63) / 64);
+            long[] grown = new long[words.length + shift];
+            System.arraycopy(words, 0, grown, shift, words.length);
+            words = grown;
+            first -= shift * 64;
+            firstDays[service] = first;
+        }
+        int offset = (int) (epochDay - first);
+        if (offset >= words.length * 64) {
+            if (!running) return;
+            words = Arrays.copyOf(words, Math.max(offset / 64 + 1, words.length * 2));
+        }
+        if (running) words[offset >>> 6] |= 1L << offset;
+        else words[offset >>> 6] &= ~(1L << offset);
+        days.set(service, words);
+    }
+
+    /**
+     * Records the service of a trip.
+     */
+    public void addTrip(String tripId, int service) {
+        tripServices.put(tripId, service);
+    }
+
+    /**
+     * Adds the services of another calendar and the services of its trips, as parsed
+     * for one agency. The services are matched by ID within that agency only, so two
+     * agencies can use the same service IDs; a trip already known takes the new service.
+     * @param other the calendar of the agency
+     * @param tripServiceIds trip ID to service ID, from trips.csv
+     */
+    public void merge(ServiceCalendar other, Map<String, String> tripServiceIds) {
+        int[] remap = new int[other.serviceIds.size()];
+        for (int service = 0; service < remap.length; service++) {
+            remap[service] = appendService(other.serviceIds.get(service), other.firstDays[service], other.days.get(service));
+        }
+        for (Map.Entry<String, String> trip : tripServiceIds.entrySet()) {
+            Integer service = other.serviceIndex.get(trip.getValue());
+            if (service != null) tripServices.put(trip.getKey(), remap[service]);
+            else tripServices.remove(trip.getKey());
+        }
+    }
+
+    /**
+     * Returns the service of a trip, or -1 if it runs every day.
+     */
+    public int serviceOf(String tripId) {
+        Integer service = tripServices.get(tripId);
+        return service == null ? -1 : service;
+    }
+
+    /**
+     * Returns true if the service runs on the given date.
+     */
+    public boolean runsOn(int service, LocalDate date) {
+        long offset = date.toEpochDay() - firstDays[service];
+        long[] words = days.get(service);
+        return offset >= 0 && offset < words.length * 64L && (words[(int) (offset >>> 6)] & (1L << offset)) != 0;
+    }
+
+    /**
+     * Returns the bitset of the services running on the given date, for isActive.
+     */
+    public long[] activeServices(LocalDate date) {
+        long[] active = new long[(serviceIds.size() + 63) / 64];
+        for (int service = 0; service < serviceIds.size(); service++) {
+            if (runsOn(service, date)) active[service >>> 6] |= 1L << service;
+        }
+        return active;
+    }
+
+    /**
+     * Returns true if a trip of the given service runs, for the bitset of the active
+     * services of a date (null for every day) and a service index (-1 for every day).
+     */
+    public static boolean isActive(long[] activeServices, int service) {
+        return service < 0 || activeServices == null || (activeServices[service >>> 6] & (1L << service)) != 0;
+    }
+
+    /*
+     * Getter of the class
+     */
+    public int getServiceCount() { return serviceIds.size(); }
+    public String getServiceId(int service) { return serviceIds.get(service); }
+    public int getFirstDay(int service) { return firstDays[service]; }
+    public long[] getDays(int service) { return days.get(service); }
+    public Map<String, Integer> getTripServices() { return tripServices; }
+    public boolean isEmpty() { return tripServices.isEmpty(); }
+}
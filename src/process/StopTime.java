@@ -1,58 +1,75 @@
 package process;
 
-import java.util.TreeMap;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.HashMap;
+import common.Common;
 
 /**
  * Represents the stop times for a specific trip.
- * Stores trip ID, departure time, stop ID, and manages the itinerary for the trip.
+ * Flyweight view over the rows of the trip in a TripStore: the itinerary is read by
+ * position, in stop sequence order, without any object per stop time.
  */
 public class StopTime {
-    String tripId;
-    String departureTime;
-    String stopId;
-
-    TreeMap<Integer, List<String>> itinerary = new TreeMap<>(); 
-
-    HashMap<String, String> stopIdToTime = new HashMap<>();
+    TripStore store;
+    int trip;
 
     /**
-     * Constructs a StopTime object with the given attributes.
-     * @param tripId Unique identifier for the trip
-     * @param departureTime Departure time from the stop
-     * @param stopId Identifier of the stop
+     * Constructs the view of a trip of a packed store.
+     * @param store the store holding the stop times
+     * @param trip the index of the trip in the store
      */
-    public StopTime(String tripId, String departureTime, String stopId){
-        this.tripId = tripId;
-        this.departureTime = departureTime;
-        this.stopId = stopId;
+    StopTime(TripStore store, int trip) {
+        this.store = store;
+        this.trip = trip;
     }
 
     /*
      * Getter of the class
      */
-    public String getDepartureTime() { return departureTime; }
-    public String getTripId() { return tripId; }
-    public String getStopId() { return stopId; }
-    public TreeMap<Integer, List<String>> getItinerary() { return itinerary; }
+    public String getTripId() { return store.tripIds[trip]; }
+    public int size() { return store.offsets[trip + 1] - store.offsets[trip]; }
+    public int getSequence(int position) { return store.sequences[store.offsets[trip] + position]; }
+    public int getStop(int position) { return store.stops[store.offsets[trip] + position]; }
+    public String getStopId(int position) { return store.ids.decode(getStop(position)); }
+    public int getTime(int position) { return store.times[store.offsets[trip] + position]; }
+
+    /**
+     * Returns the scheduled time at a position of the itinerary, in minutes, with the
+     * same rounding as Common.HoraireToFloat.
+     */
+    public float getMinutes(int position) {
+        return Common.secondsToFloat(getTime(position));
+    }
 
-    public HashMap<String, String> getStopIdToTime() { return stopIdToTime; }
+    /**
+     * Returns the scheduled time at a position of the itinerary as "HH:mm:ss".
+     */
+    public String getHoraire(int position) {
+        return Common.secondsToHoraire(getTime(position));
+    }
 
     /**
-     * Adds a stop to the itinerary with its sequence, stopTimeId, and timeTable.
-     * Also updates the stopId-to-time map.
-     * @param stopSequence Sequence number of the stop in the trip
-     * @param stopTimeId Identifier for the stop time
-     * @param timeTable Scheduled time for the stop
+     * Returns the scheduled time of the first visit of a stop as "HH:mm:ss", or
+     * null if the trip does not serve it.
      */
-    public void addToItinerary(int stopSequence, String stopTimeId, String timeTable) {
-        List<String> stopTimeInfo = new ArrayList<>();
-        stopTimeInfo.add(stopTimeId);
-        stopTimeInfo.add(timeTable);
-        itinerary.put(stopSequence, stopTimeInfo);
+    public String getHoraire(String stopId) {
+        int stop = store.ids.find(stopId);
+        if (stop < 0) return null;
+        for (int row = store.offsets[trip]; row < store.offsets[trip + 1]; row++) {
+            if (store.stops[row] == stop) return Common.secondsToHoraire(store.times[row]);
+        }
+        return null;
+    }
 
-        stopIdToTime.put(stopTimeId, timeTable);
+    /**
+     * Adds the itinerary of another StopTime of the same trip, as if its stops had
+     * been added after the stops of this one. The view moves to a store of its own.
+     * @param other StopTime parsed separately for the same trip
+     */
+    public void merge(StopTime other) {
+        TripStore merged = new TripStore(store.ids);
+        merged.addAll(getTripId(), store, trip);
+        merged.addAll(getTripId(), other.store, other.trip);
+        merged.pack();
+        store = merged;
+        trip = 0;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,216 @@
+package process;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Columnar storage of the stop times of many trips: instead of one map per trip and
+ * one list per stop time, every stop time is a row of parallel int arrays (stop ID
+ * in an IdDictionary, stop sequence and time in seconds), and the rows of trip t are
+ * rows offsets[t] .. offsets[t + 1] - 1, sorted by stop sequence.
+ * Rows are appended in any order while parsing (add), then sorted once by pack.
+ * Each trip is read through a StopTime, a flyweight view over its rows.
+ */
+public class TripStore {
+    IdDictionary ids;
+
+    // Trip ID to trip index, only kept while rows are added (rebuilt if needed)
+    HashMap<String, Integer> tripIndex = new HashMap<>();
+    String[] tripIds = new String[256];
+    int tripCount;
+
+    // Rows added since the last pack, in insertion order
+    int rowCount;
+    int[] rowTrips = new int[1024];
+    int[] rowSequences = new int[1024];
+    int[] rowStops = new int[1024];
+    int[] rowTimes = new int[1024];
+
+    // Packed rows, by trip then stop sequence
+    int[] offsets = new int[1];
+    int[] sequences = new int[0];
+    int[] stops = new int[0];
+    int[] times = new int[0];
+
+    // Trip of the last row added, as most files list the stop times trip by trip
+    String lastTripId;
+    int lastTrip = -1;
+
+    /**
+     * Creates a store with a dictionary of its own.
+     */
+    public TripStore() {
+        this(new IdDictionary());
+    }
+
+    /**
+     * Creates a store whose stops are IDs of the given dictionary.
+     */
+    public TripStore(IdDictionary ids) {
+        this.ids = ids;
+    }
+
+    /**
+     * Returns the index of a trip, adding it (without stop times) if needed.
+     */
+    public int addTrip(String tripId) {
+        // Same instance: the identifiers of a file are interned
+        if (tripId == lastTripId) return lastTrip;
+        if (tripIndex == null) {
+            tripIndex = new HashMap<>(tripCount * 2);
+            for (int trip = 0; trip < tripCount; trip++) tripIndex.put(tripIds[trip], trip);
+        }
+        Integer index = tripIndex.get(tripId);
+        if (index == null) {
+            index = tripCount++;
+            if (index == tripIds.length) tripIds = Arrays.copyOf(tripIds, Math.max(16, index * 2));
+            tripIds[index] = tripId;
+            tripIndex.put(tripId, index);
+        }
+        lastTripId = tripId;
+        lastTrip = index;
+        return index;
+    }
+
+    /**
+     * Appends a stop time (a line of stop_times.csv). A later stop time with the same
+     * trip and stop sequence replaces the earlier one once packed.
+     * @param time the scheduled time, in seconds after midnight
+     */
+    public void add(String tripId, int stopSequence, String stopId, int time) {
+        add(addTrip(tripId), stopSequence, ids.encode(stopId), time);
+    }
+
+    /**
+     * Same as add(tripId, stopSequence, stopId, time), with the ID of the stop in the dictionary.
+     */
+    public void add(String tripId, int stopSequence, int stop, int time) {
+        add(addTrip(tripId), stopSequence, stop, time);
+    }
+
+    void add(int trip, int stopSequence, int stop, int time) {
+        if (rowCount == rowTrips.length) {
+            int capacity = rowCount * 2;
+            rowTrips = Arrays.copyOf(rowTrips, capacity);
+            rowSequences = Arrays.copyOf(rowSequences, capacity);
+            rowStops = Arrays.copyOf(rowStops, capacity);
+            rowTimes = Arrays.copyOf(rowTimes, capacity);
+        }
+        rowTrips[rowCount] = trip;
+        rowSequences[rowCount] = stopSequence;
+        rowStops[rowCount] = stop;
+        rowTimes[rowCount] = time;
+        rowCount++;
+    }
+
+    /**
+     * Appends every stop time of a trip of another store, as if they had been added
+     * after the stop times already known for that trip.
+     */
+    void addAll(String tripId, TripStore other, int otherTrip) {
+        int trip = addTrip(tripId);
+        for (int row = other.offsets[otherTrip]; row < other.offsets[otherTrip + 1]; row++) {
+            int stop = other.ids == ids ? other.stops[row] : ids.encode(other.ids.decode(other.stops[row]));
+            add(trip, other.sequences[row], stop, other.times[row]);
+        }
+    }
+
+    /**
+     * Sorts the rows added since the last pack together with the packed ones, by trip
+     * then stop sequence, keeping the last row added for a duplicated stop sequence.
+     * Must be called before the stop times are read.
+     */
+    public void pack() {
+        if (rowCount == 0 && offsets.length == tripCount + 1) return;
+        int packedCount = sequences.length;
+        int total = packedCount + rowCount;
+
+        // Counting sort by trip, stable: packed rows first, then the added ones in order
+        int[] newOffsets = new int[tripCount + 1];
+        for (int t = 0; t + 1 < offsets.length; t++) newOffsets[t + 1] += offsets[t + 1] - offsets[t];
+        for (int row = 0; row < rowCount; row++) newOffsets[rowTrips[row] + 1]++;
+        for (int t = 0; t < tripCount; t++) newOffsets[t + 1] += newOffsets[t];
+        int[] fill = Arrays.copyOf(newOffsets, tripCount);
+        int[] newSequences = new int[total];
+        int[] newStops = new int[total];
+        int[] newTimes = new int[total];
+        for (int t = 0; t + 1 < offsets.length; t++) {
+            for (int row = offsets[t]; row < offsets[t + 1]; row++) {
+                int slot = fill[t]++;
+                newSequences[slot] = sequences[row];
+                newStops[slot] = stops[row];
+                newTimes[slot] = times[row];
+            }
+        }
+        for (int row = 0; row < rowCount; row++) {
+            int slot = fill[rowTrips[row]]++;
+            newSequences[slot] = rowSequences[row];
+            newStops[slot] = rowStops[row];
+            newTimes[slot] = rowTimes[row];
+        }
+
+        // Stable insertion sort of each trip by sequence (rows mostly come in order),
+        // then the duplicated sequences are dropped, keeping the last one
+        int size = 0;
+        for (int t = 0; t < tripCount; t++) {
+            int from = newOffsets[t];
+            int to = newOffsets[t + 1];
+            for (int i = from + 1; i < to; i++) {
+                int sequence = newSequences[i];
+                int stop = newStops[i];
+                int time = newTimes[i];
+                int j = i - 1;
+                while (j >= from && newSequences[j] > sequence) {
+                    newSequences[j + 1] = newSequences[j];
+                    newStops[j + 1] = newStops[j];
+                    newTimes[j + 1] = newTimes[j];
+                    j--;
+                }
+                newSequences[j + 1] = sequence;
+                newStops[j + 1] = stop;
+                newTimes[j + 1] = time;
+            }
+            newOffsets[t] = size;
+            for (int i = from; i < to; i++) {
+                if (i + 1 < to && newSequences[i + 1] == newSequences[i]) continue;
+                newSequences[size] = newSequences[i];
+                newStops[size] = newStops[i];
+                newTimes[size] = newTimes[i];
+                size++;
+            }
+        }
+        newOffsets[tripCount] = size;
+
+        offsets = newOffsets;
+        sequences = Arrays.copyOf(newSequences, size);
+        stops = Arrays.copyOf(newStops, size);
+        times = Arrays.copyOf(newTimes, size);
+        rowCount = 0;
+        rowTrips = new int[16];
+        rowSequences = new int[16];
+        rowStops = new int[16];
+        rowTimes = new int[16];
+    }
+
+    /**
+     * Packs the store and puts a view of each of its trips in the map, by trip ID.
+     * The map then indexes the trips, so the store drops its own index.
+     */
+    public void putViews(Map<String, StopTime> stopTimeMap) {
+        pack();
+        tripIds = Arrays.copyOf(tripIds, tripCount);
+        tripIndex = null;
+        lastTripId = null;
+        for (int trip = 0; trip < tripCount; trip++) {
+            stopTimeMap.put(tripIds[trip], new StopTime(this, trip));
+        }
+    }
+
+    /*
+     * Getter of the class
+     */
+    public int getTripCount() { return tripCount; }
+    public IdDictionary getIds() { return ids; }
+    public int getRowCount() { return sequences.length; }
+}
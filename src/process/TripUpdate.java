@@ -0,0 +1,67 @@
+package process;
+
+import java.util.Arrays;
+
+/**
+ * Real-time update of one trip, as read from a trip updates feed (see
+ * ParseData.parseTripUpdates), in the spirit of a GTFS-Realtime TripUpdate:
+ * - SCHEDULED: the trip runs late (or early). The delay given at a stop applies
+ *   from that stop on, up to the next stop of the update; the stops before the
+ *   first one keep their scheduled time.
+ * - CANCELED: the trip does not run.
+ * - ADDED: a trip missing from the timetable, of the given route, calling at the
+ *   stops at the given times.
+ * An update replaces the previous update of the same trip, the delays being counted
+ * from the scheduled times, so applying the same feed twice changes nothing.
+ */
+public class TripUpdate {
+    public static final String SCHEDULED = "SCHEDULED";
+    public static final String CANCELED = "CANCELED";
+    public static final String ADDED = "ADDED";
+
+    String tripId;
+    String relationship;
+    String routeId;
+    int size;
+    String[] stopIds = new String[4];
+    // Delay in seconds (SCHEDULED), or time in seconds after midnight (ADDED)
+    int[] seconds = new int[4];
+
+    /**
+     * Creates an update without stops.
+     * @param relationship SCHEDULED, CANCELED or ADDED
+     */
+    public TripUpdate(String tripId, String relationship) {
+        this.tripId = tripId;
+        this.relationship = relationship;
+    }
+
+    /**
+     * Appends a stop to the update.
+     * @param seconds the delay at the stop (SCHEDULED) or the time of the stop (ADDED), in seconds
+     */
+    public void addStop(String stopId, int seconds) {
+        if (size == stopIds.length) {
+            stopIds = Arrays.copyOf(stopIds, size * 2);
+            this.seconds = Arrays.copyOf(this.seconds, size * 2);
+        }
+        stopIds[size] = stopId;
+        this.seconds[size] = seconds;
+        size++;
+    }
+
+    public void setRouteId(String routeId) {
+        this.routeId = routeId;
+    }
+
+    /*
+     * Getter of the class
+     */
+    public String getTripId() { return tripId; }
+    public String getRelationship() { return relationship; }
+    public String getRouteId() { return routeId; }
+    public int size() { return size; }
+    public String getStopId(int position) { return stopIds[position]; }
+    public int getDelay(int position) { return seconds[position]; }
+    public int getTime(int position) { return seconds[position]; }
+}
@@ -1,35 +1,90 @@
 package request;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.PriorityQueue;
 import java.util.Collections;
-import java.util.Comparator;
 
+import graph.CompactGraph;
 import graph.Edge;
 import graph.Graph;
-import process.Stop;
-import process.StopTime;
+import graph.IndexedMinHeap;
+import graph.Landmarks;
+import metrics.Metrics;
+import metrics.MetricsRegistry;
 import process.Road;
 
 /**
  * Implements the A* search algorithm for finding the optimal route in the transport network.
  * Handles preferences and penalties for transport modes, and computes heuristics based on coordinates.
+ * The search runs directly on the integer-indexed CompactGraph of the Graph, which is
+ * only read; its labels and open list live in the SearchContext of the calling thread,
+ * reused from one query to the next, so queries can run on several threads at once.
+ * The walking transfers are closed (see Transfers), so a journey never walks twice
+ * in a row: every stop has a single label, its earliest arrival made of a trip and the
+ * walk after it, and its walks leave from its earliest arrival by a trip (see arrive).
+ * Each search counts its work (nodes expanded, edges relaxed, heap operations, heuristic
+ * evaluations, peak size of the open list) and reports it to the metrics of the graph.
+ * With -BIDIR, a latest-departure search from the goals (BackwardSearch) runs in turn
+ * with the search: it needs the arrival as a deadline, so a first journey is found by
+ * a search that overrates the heuristic (FIRST_WEIGHT) and opens the stops again when
+ * it finds them earlier, then an exact search drops every label too late to reach a
+ * goal by the arrival of the best journey known, and stops when its smallest key
+ * reaches that arrival (see expandBidirectional).
  */
-public class Astar {
+public class Astar implements PathFinder {
+    // Weight of the heuristic in the search of the first journey of -BIDIR
+    static final float FIRST_WEIGHT = 20f;
+    // Stops settled by the backward search of -BIDIR for each stop of the exact search
+    static final float BACKWARD_SHARE = 0.25f;
+    // Margin of the labels dropped by -BIDIR against rounding, in minutes
+    static final float MARGIN = 1e-3f;
+
     Graph graph;
-    String startId;
-    String goalId;
+    CompactGraph compact;
+    // Every stop carrying the start and goal names (all the platforms of a station)
+    int[] starts;
+    int[] goals;
+    int nodeCount;
     float startTime;
     List<String> optionLst;
-    HashMap<String, Edge> edgeFrom = new HashMap<>();
-    HashMap<String, String> cameFrom = new HashMap<>();
+    float[] routeBonusMalus;
+    Landmarks landmarks;
+    // Heuristic data of the goal set, computed once: the circle around the goals and the landmark bounds
+    float[] goalCircle;
+    float[] goalLandmarks;
+    // Services running on the day of the journey, null for every trip
+    long[] activeServices;
+    float arrivalTime = -1f;
+    // Goal reached by the last search
+    int reachedGoal = -1;
+
+    // -BIDIR, ignored with mode preferences, whose answer depends on the heuristic
+    boolean bidirectional;
+    float heuristicWeight = 1f;
+    // Search from the goals while the exact search of -BIDIR runs, else null
+    BackwardSearch backward;
+    // Arrival of the best journey known by -BIDIR, and the stop where it meets the
+    // backward search (-1 for the first journey), reached by a trip or on foot
+    float bestArrival;
+    int meetingNode;
+    boolean meetingByTrip;
+    // Journey of the last -BIDIR search when it is not a label of the search, else null
+    List<Edge> journey;
+
+    // Work of the last search
+    int settledCount;
+    // Stops settled by the first search of -BIDIR
+    int firstSettledCount;
+    int expandedCount;
+    int relaxedCount;
+    int pushCount;
+    int decreaseCount;
+    int heuristicCount;
+    int peakOpenSize;
 
     /**
      * Initializes the A* search with the graph, start/goal names, time, and options.
-     * @param graph 
+     * @param graph
      * @param startName the departure stop
      * @param goalName the goal stop
      * @param startTime the time of the start
@@ -37,22 +92,30 @@ public class Astar {
      */
     public Astar(Graph graph, String startName, String goalName, float startTime, List<String> optionLst) {
         this.graph = graph;
-        this.startId = getStopIdsViaName(startName);
-        this.goalId = getStopIdsViaName(goalName);
+        this.compact = graph.getCompactGraph();
+        this.starts = compact.indicesOf(graph.getStopIdsViaName(startName));
+        this.goals = compact.indicesOf(graph.getStopIdsViaName(goalName));
+        this.nodeCount = compact.getNodeCount();
         this.startTime = startTime;
         this.optionLst = optionLst;
-    }
-
-    /**
-     * Finds the stop ID corresponding to a given stop name (case-insensitive).
-     */
-    private String getStopIdsViaName(String stopName) {
-        for (Stop stop : graph.getStopMap().values()) {
-            if (stop.getStopName().equalsIgnoreCase(stopName)) {
-                return stop.getStopId();
+        // -ALT adds the landmark bounds to the geometric heuristic (-GEO, the default)
+        this.landmarks = optionLst.contains("-ALT") ? graph.getLandmarks() : null;
+        if (goals.length > 0) {
+            this.goalCircle = compact.boundingCircle(goals);
+            if (landmarks != null) this.goalLandmarks = landmarks.goalBounds(goals);
+        }
+        this.activeServices = graph.getActiveServices(Request.getDate(optionLst));
+
+        // Bonus or malus of every route, resolved once for the whole search
+        this.routeBonusMalus = new float[compact.getRouteCount()];
+        for (int route = 0; route < routeBonusMalus.length; route++) {
+            Road road = graph.getRoadMap().get(compact.getRouteId(route));
+            if (road != null && road.getTransportType() != null) {
+                routeBonusMalus[route] = getTransportBonusMalus(road.getTransportType());
             }
         }
-        return null;
+        this.bidirectional = optionLst.contains("-BIDIR");
+        for (float bonusMalus : routeBonusMalus) bidirectional &= bonusMalus == 0;
     }
 
     /**
@@ -60,8 +123,8 @@ public class Astar {
      */
     private int getTransportBonusMalus(String type) {
         if (optionLst.contains("-" + type.toUpperCase())) {
-            return -400;          
-        }   
+            return -400;
+        }
         if (optionLst.contains("-N" + type.toUpperCase())) {
             return 400;
         }
@@ -73,212 +136,425 @@ public class Astar {
      * Returns a list of stop IDs representing the path.
      */
     public List<String> shortestPath() {
-        if (startId == null || goalId == null) return null;
-        if (startId.equals(goalId)) {
-            return List.of(startId);
+        if (starts.length == 0 || goals.length == 0) return null;
+        int start = startAtGoal();
+        if (start >= 0) {
+            arrivalTime = startTime;
+            return List.of(compact.getStopId(start));
+        }
+
+        SearchContext context = search();
+        if (context == null) return null;
+
+        List<String> path = new ArrayList<>();
+        if (journey != null) {
+            path.add(journey.get(0).getDepartureStopId());
+            for (Edge edge : journey) path.add(edge.getArrivalStopId());
+            return path;
         }
+        int current = reachedGoal;
+        while (current != -1) {
+            path.add(compact.getStopId(current));
+            // A walk after a trip passes by the end of the trip
+            if (context.walk(current) != -1 && context.edge(current) != -1) {
+                path.add(compact.getStopId(compact.target(context.edge(current))));
+            }
+            current = context.parent(current);
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    /**
+     * Returns a start that is also a goal, or -1.
+     */
+    private int startAtGoal() {
+        for (int start : starts) {
+            for (int goal : goals) {
+                if (goal == start) return start;
+            }
+        }
+        return -1;
+    }
 
-        HashSet<String> closeLst = new HashSet<>();
-        HashMap<String, Float> gScore = new HashMap<>();
-        HashMap<String, Float> fScore = new HashMap<>();
-        PriorityQueue<String> openLst = new PriorityQueue<>(Comparator.comparingDouble(id -> fScore.getOrDefault(id, Float.POSITIVE_INFINITY)));
-        HashSet<String> openSet = new HashSet<>();
+    /**
+     * Runs A* from every start to the closest goal in the search context of the calling
+     * thread. Returns the context holding the labels of the search if a goal was reached
+     * (reachedGoal), or null. The labels stay valid until the next search on the same thread.
+     */
+    private SearchContext search() {
+        Metrics metrics = graph.getMetrics();
+        if (!metrics.isEnabled()) return expand();
+
+        long startNanos = System.nanoTime();
+        long startBytes = MetricsRegistry.allocatedBytes();
+        SearchContext context = expand();
+        long endBytes = MetricsRegistry.allocatedBytes();
+        metrics.increment("astar.queries", 1);
+        if (context == null) metrics.increment("astar.no_path", 1);
+        metrics.observe("astar.search_ms", (System.nanoTime() - startNanos) / 1_000_000.0);
+        metrics.observe("astar.nodes_expanded", expandedCount);
+        metrics.observe("astar.edges_relaxed", relaxedCount);
+        metrics.observe("astar.heap_pushes", pushCount);
+        metrics.observe("astar.heap_pops", settledCount);
+        metrics.observe("astar.decrease_keys", decreaseCount);
+        metrics.observe("astar.heuristic_evaluations", heuristicCount);
+        metrics.observe("astar.peak_open_size", peakOpenSize);
+        if (startBytes >= 0) metrics.observe("astar.allocated_bytes", endBytes - startBytes);
+        return context;
+    }
+
+    /**
+     * The search itself, see search().
+     */
+    private SearchContext expand() {
+        reachedGoal = -1;
+        journey = null;
+        settledCount = 0;
+        expandedCount = 0;
+        relaxedCount = 0;
+        pushCount = 0;
+        decreaseCount = 0;
+        heuristicCount = 0;
+        peakOpenSize = 0;
+        if (bidirectional) return expandBidirectional();
+        SearchContext context = SearchContext.acquire(nodeCount);
+        return run(context) ? context : null;
+    }
+
+    /**
+     * Runs A* from every start until a goal is reached (reachedGoal, returns true) or
+     * nothing is left, in a context just acquired.
+     */
+    private boolean run(SearchContext context) {
+        IndexedMinHeap openLst = context.heap;
+        for (int goal : goals) {
+            context.markGoal(goal);
+        }
 
-        gScore.put(startId, this.startTime);
-        fScore.put(startId, calculHeuristic(startId, goalId));
-        openLst.add(startId);
-        openSet.add(startId);
+        for (int start : starts) {
+            arrive(context, start, this.startTime, -1, -1, -1, 0);
+        }
 
         while (!openLst.isEmpty()) {
-            String currentId = openLst.poll();
-            openSet.remove(currentId);
-
-            if (currentId == null) break;
-
-            if (goalId.equals(currentId)) return findPath(goalId, cameFrom);
-
-            closeLst.add(currentId);
-
-            List<Edge> neighbors = graph.getGraph().get(currentId);
-            if (neighbors == null) continue;
-
-            for (Edge edge : neighbors) {
-                String neighborId = edge.getArrivalStopId();
-
-                if (closeLst.contains(neighborId)) continue;
-
-                float currentTime = gScore.getOrDefault(currentId, this.startTime);
-
-                // Retrieve edge and trip information
-                String roadId = edge.getRoadId();
-                String tripId = edge.getTripId();
-                StopTime stopTime = graph.getStopTimeMap().get(tripId);
-                float edgeDepartureTime = -1;
-                if (stopTime != null) {
-                    String horaireStr = stopTime.getStopIdToTime().get(currentId);
-                    if (horaireStr != null) {
-                        edgeDepartureTime = common.Common.HoraireToFloat(horaireStr);
-                    }
-                }
-
-                // Compute waiting time for public transport, or 0 for walking
-                float waitingTime = 0f;
-                if ("WALK".equals(roadId) || edgeDepartureTime == -1f) {
-                    waitingTime = 0f;
-                } else {
-                    if (edgeDepartureTime < currentTime) continue;
-                    waitingTime = edgeDepartureTime - currentTime;
-                }
-
-                // Total suposedly cost to reach the goal
-                float tentativeG = currentTime + waitingTime + edge.getDuration();
-
-                // Add of a bonus or a malus if the user prefer use a certain transport and avoid other
-                String type = null;
-                if (roadId != null && !"WALK".equals(roadId)) {
-                    String routeId = graph.getTripMap().get(tripId);
-                    if (routeId != null) {
-                        Road road = graph.getRoadMap().get(routeId);
-                        if (road != null) {
-                            type = road.getTransportType();
-                        }
-                    }
-                }
+            if (backward != null && !alternate(context)) break;
+            int current = openLst.poll();
+            settledCount++;
+
+            if (context.isGoal(current)) {
+                reachedGoal = current;
+                arrivalTime = context.g(current);
+                countHeap(openLst);
+                return true;
+            }
+
+            context.close(current);
+            float currentTime = context.g(current);
+            expandedCount++;
+
+            // The walks leave from the earliest arrival by a trip, later than currentTime if
+            // the stop was reached on foot first
+            relaxWalks(context, current);
+            if (backward != null) {
+                meet(context, current);
+                // No trip boarded here can reach a goal in time any more
+                if (currentTime > backward.latestBoarding(current) + MARGIN) continue;
+            }
+            // Public transport waits for the next trip of the pattern; trips never
+            // overtake each other, so it is also the first to arrive
+            for (int edge = compact.firstTripEdge(current); edge < compact.lastEdge(current); edge++) {
+                int trip = compact.nextTrip(edge, currentTime, activeServices);
+                if (trip < 0) continue;
+                relaxedCount++;
 
                 // Apply user preferences (bonus/malus)
-                int bonusMalus = 0;
-                if (type != null) {
-                    bonusMalus += getTransportBonusMalus(type);
-                }
-
-                // If this path to neighbor is better, record it
-                if (tentativeG < gScore.getOrDefault(neighborId, Float.POSITIVE_INFINITY)) {
-                    cameFrom.put(neighborId, currentId);
-                    edgeFrom.put(neighborId, edge);
-                    gScore.put(neighborId, tentativeG);
-                    fScore.put(neighborId, tentativeG + calculHeuristic(neighborId, goalId) + bonusMalus);
-
-                    if (!openSet.contains(neighborId)) {
-                        openLst.add(neighborId);
-                        openSet.add(neighborId);
-                    }
-                }
+                int route = compact.route(edge);
+                float bonusMalus = route < 0 ? 0 : routeBonusMalus[route];
+                // Scheduled arrival, so that staying on board compares exactly with the next departure
+                arrive(context, compact.target(edge), compact.arrival(edge, trip), current, edge, trip, bonusMalus);
             }
         }
-        return null;
+        countHeap(openLst);
+        return false;
     }
 
     /**
-     * Reconstructs the path from start to goal using the cameFrom map.
+     * -BIDIR. The latest-departure search from the goals needs a deadline: the arrival
+     * of a first journey, found by a search that overrates the heuristic and settles
+     * few stops. The exact search then runs in turn with the backward search, which
+     * settles BACKWARD_SHARE of its count, and drops the labels later than the latest
+     * departure of their stop, or than the frontier of the backward search if it has
+     * not settled the stop yet: they cannot reach a goal by the deadline. A stop settled
+     * by both searches, reached early enough, gives a journey whose arrival is bounded
+     * by the backward labels (meet). The smallest key of the exact search is a lower
+     * bound of any journey left, so it stops once it reaches the best arrival known, and
+     * the journey is optimal: its goal, or a meeting, or else the first journey.
      */
-    private List<String> findPath(String goalId, HashMap<String, String> cameFrom) {
-        List<String> path = new ArrayList<>();
-        String current = goalId;
-        while (current != null) {
-            path.add(current);
-            current = cameFrom.get(current);
+    private SearchContext expandBidirectional() {
+        heuristicWeight = FIRST_WEIGHT;
+        SearchContext context = SearchContext.acquire(nodeCount);
+        boolean found = run(context);
+        heuristicWeight = 1f;
+        if (!found) return null;
+        List<Edge> first = edgesTo(context, reachedGoal);
+        // Already at a goal
+        if (first.isEmpty()) return context;
+        int firstGoal = reachedGoal;
+        bestArrival = arrivalTime;
+        meetingNode = -1;
+
+        firstSettledCount = settledCount;
+        backward = BackwardSearch.acquire(graph.getReverseGraph(), compact, compact.boundingCircle(starts), goals,
+                bestArrival, startTime, activeServices);
+        try {
+            context = SearchContext.acquire(nodeCount);
+            found = run(context);
+            settledCount += backward.settledCount;
+            if (found) return context;
+            journey = meetingNode < 0 ? null : meetingJourney(context);
+        } finally {
+            backward = null;
         }
-        Collections.reverse(path);
-        return path;
+        if (journey == null) {
+            journey = first;
+            reachedGoal = firstGoal;
+            arrivalTime = bestArrival;
+        }
+        return context;
     }
 
     /**
-     * Returns a list of transport types available from a given stop.
+     * Settles stops of the backward search until it has settled its share of those of
+     * the exact search (BACKWARD_SHARE), meeting the stops already closed by it. Returns
+     * false once the smallest key of the open list reaches the best arrival known: the
+     * search can stop.
      */
-    public List<String> getTransportTypes(String stopId) {
-        List<String> transportTypes = new ArrayList<>();
-        List<Edge> edges = graph.getGraph().get(stopId);
-        if (edges == null) {
-            return transportTypes; 
+    private boolean alternate(SearchContext context) {
+        while (!backward.isDone() && backward.settledCount <= BACKWARD_SHARE * (settledCount - firstSettledCount)) {
+            int node = backward.settle();
+            if (context.isClosed(node)) meet(context, node);
         }
-        for (Edge edge : edges) {
-            String tripId = edge.getTripId();
-            String roadId = graph.getTripMap().get(tripId);
-            if (roadId != null) {
-                String transportType = graph.getRoadMap().get(roadId).getTransportType();
-                if (!transportTypes.contains(transportType)) {
-                    transportTypes.add(transportType);
-                }
-            }
+        return context.heap.peekKey() < bestArrival;
+    }
+
+    /**
+     * Lowers the best arrival known if a stop closed by this search and settled by the
+     * backward search is reached in time to follow the backward labels: by a trip (or
+     * at the start) before its latest departure, or on foot before its latest boarding.
+     */
+    private void meet(SearchContext context, int node) {
+        if (!backward.isSettled(node)) return;
+        if (context.tripG(node) <= backward.latest[node] && backward.latestArrival[node] < bestArrival) {
+            bestArrival = backward.latestArrival[node];
+            meetingNode = node;
+            meetingByTrip = true;
+        }
+        if (context.walk(node) != -1 && context.g(node) <= backward.board[node]
+                && backward.boardArrival[node] < bestArrival) {
+            bestArrival = backward.boardArrival[node];
+            meetingNode = node;
+            meetingByTrip = false;
         }
-        return transportTypes;
     }
 
     /**
-     * Returns the fastest transport type from a list, based on a fixed priority.
+     * Returns the journey through the meeting stop: the labels of this search up to it,
+     * then the steps of the backward search, taking the first trip of each segment.
+     * Sets arrivalTime and reachedGoal, or returns null if a trip is missed (rounding).
      */
-    public String getfastestTransportType(List<String> transportTypes) {
-        List<String> priority = List.of("TRAIN", "METRO", "BUS", "TRAM");
-        for (String preferredType : priority) {
-            if (transportTypes.contains(preferredType)) {
-                return preferredType;
+    private List<Edge> meetingJourney(SearchContext context) {
+        int node = meetingNode;
+        List<Edge> edges;
+        float time;
+        boolean canWalk = meetingByTrip;
+        if (meetingByTrip) {
+            int parent = context.tripParent(node);
+            int edge = context.tripEdge(node);
+            edges = edge < 0 ? new ArrayList<>() : edgesTo(context, parent);
+            if (edge >= 0) edges.add(compact.edge(parent, edge, context.tripTrip(node)));
+            time = context.tripG(node);
+        } else {
+            edges = edgesTo(context, node);
+            time = context.g(node);
+        }
+        while (!backward.isGoal(node)) {
+            int target = backward.walkTo[node];
+            if (canWalk && target >= 0) {
+                int walk = compact.firstEdge(node);
+                while (compact.target(walk) != target) walk++;
+                edges.add(compact.edge(node, walk));
+                time += compact.duration(walk);
+                node = target;
+                canWalk = false;
+                continue;
             }
+            int pattern = backward.boardPattern[node];
+            int position = backward.boardPosition[node];
+            int edge = compact.firstTripEdge(node);
+            while (compact.pattern(edge) != pattern || compact.position(edge) != position) edge++;
+            int trip = compact.nextTrip(edge, time, activeServices);
+            if (trip < 0) return null;
+            edges.add(compact.edge(node, edge, trip));
+            time = compact.arrival(edge, trip);
+            node = compact.target(edge);
+            canWalk = true;
         }
-        return "UNKNOWN"; 
+        arrivalTime = time;
+        reachedGoal = node;
+        return edges;
     }
 
     /**
-     * Returns the speed (in km/h) for a given transport type.
+     * Records that node is reached at time g by a trip from parent (or at the start,
+     * parent -1). Each stop has a single label, its earliest arrival, by a trip or on
+     * foot; the walking transfers are closed (see Transfers), so a journey never walks
+     * twice in a row and the walks leave from the earliest arrival by a trip, kept apart.
      */
-    public int getSpeed(String type) {
-        switch (type) {
-            case "TRAIN":
-                return 100;
-            case "METRO":
-                return 72;
-            case "BUS":
-                return 30;
-            case "TRAM":
-                return 20;
-            default:
-                return -1;
+    private void arrive(SearchContext context, int node, float g, int parent, int edge, int trip, float bonusMalus) {
+        if (g >= context.tripG(node)) return;
+        if (backward != null && g > backward.latestDeparture(node) + MARGIN) return;
+        context.labelTrip(node, g, parent, edge, trip);
+        if (context.isClosed(node) && (heuristicWeight == 1f || g >= context.g(node))) {
+            // Already expanded on foot, only the walks are left
+            relaxWalks(context, node);
+        } else if (g < context.g(node)) {
+            // The weighted search of -BIDIR closes stops too early, it opens them again
+            context.reopen(node);
+            context.label(node, g, parent, edge, trip, -1);
+            context.heap.insertOrDecrease(node, g + heuristicWeight * calculHeuristic(node) + bonusMalus);
+            peakOpenSize = Math.max(peakOpenSize, context.heap.size());
         }
     }
 
     /**
-     * Heuristic function: estimates the time (in minutes) between two stops using their coordinates and the fastest available transport.
+     * Relaxes the walks leaving node after its earliest arrival by a trip.
      */
-    public float calculHeuristic(String departureId, String arrivalId) {
-        List<String> transportTypes = getTransportTypes(departureId);
-        String fastestTransportType = getfastestTransportType(transportTypes);
+    private void relaxWalks(SearchContext context, int node) {
+        float g = context.tripG(node);
+        if (g == Float.POSITIVE_INFINITY) return;
+        int edge = context.tripEdge(node);
+        int trip = context.tripTrip(node);
+        // A walk from the start has the start as parent, a walk after a trip the stop boarded
+        int parent = edge < 0 ? node : context.tripParent(node);
+        IndexedMinHeap openLst = context.heap;
+        for (int walk = compact.firstEdge(node); walk < compact.firstTripEdge(node); walk++) {
+            int neighbor = compact.target(walk);
+            if (context.isClosed(neighbor) && heuristicWeight == 1f) continue;
+            float tentativeG = g + compact.duration(walk);
+            relaxedCount++;
+            if (tentativeG < context.g(neighbor)) {
+                // Reached on foot, it is left by a trip
+                if (backward != null && tentativeG > backward.latestBoarding(neighbor) + MARGIN) continue;
+                context.reopen(neighbor);
+                context.label(neighbor, tentativeG, parent, edge, trip, walk);
+                openLst.insertOrDecrease(neighbor, tentativeG + heuristicWeight * calculHeuristic(neighbor));
+                peakOpenSize = Math.max(peakOpenSize, openLst.size());
+            }
+        }
+    }
 
-        int speed = getSpeed(fastestTransportType);
+    private void countHeap(IndexedMinHeap openLst) {
+        pushCount += openLst.getInsertCount();
+        decreaseCount += openLst.getDecreaseCount();
+    }
 
-        if (speed == -1) return -1;
+    /**
+     * Returns a list of transport types available from a given stop.
+     */
+    public List<String> getTransportTypes(String stopId) {
+        int node = compact.indexOf(stopId);
+        return node < 0 ? new ArrayList<>() : getTransportTypes(node);
+    }
 
-        Stop arrival = graph.getStopMap().get(arrivalId);
-        Stop departure = graph.getStopMap().get(departureId);
+    private List<String> getTransportTypes(int node) {
+        List<String> transportTypes = new ArrayList<>();
+        int modes = compact.getStopModes(node);
+        for (int mode = 0; mode < CompactGraph.MODES.length; mode++) {
+            if ((modes & (1 << mode)) != 0) {
+                transportTypes.add(CompactGraph.MODES[mode]);
+            }
+        }
+        return transportTypes;
+    }
 
-        float arrivalLat = arrival.getStopLat(); 
-        float arrivalLon = arrival.getStopLon();
+    /**
+     * Heuristic function: a lower bound of the time (in minutes) between two stops,
+     * their great-circle distance covered at the top speed of the network, raised
+     * by the landmark bounds with the -ALT option.
+     */
+    public float calculHeuristic(String departureId, String arrivalId) {
+        int departure = compact.indexOf(departureId);
+        int arrival = compact.indexOf(arrivalId);
+        return departure < 0 || arrival < 0 ? 0 : calculHeuristic(departure, arrival);
+    }
 
-        float departureLat = departure.getStopLat(); 
-        float departureLon = departure.getStopLon();
+    /**
+     * Heuristic to the closest of the goals, in O(1) whatever their number: the distance
+     * to the circle around the goals, raised by the landmark bounds to the goal set.
+     */
+    private float calculHeuristic(int node) {
+        heuristicCount++;
+        float best = compact.lowerBound(node, goalCircle);
+        if (landmarks != null) best = Math.max(best, landmarks.lowerBound(node, goalLandmarks));
+        return best;
+    }
 
-        float d = (float) Math.sqrt(Math.pow((arrivalLat - departureLat), 2) + Math.pow((arrivalLon - departureLon), 2));
-        float h = d / speed;
+    private float calculHeuristic(int departure, int arrival) {
+        float bound = compact.lowerBound(departure, arrival);
+        return landmarks == null ? bound : Math.max(bound, landmarks.lowerBound(departure, arrival));
+    }
 
-        return h;
+    /**
+     * Returns the number of nodes taken from the open list by the last search (with
+     * -BIDIR, by its three searches).
+     */
+    public int getSettledCount() {
+        return settledCount;
+    }
+
+    /**
+     * Returns the arrival time (in minutes) of the last path found, or -1 if none was found.
+     */
+    public float getArrivalTime() {
+        return arrivalTime;
     }
 
     /**
      * Returns the list of edges representing the shortest path found by A*.
      */
     public List<Edge> shortestPathEdges() {
-        List<String> path = shortestPath();
+        if (starts.length == 0 || goals.length == 0) return null;
+        if (startAtGoal() >= 0) {
+            arrivalTime = startTime;
+            return null;
+        }
 
-        if (path == null || path.size() < 2) return null;
+        SearchContext context = search();
+        if (context == null) return null;
 
+        return journey != null ? journey : edgesTo(context, reachedGoal);
+    }
+
+    /**
+     * Returns the edges of the labels of a search from the start to a node.
+     */
+    private List<Edge> edgesTo(SearchContext context, int node) {
         List<Edge> correctEdges = new ArrayList<>();
-        String current = path.get(path.size() - 1);
+        int current = node;
 
-        while (cameFrom.containsKey(current)) {
-            Edge edge = edgeFrom.get(current);
+        while (context.parent(current) != -1) {
+            int parent = context.parent(current);
+            int edge = context.edge(current);
+            int walk = context.walk(current);
 
-            if (edge != null) {
-                correctEdges.add(edge);
+            // Added backwards: the walk, then the trip before it
+            if (walk != -1) {
+                correctEdges.add(compact.edge(edge == -1 ? parent : compact.target(edge), walk));
+            }
+            if (edge != -1) {
+                correctEdges.add(compact.edge(parent, edge, context.trip(current)));
             }
-            current = cameFrom.get(current);
+            current = parent;
         }
         Collections.reverse(correctEdges);
         return correctEdges;
@@ -0,0 +1,246 @@
+package request;
+
+import java.util.Arrays;
+
+import graph.CompactGraph;
+import graph.IndexedMinHeap;
+import graph.ReverseGraph;
+import graph.RoutePattern;
+import graph.RoutePatterns;
+
+/**
+ * Latest-departure search from the goals of a query, back in time over the reverse
+ * view of the graph (see ReverseGraph), for the bidirectional A* (Astar, -BIDIR).
+ * Given a deadline at the goals, it settles the stops by decreasing latest departure:
+ * the latest time one can be at a stop and still reach a goal by the deadline. It
+ * follows the model of the forward search, where a journey never walks twice in a
+ * row: a stop has a latest departure, possibly on foot towards a stop where a trip
+ * is boarded, and a latest boarding, by a trip or at a goal. Each label keeps the
+ * step it comes from, and an upper bound of the arrival at the goals through these
+ * steps, so that a stop reached early enough by the forward search gives a journey
+ * and a bound of its arrival in O(1).
+ * The search is an A* towards the starts: the open list is ordered by the latest
+ * departure minus the geometric bound of the travel time from the starts (see
+ * CompactGraph.lowerBound), so that the stops no journey can reach in time are never
+ * settled. This potential is consistent, the keys only decrease along the search,
+ * and a stop not settled yet is left at the latest at the key at the top of the open
+ * list (frontier) plus its potential. Like SearchContext, the labels are arrays owned
+ * by the calling thread and invalidated by a generation.
+ */
+class BackwardSearch {
+    private static final ThreadLocal<BackwardSearch> POOL = ThreadLocal.withInitial(BackwardSearch::new);
+
+    private static final int SETTLED = 1;
+    private static final int GOAL = 2;
+
+    int generation;
+    int[] stamp = new int[0];
+    byte[] flags = new byte[0];
+    // Latest departure, walk taken then (target, -1 to board there, and duration), bound of the arrival
+    float[] latest = new float[0];
+    int[] walkTo = new int[0];
+    float[] walkDuration = new float[0];
+    float[] latestArrival = new float[0];
+    // Latest boarding, segment taken (pattern, departure position, trip position), bound of the arrival
+    float[] board = new float[0];
+    int[] boardPattern = new int[0];
+    int[] boardPosition = new int[0];
+    int[] boardTrip = new int[0];
+    float[] boardArrival = new float[0];
+    // Lower bound of the travel time from the starts
+    float[] potential = new float[0];
+    // Keyed by the opposite of the latest departure minus the potential
+    IndexedMinHeap heap = new IndexedMinHeap(0);
+
+    ReverseGraph reverse;
+    CompactGraph compact;
+    float[] startCircle;
+    RoutePatterns timetable;
+    long[] activeServices;
+    float deadline;
+    // No journey of the query is at a stop before this time
+    float horizon;
+    int settledCount;
+
+    /**
+     * Returns the search of the calling thread, started from the goals.
+     * @param reverse the reverse view of the graph
+     * @param compact the graph, for the potential
+     * @param startCircle the circle around the starts (CompactGraph.boundingCircle)
+     * @param goals the goal nodes
+     * @param deadline the latest arrival at the goals, in minutes
+     * @param horizon the start time of the query: earlier departures are dropped
+     * @param activeServices see ServiceCalendar.activeServices, null for every day
+     */
+    static BackwardSearch acquire(ReverseGraph reverse, CompactGraph compact, float[] startCircle, int[] goals,
+            float deadline, float horizon, long[] activeServices) {
+        BackwardSearch search = POOL.get();
+        search.reset(reverse.getNodeCount());
+        search.reverse = reverse;
+        search.compact = compact;
+        search.startCircle = startCircle;
+        search.timetable = reverse.getTimetable();
+        search.activeServices = activeServices;
+        search.deadline = deadline;
+        search.horizon = horizon;
+        search.settledCount = 0;
+        for (int goal : goals) {
+            search.touch(goal);
+            search.flags[goal] |= GOAL;
+            search.latest[goal] = deadline;
+            search.latestArrival[goal] = deadline;
+            search.board[goal] = deadline;
+            search.boardArrival[goal] = deadline;
+            search.heap.insertOrDecrease(goal, search.potential[goal] - deadline);
+        }
+        return search;
+    }
+
+    private void reset(int nodeCount) {
+        if (stamp.length < nodeCount) {
+            stamp = new int[nodeCount];
+            flags = new byte[nodeCount];
+            latest = new float[nodeCount];
+            walkTo = new int[nodeCount];
+            walkDuration = new float[nodeCount];
+            latestArrival = new float[nodeCount];
+            board = new float[nodeCount];
+            boardPattern = new int[nodeCount];
+            boardPosition = new int[nodeCount];
+            boardTrip = new int[nodeCount];
+            boardArrival = new float[nodeCount];
+            potential = new float[nodeCount];
+            generation = 0;
+        }
+        heap.ensureCapacity(nodeCount);
+        heap.clear();
+        heap.resetCounts();
+        if (++generation == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            generation = 1;
+        }
+    }
+
+    /**
+     * Creates the label of a node for this search if it has none yet.
+     */
+    private void touch(int node) {
+        if (stamp[node] != generation) {
+            stamp[node] = generation;
+            flags[node] = 0;
+            latest[node] = Float.NEGATIVE_INFINITY;
+            walkTo[node] = -1;
+            board[node] = Float.NEGATIVE_INFINITY;
+            boardPattern[node] = -1;
+            potential[node] = compact.lowerBound(node, startCircle);
+        }
+    }
+
+    /**
+     * Returns true if a departure from a node is too early for any journey started at
+     * the horizon.
+     */
+    private boolean unreachable(int node, float departure) {
+        return departure < horizon + potential[node];
+    }
+
+    boolean isDone() {
+        return heap.isEmpty();
+    }
+
+    /**
+     * Settles the stop with the latest departure left and relaxes the walks and the
+     * segments arriving at it, taking the last trip that arrives in time.
+     * @return the stop settled
+     */
+    int settle() {
+        int node = heap.poll();
+        flags[node] |= SETTLED;
+        settledCount++;
+        relaxWalksTo(node);
+
+        float time = latest[node];
+        for (int slot = reverse.firstSegmentTo(node); slot < reverse.lastSegmentTo(node); slot++) {
+            int p = reverse.segmentPattern(slot);
+            if (p < 0) continue;
+            int trip = reverse.previousTrip(slot, time, activeServices);
+            if (trip < 0) continue;
+            RoutePattern pattern = timetable.get(p);
+            int position = reverse.segmentPosition(slot);
+            int source = pattern.stop(position);
+            float departure = pattern.time(trip, position);
+            if (source == node) continue;
+            touch(source);
+            if (departure <= board[source] || unreachable(source, departure)) continue;
+            board[source] = departure;
+            boardPattern[source] = p;
+            boardPosition[source] = position;
+            boardTrip[source] = trip;
+            // The walks from the goal are not taken: the journey ends there
+            boardArrival[source] = isGoal(node) ? pattern.time(trip, position + 1) : latestArrival[node];
+            if (isSettled(source)) {
+                // Already left later on foot, only the walks to it are left
+                relaxWalksTo(source);
+            } else if (departure > latest[source]) {
+                latest[source] = departure;
+                walkTo[source] = -1;
+                latestArrival[source] = boardArrival[source];
+                heap.insertOrDecrease(source, potential[source] - departure);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Relaxes the walks arriving at node, towards its latest boarding.
+     */
+    private void relaxWalksTo(int node) {
+        float time = board[node];
+        if (time == Float.NEGATIVE_INFINITY) return;
+        for (int walk = reverse.firstWalkTo(node); walk < reverse.lastWalkTo(node); walk++) {
+            int source = reverse.walkSource(walk);
+            float departure = time - reverse.walkDuration(walk);
+            if (isSettled(source)) continue;
+            touch(source);
+            if (departure <= latest[source] || unreachable(source, departure)) continue;
+            latest[source] = departure;
+            walkTo[source] = node;
+            walkDuration[source] = reverse.walkDuration(walk);
+            latestArrival[source] = boardArrival[node];
+            heap.insertOrDecrease(source, potential[source] - departure);
+        }
+    }
+
+    /**
+     * Upper bound of the latest departure from a stop not settled yet, -infinity once
+     * the search is done.
+     */
+    private float frontier(int node) {
+        if (heap.isEmpty()) return Float.NEGATIVE_INFINITY;
+        touch(node);
+        return potential[node] - heap.peekKey();
+    }
+
+    /**
+     * Upper bound of the latest departure from a stop: exact once it is settled.
+     */
+    float latestDeparture(int node) {
+        return isSettled(node) ? latest[node] : frontier(node);
+    }
+
+    /**
+     * Upper bound of the latest boarding at a stop, or the deadline at a goal: the
+     * boarding of a settled stop can still rise, up to the frontier.
+     */
+    float latestBoarding(int node) {
+        return isGoal(node) ? deadline : Math.max(board[node], frontier(node));
+    }
+
+    boolean isSettled(int node) {
+        return stamp[node] == generation && (flags[node] & SETTLED) != 0;
+    }
+
+    boolean isGoal(int node) {
+        return stamp[node] == generation && (flags[node] & GOAL) != 0;
+    }
+}
@@ -0,0 +1,207 @@
+package request;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import graph.CompactGraph;
+import graph.ConnectionTable;
+import graph.Edge;
+import graph.Graph;
+
+/**
+ * Earliest-arrival routing with the Connection Scan Algorithm.
+ * The connections of the timetable are scanned once, in departure order, starting
+ * at the requested time; a connection is usable if its trip was already boarded or
+ * if its departure stop is reached before it leaves. The walking transfers are closed
+ * (see Transfers), so a stop reached on foot is not walked from again: each stop also
+ * keeps its earliest arrival by a trip, and its transfers are relaxed each time a trip
+ * (or the start) improves it.
+ * Unlike Astar, the result is the exact earliest arrival: the user preferences
+ * (bonus/malus on transport modes) are not taken into account.
+ */
+public class ConnectionScan implements PathFinder {
+    Graph graph;
+    CompactGraph compact;
+    ConnectionTable connections;
+    // Every stop carrying the start and goal names (all the platforms of a station)
+    int[] starts;
+    int[] goals;
+    float startTime;
+    // Services running on the day of the journey, null for every trip
+    long[] activeServices;
+
+    float[] earliest;
+    // Earliest arrival by a trip, or at the start, from which the walks leave
+    float[] tripEarliest;
+    int[] boardedAt;
+    // Trip giving tripEarliest, kept when a walk arrives earlier
+    int[] enterConnection;
+    int[] exitConnection;
+    int[] walkFrom;
+    int[] walkEdge;
+    boolean[] isGoal;
+    // Earliest arrival at any goal, lowered with earliest
+    float goalArrival;
+    float arrivalTime = -1f;
+    int reachedGoal = -1;
+
+    /**
+     * Initializes the search with the graph, start/goal names and time.
+     * @param graph the transport graph
+     * @param startName the departure stop
+     * @param goalName the goal stop
+     * @param startTime the time of the start, in minutes
+     */
+    public ConnectionScan(Graph graph, String startName, String goalName, float startTime) {
+        this(graph, startName, goalName, startTime, null);
+    }
+
+    /**
+     * Initializes the search with the trips running on the given day only.
+     * @param date the day of the journey, or null to use every trip
+     */
+    public ConnectionScan(Graph graph, String startName, String goalName, float startTime, LocalDate date) {
+        this.graph = graph;
+        this.compact = graph.getCompactGraph();
+        this.connections = graph.getConnectionTable();
+        this.starts = compact.indicesOf(graph.getStopIdsViaName(startName));
+        this.goals = compact.indicesOf(graph.getStopIdsViaName(goalName));
+        this.startTime = startTime;
+        this.activeServices = graph.getActiveServices(date);
+    }
+
+    /**
+     * Runs the scan and returns the arrival time at the closest goal, or -1 if none can be reached.
+     */
+    public float earliestArrival() {
+        reachedGoal = -1;
+        if (starts.length == 0 || goals.length == 0) return -1f;
+
+        int nodeCount = compact.getNodeCount();
+        earliest = new float[nodeCount];
+        Arrays.fill(earliest, Float.POSITIVE_INFINITY);
+        tripEarliest = new float[nodeCount];
+        Arrays.fill(tripEarliest, Float.POSITIVE_INFINITY);
+        enterConnection = new int[nodeCount];
+        exitConnection = new int[nodeCount];
+        walkFrom = new int[nodeCount];
+        walkEdge = new int[nodeCount];
+        Arrays.fill(enterConnection, -1);
+        Arrays.fill(exitConnection, -1);
+        Arrays.fill(walkFrom, -1);
+        Arrays.fill(walkEdge, -1);
+        boardedAt = new int[connections.getTripCount()];
+        Arrays.fill(boardedAt, -1);
+        isGoal = new boolean[nodeCount];
+        for (int goal : goals) {
+            isGoal[goal] = true;
+        }
+        goalArrival = Float.POSITIVE_INFINITY;
+
+        for (int start : starts) {
+            earliest[start] = startTime;
+            tripEarliest[start] = startTime;
+            if (isGoal[start]) goalArrival = startTime;
+        }
+        for (int start : starts) {
+            relaxWalks(start);
+        }
+
+        ConnectionTable.Cursor cursor = connections.departingFrom(startTime);
+        for (int c = cursor.next(); c >= 0; c = cursor.next()) {
+            float departure = connections.departureTime(c);
+            // Nothing departing later can arrive earlier
+            if (departure >= goalArrival) break;
+            if (!connections.runs(c, activeServices)) continue;
+
+            int trip = connections.trip(c);
+            if (boardedAt[trip] == -1) {
+                if (earliest[connections.departureStop(c)] > departure) continue;
+                boardedAt[trip] = c;
+            }
+
+            int arrivalStop = connections.arrivalStop(c);
+            float arrival = connections.arrivalTime(c);
+            if (arrival < tripEarliest[arrivalStop]) {
+                tripEarliest[arrivalStop] = arrival;
+                enterConnection[arrivalStop] = boardedAt[trip];
+                exitConnection[arrivalStop] = c;
+                if (arrival < earliest[arrivalStop]) {
+                    earliest[arrivalStop] = arrival;
+                    walkFrom[arrivalStop] = -1;
+                    if (isGoal[arrivalStop]) goalArrival = Math.min(goalArrival, arrival);
+                }
+                relaxWalks(arrivalStop);
+            }
+        }
+
+        float best = goalArrival;
+        for (int goal : goals) {
+            if (earliest[goal] == best && best != Float.POSITIVE_INFINITY) {
+                reachedGoal = goal;
+                break;
+            }
+        }
+        arrivalTime = reachedGoal == -1 ? -1f : best;
+        return arrivalTime;
+    }
+
+    /**
+     * Relaxes the walking transfers of a stop just reached by a trip or at the start.
+     */
+    private void relaxWalks(int from) {
+        for (int edge = compact.firstEdge(from); edge < compact.firstTripEdge(from); edge++) {
+            int to = compact.target(edge);
+            float time = tripEarliest[from] + compact.duration(edge);
+            if (time < earliest[to]) {
+                earliest[to] = time;
+                walkFrom[to] = from;
+                walkEdge[to] = edge;
+                if (isGoal[to]) goalArrival = Math.min(goalArrival, time);
+            }
+        }
+    }
+
+    /**
+     * Returns the list of edges of the earliest-arrival journey.
+     */
+    public List<Edge> shortestPathEdges() {
+        if (earliestArrival() < 0) return null;
+
+        // The starts are the only stops reached neither on foot nor by a trip, and a walk
+        // leaves from the trip reaching its stop (or from a start)
+        List<Edge> path = new ArrayList<>();
+        int current = reachedGoal;
+        boolean walked = false;
+        while ((walkFrom[current] != -1 && !walked) || enterConnection[current] != -1) {
+            if (walkFrom[current] != -1 && !walked) {
+                path.add(compact.edge(walkFrom[current], walkEdge[current]));
+                current = walkFrom[current];
+                walked = true;
+            } else {
+                walked = false;
+                int[] leg = connections.tripLeg(enterConnection[current], exitConnection[current]);
+                for (int i = leg.length - 1; i >= 0; i--) {
+                    path.add(toEdge(leg[i]));
+                }
+                current = connections.departureStop(leg[0]);
+            }
+        }
+        Collections.reverse(path);
+        return path.isEmpty() ? null : path;
+    }
+
+    private Edge toEdge(int c) {
+        int trip = connections.trip(c);
+        return new Edge(compact.getStopId(connections.departureStop(c)), compact.getStopId(connections.arrivalStop(c)),
+            connections.getTripRouteId(trip), connections.arrivalTime(c) - connections.departureTime(c),
+            connections.getTripId(trip), connections.departureTime(c));
+    }
+
+    public float getArrivalTime() {
+        return arrivalTime;
+    }
+}
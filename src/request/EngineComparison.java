@@ -0,0 +1,60 @@
+package request;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import common.Common;
+import graph.Graph;
+
+/**
+ * Runs the same queries with Astar, ConnectionScan and Raptor and prints, for each
+ * query, the arrival time and the search time of every engine.
+ */
+public class EngineComparison {
+    /**
+     * Compares the engines on a list of queries.
+     * @param graph the transport graph
+     * @param queries the queries, each one as {start name, goal name, time "HH:mm:ss"}
+     * @param optionLst the user options given to Astar
+     */
+    public static void compare(Graph graph, List<String[]> queries, List<String> optionLst) {
+        // Built once, outside of the timings
+        graph.getConnectionTable();
+        graph.getRoutePatterns();
+
+        System.out.printf("%-30s %-30s %-9s | %-9s %10s | %-9s %10s | %-9s %10s | %s\n",
+            "Start", "Goal", "Time", "A*", "ms", "CSA", "ms", "RAPTOR", "ms", "Same arrival");
+        LocalDate date = Request.getDate(optionLst);
+        for (String[] query : queries) {
+            float time = Common.HoraireToFloat(query[2]);
+
+            long startTime = System.nanoTime();
+            Astar aStar = new Astar(graph, query[0], query[1], time, optionLst);
+            aStar.shortestPathEdges();
+            double aStarMilli = (System.nanoTime() - startTime) / 1_000_000.0;
+
+            startTime = System.nanoTime();
+            ConnectionScan csa = new ConnectionScan(graph, query[0], query[1], time, date);
+            csa.shortestPathEdges();
+            double csaMilli = (System.nanoTime() - startTime) / 1_000_000.0;
+
+            startTime = System.nanoTime();
+            Raptor raptor = new Raptor(graph, query[0], query[1], time, Request.DEFAULT_MAX_TRANSFERS, date);
+            raptor.shortestPathEdges();
+            double raptorMilli = (System.nanoTime() - startTime) / 1_000_000.0;
+
+            boolean same = Math.abs(aStar.getArrivalTime() - csa.getArrivalTime()) < 1e-3f
+                && Math.abs(raptor.getArrivalTime() - csa.getArrivalTime()) < 1e-3f;
+            System.out.printf("%-30s %-30s %-9s | %-9s %10.3f | %-9s %10.3f | %-9s %10.3f | %s\n",
+                query[0], query[1], query[2],
+                format(aStar.getArrivalTime()), aStarMilli,
+                format(csa.getArrivalTime()), csaMilli,
+                format(raptor.getArrivalTime()), raptorMilli,
+                same ? "yes" : "no");
+        }
+    }
+
+    private static String format(float time) {
+        return time < 0 ? "-" : Common.floatToHoraire(time);
+    }
+}
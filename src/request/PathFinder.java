@@ -0,0 +1,21 @@
+package request;
+
+import java.util.List;
+
+import graph.Edge;
+
+/**
+ * Common interface of the routing engines that can answer a Request.
+ */
+public interface PathFinder {
+    /**
+     * Searches the route and returns its edges in travel order.
+     * @return the edges of the path, or null if no path was found
+     */
+    List<Edge> shortestPathEdges();
+
+    /**
+     * Returns the arrival time (in minutes) of the last route found, or -1 if none was found.
+     */
+    float getArrivalTime();
+}
@@ -0,0 +1,442 @@
+package request;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import graph.CompactGraph;
+import graph.ConnectionTable;
+import graph.Edge;
+import graph.Graph;
+
+/**
+ * Profile queries with the Connection Scan Algorithm: every journey of a departure
+ * time window that no other journey beats by leaving later and arriving no later.
+ * The connections are scanned once, by decreasing departure time. Each stop keeps
+ * its profile, the Pareto set of (latest departure, earliest arrival at the goal)
+ * pairs, and each trip the earliest arrival reachable by staying on board. A
+ * connection arrives at the goal by getting off (and walking), by staying on its
+ * trip or by transferring at its arrival stop; its best arrival is added to the
+ * profile of its departure stop, and to the stops that walk to it.
+ * A pair is only kept at a stop reached from the start before it leaves (one forward
+ * scan from the start of the window gives these times), and if walking from the
+ * stop to the goal does not arrive as early.
+ * Walking all the way can be done at any time: when no journey of the window arrives
+ * as early as walking from the start of the window, that walk is the first journey,
+ * and the journeys lasting as long as the walk or longer are left out.
+ * As in ConnectionScan, the walking transfers are closed (see Transfers) and never
+ * follow each other: each stop also keeps the pairs of the trips leaving it, and only
+ * those are walked back to the stops around it. So the profile evaluated at any time
+ * of the window is the earliest arrival ConnectionScan finds from that time.
+ * Each pair also keeps the connection boarded and the one getting off the trip, so
+ * the journeys are rebuilt from these pointers without searching again.
+ * The user preferences on transport modes are not taken into account.
+ */
+public class ProfileScan implements PathFinder {
+    Graph graph;
+    CompactGraph compact;
+    ConnectionTable connections;
+    String startName;
+    String goalName;
+    // Every stop carrying the start and goal names (all the platforms of a station)
+    int[] starts;
+    int[] goals;
+    float windowStart;
+    float windowEnd;
+    LocalDate date;
+    // Services running on the day of the journey, null for every trip
+    long[] activeServices;
+
+    // Profile of each stop, and the pairs of the trips leaving it (null if empty)
+    Profile[] profiles;
+    Profile[] boardings;
+    float[] tripArrival;
+    // Connection getting off each trip for its arrival in tripArrival
+    int[] tripExit;
+    // Walking time from each stop to the closest goal
+    float[] walkToGoal;
+    // Earliest arrival at each stop when leaving the start at the start of the window
+    float[] reachable;
+    // Earliest arrival when leaving at the end of the window
+    float latestArrival;
+    List<Journey> journeys;
+    float walkingTime = -1f;
+
+    /**
+     * Pareto set of (departure, arrival) pairs: departures and arrivals both increasing.
+     * Each pair keeps the connection boarded (after walking to its stop if it leaves
+     * another one) and the connection getting off the trip.
+     */
+    static class Profile {
+        float[] departures = new float[4];
+        float[] arrivals = new float[4];
+        int[] boarded = new int[4];
+        int[] exits = new int[4];
+        int size;
+
+        /**
+         * Returns the earliest arrival at the goal when leaving at or after the given time.
+         */
+        float evaluate(float time) {
+            int index = firstAtOrAfter(time);
+            return index < size ? arrivals[index] : Float.POSITIVE_INFINITY;
+        }
+
+        int firstAtOrAfter(float time) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (departures[middle] < time) low = middle + 1;
+                else high = middle;
+            }
+            return low;
+        }
+
+        /**
+         * Adds a pair and removes the pairs it dominates.
+         * @return false if the pair is dominated by a pair of the profile
+         */
+        boolean insert(float departure, float arrival, int board, int exit) {
+            int index = firstAtOrAfter(departure);
+            if (index < size && arrivals[index] <= arrival) return false;
+
+            // The dominated pairs leave no later and arrive no earlier: the one leaving at the
+            // same time, and the ones just before index
+            int removeTo = index < size && departures[index] == departure ? index + 1 : index;
+            int removeFrom = index;
+            while (removeFrom > 0 && arrivals[removeFrom - 1] >= arrival) removeFrom--;
+            int removed = removeTo - removeFrom;
+            if (removed == 0 && size == departures.length) {
+                departures = Arrays.copyOf(departures, size * 2);
+                arrivals = Arrays.copyOf(arrivals, size * 2);
+                boarded = Arrays.copyOf(boarded, size * 2);
+                exits = Arrays.copyOf(exits, size * 2);
+            }
+            if (removed != 1) {
+                System.arraycopy(departures, removeTo, departures, removeFrom + 1, size - removeTo);
+                System.arraycopy(arrivals, removeTo, arrivals, removeFrom + 1, size - removeTo);
+                System.arraycopy(boarded, removeTo, boarded, removeFrom + 1, size - removeTo);
+                System.arraycopy(exits, removeTo, exits, removeFrom + 1, size - removeTo);
+            }
+            departures[removeFrom] = departure;
+            arrivals[removeFrom] = arrival;
+            boarded[removeFrom] = board;
+            exits[removeFrom] = exit;
+            size = size - removed + 1;
+            return true;
+        }
+    }
+
+    /**
+     * A Pareto-optimal journey of the window: leaving the start at departureTime,
+     * no other journey leaving later arrives earlier.
+     */
+    public static class Journey {
+        float departureTime;
+        float arrivalTime;
+        List<Edge> edges;
+        // The start and the pair of its profile, to rebuild the edges (start -1 for the walk)
+        int start = -1;
+        int boarded;
+        int exit;
+
+        Journey(float departureTime, float arrivalTime) {
+            this.departureTime = departureTime;
+            this.arrivalTime = arrivalTime;
+        }
+
+        /*
+         * Getter of the class
+         */
+        public float getDepartureTime() { return departureTime; }
+        public float getArrivalTime() { return arrivalTime; }
+        public List<Edge> getEdges() { return edges; }
+    }
+
+    /**
+     * Initializes the profile query between two stops.
+     * @param graph the transport graph
+     * @param startName the departure stop
+     * @param goalName the goal stop
+     * @param windowStart the earliest departure, in minutes
+     * @param windowEnd the latest departure, in minutes
+     * @param date the day of the journeys, or null to use every trip
+     */
+    public ProfileScan(Graph graph, String startName, String goalName, float windowStart, float windowEnd, LocalDate date) {
+        this.graph = graph;
+        this.compact = graph.getCompactGraph();
+        this.connections = graph.getConnectionTable();
+        this.startName = startName;
+        this.goalName = goalName;
+        this.starts = compact.indicesOf(graph.getStopIdsViaName(startName));
+        this.goals = compact.indicesOf(graph.getStopIdsViaName(goalName));
+        this.windowStart = windowStart;
+        this.windowEnd = Math.max(windowStart, windowEnd);
+        this.date = date;
+        this.activeServices = graph.getActiveServices(date);
+    }
+
+    /**
+     * Runs the scan and returns the Pareto-optimal journeys leaving within the
+     * window, by increasing departure time. The journeys slower than walking all
+     * the way (see getWalkingTime) are left out, and the walk leaving at the start
+     * of the window comes first unless a journey arrives as early.
+     */
+    public List<Journey> profile() {
+        journeys = new ArrayList<>();
+        walkingTime = -1f;
+        if (starts.length == 0 || goals.length == 0) return journeys;
+
+        int nodeCount = compact.getNodeCount();
+        walkToGoal = walkingTimesToGoals();
+        float walk = Float.POSITIVE_INFINITY;
+        for (int start : starts) walk = Math.min(walk, walkToGoal[start]);
+        if (walk != Float.POSITIVE_INFINITY) walkingTime = walk;
+
+        profiles = new Profile[nodeCount];
+        boardings = new Profile[nodeCount];
+        tripArrival = new float[connections.getTripCount()];
+        Arrays.fill(tripArrival, Float.POSITIVE_INFINITY);
+        tripExit = new int[connections.getTripCount()];
+
+        // Leaving at the end of the window arrives no later than the earliest arrival
+        // from then on, so no connection departing after it is of any use
+        ConnectionScan latest = new ConnectionScan(graph, startName, goalName, windowEnd, date);
+        float bound = latest.earliestArrival();
+        ConnectionTable.Cursor cursor = connections.departingBetween(windowStart, bound < 0 ? Float.POSITIVE_INFINITY : bound);
+        latestArrival = bound < 0 ? Float.POSITIVE_INFINITY : bound;
+        float until = latestArrival;
+        reachable = new TravelTimeMatrix(graph).scan(starts, windowStart, activeServices, new int[0], until).clone();
+
+        for (int c = cursor.next(); c >= 0; c = cursor.next()) {
+            if (!connections.runs(c, activeServices)) continue;
+            int trip = connections.trip(c);
+            int arrivalStop = connections.arrivalStop(c);
+            float arrival = connections.arrivalTime(c);
+
+            // Staying on board, unless getting off here arrives earlier
+            float best = tripArrival[trip];
+            int exit = tripExit[trip];
+            if (walkToGoal[arrivalStop] != Float.POSITIVE_INFINITY && arrival + walkToGoal[arrivalStop] < best) {
+                best = arrival + walkToGoal[arrivalStop];
+                exit = c;
+            }
+            if (profiles[arrivalStop] != null && profiles[arrivalStop].evaluate(arrival) < best) {
+                best = profiles[arrivalStop].evaluate(arrival);
+                exit = c;
+            }
+            // A journey arriving after the one leaving at the end of the window is beaten by it
+            if (best == Float.POSITIVE_INFINITY || best > latestArrival) continue;
+
+            tripArrival[trip] = best;
+            tripExit[trip] = exit;
+            insertAndWalk(connections.departureStop(c), connections.departureTime(c), best, c, exit);
+        }
+
+        // Profile of the start, merging every platform
+        List<Journey> candidates = new ArrayList<>();
+        for (int start : starts) {
+            Profile profile = profiles[start];
+            for (int i = 0; profile != null && i < profile.size; i++) {
+                Journey journey = new Journey(profile.departures[i], profile.arrivals[i]);
+                journey.start = start;
+                journey.boarded = profile.boarded[i];
+                journey.exit = profile.exits[i];
+                candidates.add(journey);
+            }
+        }
+        // By decreasing departure, then increasing arrival: a journey is kept if it arrives before every later one
+        candidates.sort((a, b) -> a.departureTime != b.departureTime
+            ? Float.compare(b.departureTime, a.departureTime) : Float.compare(a.arrivalTime, b.arrivalTime));
+        float bestArrival = Float.POSITIVE_INFINITY;
+        for (Journey journey : candidates) {
+            if (journey.arrivalTime >= bestArrival) continue;
+            bestArrival = journey.arrivalTime;
+            if (journey.departureTime > windowEnd) continue;
+            if (walkingTime >= 0 && journey.arrivalTime - journey.departureTime >= walkingTime) continue;
+            journeys.add(journey);
+        }
+        Collections.reverse(journeys);
+        if (walkingTime >= 0 && (journeys.isEmpty() || journeys.get(0).arrivalTime > windowStart + walkingTime)) {
+            Journey walking = new Journey(windowStart, windowStart + walkingTime);
+            walking.edges = walkingEdges();
+            journeys.add(0, walking);
+        }
+        return journeys;
+    }
+
+    /**
+     * Returns the edges of the shortest walk from a start to a goal: one transfer, as
+     * they are closed, or none if a start is a goal.
+     */
+    private List<Edge> walkingEdges() {
+        List<Edge> edges = new ArrayList<>();
+        int bestStart = -1;
+        int bestEdge = -1;
+        for (int start : starts) {
+            if (isGoal(start)) return edges;
+            int edge = walkToGoalEdge(start);
+            if (edge >= 0 && (bestEdge < 0 || compact.duration(edge) < compact.duration(bestEdge))) {
+                bestStart = start;
+                bestEdge = edge;
+            }
+        }
+        if (bestEdge >= 0) edges.add(compact.edge(bestStart, bestEdge));
+        return edges;
+    }
+
+    /**
+     * Returns the shortest transfer from a stop to a goal, or -1 if there is none.
+     */
+    private int walkToGoalEdge(int stop) {
+        int best = -1;
+        for (int edge = compact.firstEdge(stop); edge < compact.firstTripEdge(stop); edge++) {
+            if (isGoal(compact.target(edge)) && (best < 0 || compact.duration(edge) < compact.duration(best))) {
+                best = edge;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the transfer from one stop to another, or -1 if there is none.
+     */
+    private int walkEdge(int from, int to) {
+        for (int edge = compact.firstEdge(from); edge < compact.firstTripEdge(from); edge++) {
+            if (compact.target(edge) == to) return edge;
+        }
+        return -1;
+    }
+
+    private boolean isGoal(int node) {
+        for (int goal : goals) {
+            if (goal == node) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds the pair of a trip leaving a stop to its profile, then to the stops walking
+     * to it, unless the pair is dominated by another trip leaving the stop: that one
+     * was already walked back from the stop.
+     */
+    private void insertAndWalk(int stop, float departure, float arrival, int board, int exit) {
+        // No journey of the window reaches the stop in time, neither on foot
+        if (departure < reachable[stop]) return;
+        if (boardings[stop] == null) boardings[stop] = new Profile();
+        if (!boardings[stop].insert(departure, arrival, board, exit)) return;
+        insertIfUseful(stop, departure, arrival, board, exit);
+        // The transfers go both ways with the same duration, so the edges leaving
+        // a stop are also the ones arriving at it
+        for (int edge = compact.firstEdge(stop); edge < compact.firstTripEdge(stop); edge++) {
+            insertIfUseful(compact.target(edge), departure - compact.duration(edge), arrival, board, exit);
+        }
+    }
+
+    /**
+     * Adds a pair to the profile of a stop if a journey of the window can leave the
+     * stop at the given time, and if walking from there to the goal arrives later.
+     */
+    private void insertIfUseful(int stop, float departure, float arrival, int board, int exit) {
+        if (departure < reachable[stop] || departure + walkToGoal[stop] <= arrival) return;
+        if (profiles[stop] == null) profiles[stop] = new Profile();
+        profiles[stop].insert(departure, arrival, board, exit);
+    }
+
+    /**
+     * Returns the walking time from every stop to the closest goal (infinite if none
+     * can be reached by one transfer), from the transfers of the goals.
+     */
+    private float[] walkingTimesToGoals() {
+        float[] times = new float[compact.getNodeCount()];
+        Arrays.fill(times, Float.POSITIVE_INFINITY);
+        for (int goal : goals) {
+            times[goal] = 0f;
+        }
+        for (int goal : goals) {
+            for (int edge = compact.firstEdge(goal); edge < compact.firstTripEdge(goal); edge++) {
+                int other = compact.target(edge);
+                times[other] = Math.min(times[other], compact.duration(edge));
+            }
+        }
+        return times;
+    }
+
+    /**
+     * Returns the journey leaving first in the window, with its edges, or null if
+     * there is none. The edges of the other journeys are given by getJourneys.
+     */
+    public List<Edge> shortestPathEdges() {
+        List<Journey> found = getJourneys();
+        return found.isEmpty() ? null : found.get(0).edges;
+    }
+
+    /**
+     * Returns the Pareto-optimal journeys with their edges, computing them if needed.
+     */
+    public List<Journey> getJourneys() {
+        if (journeys == null) profile();
+        for (Journey journey : journeys) {
+            if (journey.edges == null) journey.edges = journeyEdges(journey);
+        }
+        return journeys;
+    }
+
+    /**
+     * Rebuilds the edges of a journey from the pointers of the profiles: walk to the
+     * stop of the connection boarded if it leaves another one, ride the trip up to the
+     * exit, then walk to the goal if it arrives in time, else go on with the pair of
+     * the profile of the exit stop leaving first after the arrival.
+     */
+    private List<Edge> journeyEdges(Journey journey) {
+        List<Edge> edges = new ArrayList<>();
+        int stop = journey.start;
+        int board = journey.boarded;
+        int exit = journey.exit;
+        while (true) {
+            int boardStop = connections.departureStop(board);
+            if (stop != boardStop) edges.add(compact.edge(stop, walkEdge(stop, boardStop)));
+            for (int c : connections.tripLeg(board, exit)) {
+                edges.add(toEdge(c));
+            }
+            stop = connections.arrivalStop(exit);
+            float time = connections.arrivalTime(exit);
+            if (isGoal(stop)) return edges;
+            if (time + walkToGoal[stop] <= journey.arrivalTime) {
+                edges.add(compact.edge(stop, walkToGoalEdge(stop)));
+                return edges;
+            }
+            Profile profile = profiles[stop];
+            int index = profile == null ? 0 : profile.firstAtOrAfter(time);
+            // Cannot happen: the arrival of the journey came from this profile
+            if (profile == null || index == profile.size) return null;
+            board = profile.boarded[index];
+            exit = profile.exits[index];
+        }
+    }
+
+    private Edge toEdge(int c) {
+        int trip = connections.trip(c);
+        return new Edge(compact.getStopId(connections.departureStop(c)), compact.getStopId(connections.arrivalStop(c)),
+            connections.getTripRouteId(trip), connections.arrivalTime(c) - connections.departureTime(c),
+            connections.getTripId(trip), connections.departureTime(c));
+    }
+
+    /**
+     * Returns the walking time from the start to the goal in minutes, or -1 if it
+     * cannot be walked. Walking all the way can be done at any time of the window.
+     */
+    public float getWalkingTime() {
+        return walkingTime;
+    }
+
+    /**
+     * Returns the arrival time of the journey leaving first in the window, or -1 if none was found.
+     */
+    public float getArrivalTime() {
+        return journeys == null || journeys.isEmpty() ? -1f : journeys.get(0).arrivalTime;
+    }
+}
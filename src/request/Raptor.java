@@ -0,0 +1,398 @@
+package request;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import graph.CompactGraph;
+import graph.Edge;
+import graph.Graph;
+import graph.RoutePattern;
+import graph.RoutePatterns;
+
+/**
+ * Round-based public transit routing (RAPTOR) over the route patterns of the graph.
+ * Round k finds the best arrival at every stop with at most k trips: it scans every
+ * pattern serving a stop improved in the previous round, then relaxes once the walking
+ * transfers of the stops its trips reach earlier than any trip before (they are
+ * closed, see Transfers, so a stop reached on foot is not walked from again). The
+ * patterns of a round are independent of each other, so they are scanned in parallel
+ * on the common fork-join pool and their improvements merged afterwards.
+ * The result is the Pareto set of journeys over (arrival time, number of transfers).
+ * Like ConnectionScan, the user preferences on transport modes are not taken into account.
+ */
+public class Raptor implements PathFinder {
+    // Below this number of marked patterns a round is scanned on the calling thread
+    private static final int PARALLEL_THRESHOLD = 64;
+
+    // How the arrival of a round at a stop is reached: by a trip, on foot, or not in this round
+    private static final byte NONE = 0;
+    private static final byte TRIP = 1;
+    private static final byte WALK = 2;
+
+    Graph graph;
+    CompactGraph compact;
+    RoutePatterns patterns;
+    // Every stop carrying the start and goal names (all the platforms of a station)
+    int[] starts;
+    int[] goals;
+    float startTime;
+    int maxTransfers;
+    // Services running on the day of the journey, null for every trip
+    long[] activeServices;
+
+    // Per round: arrival time and how each stop was reached in that round, and the trip
+    // reaching it (even when a walk of an earlier round arrives before), which the walks leave from
+    float[][] arrival;
+    byte[][] kind;
+    int[][] parentStop;
+    int[][] parentPattern;
+    int[][] parentTrip;
+    int[][] walkParent;
+    int[][] parentEdge;
+    int[][] boardPosition;
+    int[][] alightPosition;
+    float[] best;
+    float[] bestTrip;
+    List<Journey> journeys;
+
+    /**
+     * A Pareto-optimal journey: no other journey arrives earlier with as few transfers.
+     */
+    public static class Journey {
+        int transfers;
+        float arrivalTime;
+        List<Edge> edges;
+
+        Journey(int transfers, float arrivalTime, List<Edge> edges) {
+            this.transfers = transfers;
+            this.arrivalTime = arrivalTime;
+            this.edges = edges;
+        }
+
+        /*
+         * Getter of the class
+         */
+        public int getTransfers() { return transfers; }
+        public float getArrivalTime() { return arrivalTime; }
+        public List<Edge> getEdges() { return edges; }
+    }
+
+    /**
+     * Improvements found by scanning one pattern, applied after the parallel phase.
+     */
+    private static class PatternScan {
+        int pattern;
+        int count;
+        int[] alights = new int[4];
+        float[] times = new float[4];
+        int[] boards = new int[4];
+        int[] trips = new int[4];
+
+        PatternScan(int pattern) {
+            this.pattern = pattern;
+        }
+
+        void add(int alight, float time, int board, int trip) {
+            if (count == alights.length) {
+                alights = Arrays.copyOf(alights, count * 2);
+                times = Arrays.copyOf(times, count * 2);
+                boards = Arrays.copyOf(boards, count * 2);
+                trips = Arrays.copyOf(trips, count * 2);
+            }
+            alights[count] = alight;
+            times[count] = time;
+            boards[count] = board;
+            trips[count] = trip;
+            count++;
+        }
+    }
+
+    /**
+     * Initializes the search with the graph, start/goal names, time and transfer bound.
+     * @param graph the transport graph
+     * @param startName the departure stop
+     * @param goalName the goal stop
+     * @param startTime the time of the start, in minutes
+     * @param maxTransfers the maximum number of transfers (rounds - 1)
+     */
+    public Raptor(Graph graph, String startName, String goalName, float startTime, int maxTransfers) {
+        this(graph, startName, goalName, startTime, maxTransfers, null);
+    }
+
+    /**
+     * Initializes the search with the trips running on the given day only.
+     * @param date the day of the journey, or null to use every trip
+     */
+    public Raptor(Graph graph, String startName, String goalName, float startTime, int maxTransfers, LocalDate date) {
+        this.graph = graph;
+        this.compact = graph.getCompactGraph();
+        this.patterns = graph.getRoutePatterns();
+        this.starts = compact.indicesOf(graph.getStopIdsViaName(startName));
+        this.goals = compact.indicesOf(graph.getStopIdsViaName(goalName));
+        this.startTime = startTime;
+        this.maxTransfers = maxTransfers;
+        this.activeServices = graph.getActiveServices(date);
+    }
+
+    /**
+     * Runs the rounds and returns the Pareto-optimal journeys, by increasing number of transfers.
+     */
+    public List<Journey> paretoJourneys() {
+        journeys = new ArrayList<>();
+        if (starts.length == 0 || goals.length == 0) return journeys;
+        int nodeCount = compact.getNodeCount();
+        boolean[] isStart = new boolean[nodeCount];
+        for (int start : starts) isStart[start] = true;
+        for (int goal : goals) {
+            if (isStart[goal]) return journeys;
+        }
+
+        int rounds = maxTransfers + 2;
+        arrival = new float[rounds][];
+        kind = new byte[rounds][];
+        parentStop = new int[rounds][];
+        parentPattern = new int[rounds][];
+        parentTrip = new int[rounds][];
+        walkParent = new int[rounds][];
+        parentEdge = new int[rounds][];
+        boardPosition = new int[rounds][];
+        alightPosition = new int[rounds][];
+        best = new float[nodeCount];
+        Arrays.fill(best, Float.POSITIVE_INFINITY);
+        bestTrip = new float[nodeCount];
+        Arrays.fill(bestTrip, Float.POSITIVE_INFINITY);
+        boolean[] rode = new boolean[nodeCount];
+
+        // Round 0: the starts and what can be reached from them on foot
+        allocateRound(0, null);
+        boolean[] marked = new boolean[nodeCount];
+        for (int start : starts) {
+            arrival[0][start] = startTime;
+            best[start] = startTime;
+            bestTrip[start] = startTime;
+            marked[start] = true;
+            rode[start] = true;
+        }
+        relaxWalks(0, rode, marked);
+        int goal = closestGoal(0);
+        if (goal != -1) {
+            journeys.add(new Journey(0, arrival[0][goal], extractJourney(0, goal, isStart)));
+        }
+
+        for (int k = 1; k < rounds; k++) {
+            allocateRound(k, arrival[k - 1]);
+            int[] markedPatterns = collectPatterns(marked);
+            Arrays.fill(marked, false);
+
+            IntStream scans = Arrays.stream(markedPatterns);
+            if (markedPatterns.length >= PARALLEL_THRESHOLD) scans = scans.parallel();
+            final float[] previous = arrival[k - 1];
+            final float goalBound = bestGoal();
+            List<PatternScan> results = scans.mapToObj(p -> scanPattern(p, previous, goalBound))
+                .collect(Collectors.toList());
+
+            boolean improved = false;
+            Arrays.fill(rode, false);
+            for (PatternScan scan : results) {
+                RoutePattern pattern = patterns.get(scan.pattern);
+                for (int i = 0; i < scan.count; i++) {
+                    int stop = pattern.stop(scan.alights[i]);
+                    if (scan.times[i] >= bestTrip[stop]) continue;
+                    bestTrip[stop] = scan.times[i];
+                    parentStop[k][stop] = pattern.stop(scan.boards[i]);
+                    parentPattern[k][stop] = scan.pattern;
+                    parentTrip[k][stop] = scan.trips[i];
+                    boardPosition[k][stop] = scan.boards[i];
+                    alightPosition[k][stop] = scan.alights[i];
+                    rode[stop] = true;
+                    improved = true;
+                    if (scan.times[i] < arrival[k][stop] && scan.times[i] < best[stop]) {
+                        arrival[k][stop] = scan.times[i];
+                        best[stop] = scan.times[i];
+                        kind[k][stop] = TRIP;
+                        marked[stop] = true;
+                    }
+                }
+            }
+            if (!improved) break;
+            relaxWalks(k, rode, marked);
+
+            goal = closestGoal(k);
+            if (goal != -1 && (journeys.isEmpty() || arrival[k][goal] < journeys.get(journeys.size() - 1).arrivalTime)) {
+                // A walk-only journey counts as 0 transfers, like a single trip: keep the faster one
+                if (!journeys.isEmpty() && journeys.get(journeys.size() - 1).transfers == k - 1) {
+                    journeys.remove(journeys.size() - 1);
+                }
+                journeys.add(new Journey(k - 1, arrival[k][goal], extractJourney(k, goal, isStart)));
+            }
+        }
+        return journeys;
+    }
+
+    /**
+     * Returns the goal with the earliest arrival improved in round k, or -1 if none was.
+     */
+    private int closestGoal(int k) {
+        int closest = -1;
+        for (int goal : goals) {
+            if (kind[k][goal] != NONE && (closest == -1 || arrival[k][goal] < arrival[k][closest])) {
+                closest = goal;
+            }
+        }
+        return closest;
+    }
+
+    private float bestGoal() {
+        float bound = Float.POSITIVE_INFINITY;
+        for (int goal : goals) {
+            bound = Math.min(bound, best[goal]);
+        }
+        return bound;
+    }
+
+    private void allocateRound(int k, float[] previous) {
+        int nodeCount = compact.getNodeCount();
+        if (previous == null) {
+            arrival[k] = new float[nodeCount];
+            Arrays.fill(arrival[k], Float.POSITIVE_INFINITY);
+        } else {
+            arrival[k] = Arrays.copyOf(previous, nodeCount);
+        }
+        kind[k] = new byte[nodeCount];
+        parentStop[k] = new int[nodeCount];
+        parentPattern[k] = new int[nodeCount];
+        parentTrip[k] = new int[nodeCount];
+        walkParent[k] = new int[nodeCount];
+        parentEdge[k] = new int[nodeCount];
+        boardPosition[k] = new int[nodeCount];
+        alightPosition[k] = new int[nodeCount];
+    }
+
+    /**
+     * Returns the patterns serving at least one marked stop.
+     */
+    private int[] collectPatterns(boolean[] marked) {
+        boolean[] seen = new boolean[patterns.size()];
+        int[] result = new int[16];
+        int count = 0;
+        for (int stop = 0; stop < marked.length; stop++) {
+            if (!marked[stop]) continue;
+            for (int slot = patterns.firstPatternOf(stop); slot < patterns.lastPatternOf(stop); slot++) {
+                int pattern = patterns.patternAt(slot);
+                if (seen[pattern]) continue;
+                seen[pattern] = true;
+                if (count == result.length) result = Arrays.copyOf(result, count * 2);
+                result[count++] = pattern;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Scans one pattern from its first stop: rides the current trip, records the
+     * stops it reaches earlier than known, and switches to an earlier trip
+     * whenever the previous round reached a stop in time to catch it.
+     * Only reads the shared labels, so several patterns can be scanned at once.
+     */
+    private PatternScan scanPattern(int p, float[] previous, float goalBound) {
+        RoutePattern pattern = patterns.get(p);
+        PatternScan scan = new PatternScan(p);
+        int trip = -1;
+        int board = -1;
+        for (int position = 0; position < pattern.stopCount(); position++) {
+            int stop = pattern.stop(position);
+            if (trip != -1) {
+                float time = pattern.time(trip, position);
+                if (time < bestTrip[stop] && time < goalBound) {
+                    scan.add(position, time, board, trip);
+                }
+            }
+            float reached = previous[stop];
+            if (reached != Float.POSITIVE_INFINITY && (trip == -1 || reached <= pattern.time(trip, position))) {
+                int earlier = pattern.firstTripAfter(position, reached);
+                while (earlier < pattern.tripCount() && !patterns.runs(pattern.trip(earlier), activeServices)) earlier++;
+                if (earlier < pattern.tripCount() && (trip == -1 || earlier < trip)) {
+                    trip = earlier;
+                    board = position;
+                }
+            }
+        }
+        return scan;
+    }
+
+    /**
+     * Relaxes the walking transfers of the stops reached by a trip of round k (or the
+     * starts), from the arrival of that trip, and marks the stops they improve.
+     */
+    private void relaxWalks(int k, boolean[] rode, boolean[] marked) {
+        for (int from = 0; from < rode.length; from++) {
+            if (!rode[from]) continue;
+            for (int edge = compact.firstEdge(from); edge < compact.firstTripEdge(from); edge++) {
+                int to = compact.target(edge);
+                float time = bestTrip[from] + compact.duration(edge);
+                if (time < arrival[k][to] && time < best[to]) {
+                    arrival[k][to] = time;
+                    best[to] = time;
+                    kind[k][to] |= WALK;
+                    walkParent[k][to] = from;
+                    parentEdge[k][to] = edge;
+                    marked[to] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the edges of the journey reaching stop in round k.
+     */
+    private List<Edge> extractJourney(int k, int stop, boolean[] isStart) {
+        List<Edge> edges = new ArrayList<>();
+        // A walk leaves from the trip reaching its stop in the same round (or from a start)
+        boolean walked = false;
+        while (!isStart[stop] || kind[k][stop] != NONE) {
+            if (kind[k][stop] == NONE && !walked) {
+                k--;
+            } else if ((kind[k][stop] & WALK) != 0 && !walked) {
+                edges.add(compact.edge(walkParent[k][stop], parentEdge[k][stop]));
+                stop = walkParent[k][stop];
+                walked = true;
+            } else {
+                walked = false;
+                RoutePattern pattern = patterns.get(parentPattern[k][stop]);
+                int trip = parentTrip[k][stop];
+                for (int position = alightPosition[k][stop] - 1; position >= boardPosition[k][stop]; position--) {
+                    edges.add(toEdge(pattern, trip, position));
+                }
+                stop = parentStop[k][stop];
+                k--;
+            }
+        }
+        Collections.reverse(edges);
+        return edges;
+    }
+
+    private Edge toEdge(RoutePattern pattern, int trip, int position) {
+        float departure = pattern.time(trip, position);
+        float arrivalTime = pattern.time(trip, position + 1);
+        int tripIndex = pattern.trip(trip);
+        return new Edge(compact.getStopId(pattern.stop(position)), compact.getStopId(pattern.stop(position + 1)),
+            patterns.getRouteId(pattern.getRouteIndex()), arrivalTime - departure, patterns.getTripId(tripIndex), departure);
+    }
+
+    /**
+     * Returns the edges of the earliest-arrival journey (the last one of the Pareto set).
+     */
+    public List<Edge> shortestPathEdges() {
+        List<Journey> found = paretoJourneys();
+        return found.isEmpty() ? null : found.get(found.size() - 1).edges;
+    }
+
+    public float getArrivalTime() {
+        return journeys == null || journeys.isEmpty() ? -1f : journeys.get(journeys.size() - 1).arrivalTime;
+    }
+}
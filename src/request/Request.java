@@ -6,7 +6,12 @@ import process.Road;
 import process.Stop;
 import process.StopTime;
 import common.Common;
+import metrics.Metrics;
 
+import java.io.PrintStream;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.HashMap;
 import java.util.List;
 
@@ -15,16 +20,37 @@ import graph.Edge;
 /**
  * Handles a route request between two stops, using A* search on the transport graph.
  * Stores request parameters and provides methods to execute the search and display the result.
+ * The option -CSA answers the request with the Connection Scan Algorithm instead of A*,
+ * and -RAPTOR with the RAPTOR engine, which also lists the journeys with fewer transfers
+ * (bounded by -MAXTRANSFERS=n, 5 by default).
+ * With A*, -ALT tightens the geometric heuristic (-GEO, the default) with landmark bounds,
+ * and -BIDIR runs a latest-departure search from the goals beside it (see Astar).
+ * With -DATE=YYYYMMDD, every engine only uses the trips running on that day.
+ * With -PROFILE=HH:mm:ss, the request lists every journey leaving between the
+ * departure time and that time that no journey leaving later beats (see ProfileScan).
+ * Given a ResultCache, the request is answered from it when the same query was
+ * already searched in the same departure time bucket.
  */
 public class Request {
-    Astar aStar;
+    static final int DEFAULT_MAX_TRANSFERS = 5;
+
+    Graph graph;
+    PathFinder pathFinder;
     String startName;
     String goalName;
     float startHorraire;
+    List<String> optionLst;
+    ResultCache cache;
+    // Pareto-optimal journeys of the last search, for RAPTOR
+    List<Raptor.Journey> journeys;
+    // Journeys of the window of the last search, for -PROFILE
+    List<ProfileScan.Journey> profile;
+    // Time at which the path found leaves the start
+    float departureTime;
 
     /**
      * Constructs a Request object with the given parameters.
-     * Initializes the A* search with the provided graph and options.
+     * Initializes the search engine selected by the options with the provided graph.
      * @param startName Name of the departure stop
      * @param goalName Name of the arrival stop
      * @param startHorraire Departure time as string (HH:mm:ss)
@@ -32,10 +58,115 @@ public class Request {
      * @param optionLst List of user options (e.g., preferred/avoided modes)
      */
     public Request(String startName, String goalName, String startHorraire, Graph graph, List<String> optionLst) {
+        this(startName, goalName, startHorraire, graph, optionLst, null);
+    }
+
+    /**
+     * Same as above, answering from the given cache when possible. The search then
+     * departs at the end of the time bucket of startHorraire (see ResultCache.bucketOf).
+     * @param cache the answers of the previous queries on this graph, or null
+     */
+    public Request(String startName, String goalName, String startHorraire, Graph graph, List<String> optionLst, ResultCache cache) {
         this.startName = startName;
         this.goalName = goalName;
         this.startHorraire = Common.HoraireToFloat(startHorraire);
-        this.aStar = new Astar(graph, startName, goalName, this.startHorraire, optionLst);
+        if (cache != null) this.startHorraire = cache.bucketOf(this.startHorraire);
+        this.departureTime = this.startHorraire;
+        this.graph = graph;
+        this.optionLst = optionLst;
+        this.cache = cache;
+        float windowEnd = getWindowEnd(optionLst);
+        if (windowEnd >= 0) {
+            this.pathFinder = new ProfileScan(graph, startName, goalName, this.startHorraire, windowEnd, getDate(optionLst));
+        } else if (optionLst.contains("-CSA")) {
+            this.pathFinder = new ConnectionScan(graph, startName, goalName, this.startHorraire, getDate(optionLst));
+        } else if (optionLst.contains("-RAPTOR")) {
+            this.pathFinder = new Raptor(graph, startName, goalName, this.startHorraire, getMaxTransfers(optionLst), getDate(optionLst));
+        } else {
+            this.pathFinder = new Astar(graph, startName, goalName, this.startHorraire, optionLst);
+        }
+    }
+
+    /**
+     * Reads the -MAXTRANSFERS=n option, or returns the default bound.
+     */
+    private static int getMaxTransfers(List<String> optionLst) {
+        for (String option : optionLst) {
+            if (option.startsWith("-MAXTRANSFERS=")) {
+                try {
+                    return Integer.parseInt(option.substring("-MAXTRANSFERS=".length()));
+                } catch (NumberFormatException e) {
+                    System.err.println("Option invalide : " + option);
+                }
+            }
+        }
+        return DEFAULT_MAX_TRANSFERS;
+    }
+
+    /**
+     * Reads the -PROFILE=HH:mm:ss option, the latest departure of a profile request.
+     * @return the latest departure in minutes, or -1 for a single departure time
+     * @throws IllegalArgumentException if the time is invalid
+     */
+    public static float getWindowEnd(List<String> optionLst) {
+        for (String option : optionLst) {
+            if (option.startsWith("-PROFILE=")) {
+                try {
+                    return Common.HoraireToFloat(option.substring("-PROFILE=".length()));
+                } catch (RuntimeException e) {
+                    throw new IllegalArgumentException("Heure invalide : " + option, e);
+                }
+            }
+        }
+        return -1f;
+    }
+
+    /**
+     * Reads the -DATE=YYYYMMDD option.
+     * @return the day of the journey, or null to use every trip
+     * @throws IllegalArgumentException if the date is invalid
+     */
+    public static LocalDate getDate(List<String> optionLst) {
+        for (String option : optionLst) {
+            if (option.startsWith("-DATE=")) {
+                try {
+                    return LocalDate.parse(option.substring("-DATE=".length()), DateTimeFormatter.BASIC_ISO_DATE);
+                } catch (DateTimeParseException e) {
+                    throw new IllegalArgumentException("Date invalide : " + option, e);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Displays the other Pareto-optimal journeys: with fewer transfers and a later
+     * arrival for the RAPTOR engine, leaving later in the window for -PROFILE.
+     * Does nothing for the other engines.
+     */
+    public void viewAlternatives() {
+        viewAlternatives(System.out);
+    }
+
+    /**
+     * Same as viewAlternatives(), printing to the given stream.
+     */
+    public void viewAlternatives(PrintStream out) {
+        if (profile != null) {
+            for (int i = 1; i < profile.size(); i++) {
+                ProfileScan.Journey journey = profile.get(i);
+                out.printf("\n--- Departure at %s, arrival at %s ---\n",
+                    Common.floatToHoraire(journey.getDepartureTime()), Common.floatToHoraire(journey.getArrivalTime()));
+                if (journey.getEdges() != null) view(journey.getEdges(), out, journey.getDepartureTime());
+            }
+        }
+        if (journeys == null) return;
+        for (int i = journeys.size() - 2; i >= 0; i--) {
+            Raptor.Journey journey = journeys.get(i);
+            out.printf("\n--- Alternative with %d transfer(s), arrival at %s ---\n",
+                journey.getTransfers(), Common.floatToHoraire(journey.getArrivalTime()));
+            view(journey.getEdges(), out);
+        }
     }
 
     /**
@@ -44,20 +175,31 @@ public class Request {
      * @param pathEdges List of edges representing the path
      */
     public void view(List<Edge> pathEdges) {
-        Graph graph = aStar.graph;
+        view(pathEdges, System.out);
+    }
+
+    /**
+     * Same as view(pathEdges), printing to the given stream.
+     * @param pathEdges List of edges representing the path
+     * @param out Stream receiving the description of the path
+     */
+    public void view(List<Edge> pathEdges, PrintStream out) {
+        view(pathEdges, out, departureTime);
+    }
+
+    private void view(List<Edge> pathEdges, PrintStream out, float departure) {
         HashMap<String, Stop> stopMap = graph.getStopMap();
-        HashMap<String, String> tripMap = graph.getTripMap();
         HashMap<String, Road> roadMap = graph.getRoadMap();
         HashMap<String, StopTime> stopTimeMap = graph.getStopTimeMap();
 
         int i = 0;
-        float lastArrival = startHorraire; 
+        float lastArrival = departure;
         while (i < pathEdges.size()) {
             Edge edge = pathEdges.get(i);
 
             String mode = edge.getRoadId();
             String tripId = edge.getTripId();
-            String routeId = tripId != null ? tripMap.get(tripId) : null;
+            String routeId = tripId != null ? graph.getRouteIdOfTrip(tripId) : null;
             Road road = (routeId != null) ? roadMap.get(routeId) : null;
             String transportType = "WALK".equals(mode) ? "WALK" : (road != null ? road.getTransportType() : "UNKNOWN");
             String lineName = "WALK".equals(mode) ? "" : (road != null ? road.getRoadShortName() : "");
@@ -75,7 +217,7 @@ public class Request {
             while (j + 1 < pathEdges.size()) {
                 Edge next = pathEdges.get(j + 1);
                 String nextTripId = next.getTripId();
-                String nextRouteId = nextTripId != null ? tripMap.get(nextTripId) : null;
+                String nextRouteId = nextTripId != null ? graph.getRouteIdOfTrip(nextTripId) : null;
                 Road nextRoad = (nextRouteId != null) ? roadMap.get(nextRouteId) : null;
                 String nextLineName = (nextRoad != null) ? nextRoad.getRoadShortName() : "";
 
@@ -99,10 +241,10 @@ public class Request {
                 }
                 String walkStartTime = Common.floatToHoraire(lastArrival);
                 String walkEndTime = Common.floatToHoraire(lastArrival + totalWalkDuration);
-                System.out.printf("Walk from %s (%s) to %s (%s)\n", startStopName, walkStartTime, endStopName, walkEndTime);
+                out.printf("Walk from %s (%s) to %s (%s)\n", startStopName, walkStartTime, endStopName, walkEndTime);
                 lastArrival += totalWalkDuration;
             } else {
-                System.out.printf("Take %s %s %s from %s (%s) to %s (%s)\n", company, transportType, lineName, startStopName, startTime, endStopName, endTime);
+                out.printf("Take %s %s %s from %s (%s) to %s (%s)\n", company, transportType, lineName, startStopName, startTime, endStopName, endTime);
                 if (endTime != null && !endTime.isEmpty()) {
                     String[] parts = endTime.split(":");
                     float arr = Integer.parseInt(parts[0]) * 60 + Integer.parseInt(parts[1]) + Integer.parseInt(parts[2]) / 60f;
@@ -115,21 +257,61 @@ public class Request {
     }
 
     /**
-     * Executes the A* search and returns the list of edges representing the shortest path.
+     * Executes the search and returns the list of edges representing the shortest path.
      * Prints a message if no path is found.
      * @return List of edges for the path, or null if not found
      */
     public List<Edge> doRequest() {
-        List<Edge> pathEdges = aStar.shortestPathEdges();
-        if (pathEdges == null || pathEdges.isEmpty()) {
+        List<Edge> pathEdges = search();
+        if (pathEdges == null) {
             System.out.println("Aucun chemin trouvé.");
-            return null;
         }
         return pathEdges;
     }
 
     /**
-     * Helper to get the scheduled time for a stop in a given edge/trip.
+     * Executes the search without printing anything, reporting its time to the
+     * metrics of the graph. With a cache, a query already searched is answered
+     * from it, and a new one is added to it.
+     * @return List of edges for the path, or null if not found
+     */
+    public List<Edge> search() {
+        Metrics metrics = graph.getMetrics();
+        ResultCache.Key key = null;
+        if (cache != null) {
+            key = cache.key(graph.getStopIdsViaName(startName), graph.getStopIdsViaName(goalName), startHorraire, optionLst);
+            ResultCache.Result cached = cache.get(key, metrics);
+            if (cached != null) {
+                journeys = cached.journeys;
+                setProfile(cached.profile);
+                return cached.path;
+            }
+        }
+
+        long startTime = System.nanoTime();
+        List<Edge> pathEdges = pathFinder.shortestPathEdges();
+        if (pathEdges != null && pathEdges.isEmpty()) pathEdges = null;
+        journeys = pathFinder instanceof Raptor ? ((Raptor) pathFinder).journeys : null;
+        if (pathFinder instanceof ProfileScan) setProfile(((ProfileScan) pathFinder).getJourneys());
+        if (metrics.isEnabled()) {
+            double millis = (System.nanoTime() - startTime) / 1_000_000.0;
+            metrics.observe("request.search_ms", millis);
+            metrics.recordQuery(startName + " -> " + goalName + " " + Common.floatToHoraire(startHorraire) + " " + optionLst, millis);
+        }
+        if (cache != null) {
+            cache.put(key, new ResultCache.Result(pathEdges, journeys, profile), metrics);
+        }
+        return pathEdges;
+    }
+
+    private void setProfile(List<ProfileScan.Journey> profile) {
+        this.profile = profile;
+        if (profile != null && !profile.isEmpty()) departureTime = profile.get(0).getDepartureTime();
+    }
+
+    /**
+     * Helper to get the scheduled time for a stop in a given edge/trip, or its
+     * real-time time when the trip was updated.
      * @param stopTimeMap Map of tripId to StopTime
      * @param edge The edge (segment) of the path
      * @param stopId The stop ID to look up
@@ -137,14 +319,11 @@ public class Request {
      */
     private String getEdgeTime(HashMap<String, StopTime> stopTimeMap, Edge edge, String stopId) {
         if (edge.getTripId() == null) return "";
+        String realtime = graph.getRealtimeHoraire(edge.getTripId(), stopId);
+        if (realtime != null) return realtime;
         StopTime stopTime = stopTimeMap.get(edge.getTripId());
         if (stopTime == null) return "";
-        for (var entry : stopTime.getItinerary().entrySet()) {
-            List<String> stopInfo = entry.getValue();
-            if (stopInfo.get(0).equals(stopId)) {
-                return stopInfo.get(1);
-            }
-        }
-        return "";
+        String horaire = stopTime.getHoraire(stopId);
+        return horaire == null ? "" : horaire;
     }
 }
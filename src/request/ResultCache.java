@@ -0,0 +1,174 @@
+package request;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+import graph.Edge;
+import metrics.Metrics;
+
+/**
+ * Bounded cache of the answers of the routing queries, evicting the least recently
+ * used one when full. A query is identified by its resolved start and goal stops,
+ * its departure time rounded up to a bucket and its normalized options, so the
+ * same pair asked again within a bucket is answered without searching.
+ * The searches of a cached graph start at the end of the bucket (see bucketOf), which
+ * keeps every answer of a bucket catchable by all the queries of that bucket.
+ * The cache belongs to one graph: a graph loaded from a new snapshot starts with its
+ * own empty cache, and invalidate() empties it when the network changes in place.
+ * Hits, misses and evictions are counted in the metrics of the graph.
+ */
+public class ResultCache {
+    public static final int DEFAULT_CAPACITY = 10_000;
+    public static final int DEFAULT_BUCKET_SECONDS = 60;
+    // Options that do not change the answer of a query
+    static final Set<String> IGNORED_OPTIONS = Set.of("-METRICS", "-COMPARE", "-NOSNAPSHOT", "-JMX");
+
+    int capacity;
+    int bucketSeconds;
+    LinkedHashMap<Key, Result> entries;
+
+    /**
+     * Key of a query, comparable between requests.
+     */
+    static class Key {
+        List<String> starts;
+        List<String> goals;
+        int bucket;
+        Set<String> options;
+
+        Key(List<String> starts, List<String> goals, int bucket, Set<String> options) {
+            this.starts = starts;
+            this.goals = goals;
+            this.bucket = bucket;
+            this.options = options;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (!(other instanceof Key)) return false;
+            Key key = (Key) other;
+            return bucket == key.bucket && starts.equals(key.starts) && goals.equals(key.goals) && options.equals(key.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(starts, goals, bucket, options);
+        }
+    }
+
+    /**
+     * Answer of a query: the path (null if none was found) and the other journeys,
+     * for RAPTOR and -PROFILE. They are only read once cached.
+     */
+    static class Result {
+        List<Edge> path;
+        List<Raptor.Journey> journeys;
+        List<ProfileScan.Journey> profile;
+
+        Result(List<Edge> path, List<Raptor.Journey> journeys, List<ProfileScan.Journey> profile) {
+            this.path = path;
+            this.journeys = journeys;
+            this.profile = profile;
+        }
+    }
+
+    /**
+     * Creates a cache of DEFAULT_CAPACITY answers with one-minute buckets.
+     */
+    public ResultCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_BUCKET_SECONDS);
+    }
+
+    /**
+     * @param capacity the maximal number of answers kept
+     * @param bucketSeconds the width of the departure time buckets, in seconds
+     */
+    public ResultCache(int capacity, int bucketSeconds) {
+        if (capacity <= 0) throw new IllegalArgumentException("Taille du cache invalide : " + capacity);
+        if (bucketSeconds <= 0) throw new IllegalArgumentException("Intervalle du cache invalide : " + bucketSeconds);
+        this.capacity = capacity;
+        this.bucketSeconds = bucketSeconds;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Rounds a departure time up to the end of its bucket. Searching from the
+     * rounded time never gives a connection the traveler could miss, at the cost
+     * of at most one bucket of waiting.
+     * @param time the departure time, in minutes
+     * @return the rounded time, in minutes
+     */
+    public float bucketOf(float time) {
+        return bucketIndex(time) * bucketSeconds / 60f;
+    }
+
+    int bucketIndex(float time) {
+        return (int) Math.ceil(Math.round(time * 60f) / (double) bucketSeconds);
+    }
+
+    /**
+     * Builds the key of a query.
+     * @param starts the resolved start stops
+     * @param goals the resolved goal stops
+     * @param time the departure time, in minutes
+     * @param optionLst the options of the query, whose order and repetitions do not matter
+     */
+    Key key(List<String> starts, List<String> goals, float time, List<String> optionLst) {
+        Set<String> options = new TreeSet<>(optionLst);
+        options.removeAll(IGNORED_OPTIONS);
+        return new Key(List.copyOf(starts), List.copyOf(goals), bucketIndex(time), options);
+    }
+
+    /**
+     * Returns the cached answer of a query, or null if it is not cached.
+     */
+    Result get(Key key, Metrics metrics) {
+        Result result;
+        synchronized (entries) {
+            result = entries.get(key);
+        }
+        metrics.increment(result == null ? "cache.misses" : "cache.hits", 1);
+        return result;
+    }
+
+    /**
+     * Caches the answer of a query, evicting the least recently used one if full.
+     */
+    void put(Key key, Result result, Metrics metrics) {
+        boolean evicted = false;
+        synchronized (entries) {
+            entries.put(key, result);
+            if (entries.size() > capacity) {
+                Map.Entry<Key, Result> eldest = entries.entrySet().iterator().next();
+                entries.remove(eldest.getKey());
+                evicted = true;
+            }
+        }
+        if (evicted) metrics.increment("cache.evictions", 1);
+    }
+
+    /**
+     * Forgets every answer, to be called when the network of the graph changes.
+     */
+    public void invalidate() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /*
+     * Getter of the class
+     */
+    public int getCapacity() { return capacity; }
+    public int getBucketSeconds() { return bucketSeconds; }
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package request;
+
+import java.util.Arrays;
+
+import graph.IndexedMinHeap;
+
+/**
+ * Per-thread working memory of a graph search, reused from one query to the next.
+ * The labels (gScore, parent node, edge and trip, walk after the trip, earliest
+ * arrival by a trip and its parent, edge and trip, closed and goal flags) are arrays
+ * indexed by node. Instead of being cleared, they are invalidated in O(1) by bumping
+ * the generation: a label only counts if its stamp equals the current generation.
+ * A context belongs to one thread (see acquire), so several threads can search
+ * the same graph at once without sharing anything mutable.
+ */
+class SearchContext {
+    private static final ThreadLocal<SearchContext> POOL = ThreadLocal.withInitial(SearchContext::new);
+
+    private static final int CLOSED = 1;
+    private static final int GOAL = 2;
+
+    int generation;
+    int[] stamp = new int[0];
+    byte[] flags = new byte[0];
+    float[] gScore = new float[0];
+    int[] cameFrom = new int[0];
+    int[] edgeFrom = new int[0];
+    int[] tripFrom = new int[0];
+    int[] walkFrom = new int[0];
+    float[] tripScore = new float[0];
+    int[] tripCameFrom = new int[0];
+    int[] tripEdgeFrom = new int[0];
+    int[] tripTripFrom = new int[0];
+    IndexedMinHeap heap = new IndexedMinHeap(0);
+
+    /**
+     * Returns the context of the calling thread, reset for a search over nodeCount nodes.
+     */
+    static SearchContext acquire(int nodeCount) {
+        SearchContext context = POOL.get();
+        context.reset(nodeCount);
+        return context;
+    }
+
+    private void reset(int nodeCount) {
+        if (stamp.length < nodeCount) {
+            stamp = new int[nodeCount];
+            flags = new byte[nodeCount];
+            gScore = new float[nodeCount];
+            cameFrom = new int[nodeCount];
+            edgeFrom = new int[nodeCount];
+            tripFrom = new int[nodeCount];
+            walkFrom = new int[nodeCount];
+            tripScore = new float[nodeCount];
+            tripCameFrom = new int[nodeCount];
+            tripEdgeFrom = new int[nodeCount];
+            tripTripFrom = new int[nodeCount];
+            generation = 0;
+        }
+        heap.ensureCapacity(nodeCount);
+        heap.clear();
+        heap.resetCounts();
+        if (++generation == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            generation = 1;
+        }
+    }
+
+    /**
+     * Creates the label of a node for this search if it has none yet.
+     */
+    private void touch(int node) {
+        if (stamp[node] != generation) {
+            stamp[node] = generation;
+            flags[node] = 0;
+            gScore[node] = Float.POSITIVE_INFINITY;
+            cameFrom[node] = -1;
+            edgeFrom[node] = -1;
+            tripFrom[node] = -1;
+            walkFrom[node] = -1;
+            tripScore[node] = Float.POSITIVE_INFINITY;
+        }
+    }
+
+    float g(int node) {
+        return stamp[node] == generation ? gScore[node] : Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Records that node is reached at time g from parent through a trip (its position
+     * in the pattern of the segment edge, -1 for the start), then the walking edge walk
+     * leaving the end of the trip (-1 if node is the end of the trip).
+     */
+    void label(int node, float g, int parent, int edge, int trip, int walk) {
+        touch(node);
+        gScore[node] = g;
+        cameFrom[node] = parent;
+        edgeFrom[node] = edge;
+        tripFrom[node] = trip;
+        walkFrom[node] = walk;
+    }
+
+    /**
+     * Records that node is reached at time g by a trip from parent through edge (-1 for
+     * the start), the arrival the walks leaving node start from, even if node is reached
+     * earlier on foot.
+     */
+    void labelTrip(int node, float g, int parent, int edge, int trip) {
+        touch(node);
+        tripScore[node] = g;
+        tripCameFrom[node] = parent;
+        tripEdgeFrom[node] = edge;
+        tripTripFrom[node] = trip;
+    }
+
+    float tripG(int node) {
+        return stamp[node] == generation ? tripScore[node] : Float.POSITIVE_INFINITY;
+    }
+
+    int tripParent(int node) {
+        return stamp[node] == generation ? tripCameFrom[node] : -1;
+    }
+
+    int tripEdge(int node) {
+        return stamp[node] == generation ? tripEdgeFrom[node] : -1;
+    }
+
+    int tripTrip(int node) {
+        return stamp[node] == generation ? tripTripFrom[node] : -1;
+    }
+
+    int parent(int node) {
+        return stamp[node] == generation ? cameFrom[node] : -1;
+    }
+
+    int edge(int node) {
+        return stamp[node] == generation ? edgeFrom[node] : -1;
+    }
+
+    int trip(int node) {
+        return stamp[node] == generation ? tripFrom[node] : -1;
+    }
+
+    int walk(int node) {
+        return stamp[node] == generation ? walkFrom[node] : -1;
+    }
+
+    boolean isClosed(int node) {
+        return stamp[node] == generation && (flags[node] & CLOSED) != 0;
+    }
+
+    void close(int node) {
+        touch(node);
+        flags[node] |= CLOSED;
+    }
+
+    void reopen(int node) {
+        if (stamp[node] == generation) flags[node] &= ~CLOSED;
+    }
+
+    boolean isGoal(int node) {
+        return stamp[node] == generation && (flags[node] & GOAL) != 0;
+    }
+
+    /**
+     * Marks a goal of this search, so that it is recognized in O(1) whatever the number of goals.
+     */
+    void markGoal(int node) {
+        touch(node);
+        flags[node] |= GOAL;
+    }
+}
@@ -0,0 +1,151 @@
+package request;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import graph.CompactGraph;
+import graph.ConnectionTable;
+import graph.Graph;
+
+/**
+ * Earliest arrival times from a set of source stops to a set of target stops.
+ * Each source is searched once for every target: a one-to-all Connection Scan with
+ * no goal, which only stops when every target is reached and no later connection
+ * can improve it. The sources are searched in parallel on the common fork-join
+ * pool, each thread keeping its own arrays from one source to the next.
+ * As with ConnectionScan, the result is the exact earliest arrival, without the
+ * user preferences on transport modes.
+ */
+public class TravelTimeMatrix {
+    // Connections scanned between two checks of the targets
+    private static final int CHECK_INTERVAL = 1024;
+
+    Graph graph;
+    CompactGraph compact;
+    ConnectionTable connections;
+    ThreadLocal<Scan> scans;
+
+    /**
+     * Working memory of the scans of one thread.
+     */
+    class Scan {
+        float[] earliest = new float[compact.getNodeCount()];
+        // Earliest arrival by a trip or at the start, from which the walks leave
+        float[] tripEarliest = new float[compact.getNodeCount()];
+        boolean[] boarded = new boolean[connections.getTripCount()];
+    }
+
+    /**
+     * Prepares the matrices of the given graph.
+     */
+    public TravelTimeMatrix(Graph graph) {
+        this.graph = graph;
+        this.compact = graph.getCompactGraph();
+        this.connections = graph.getConnectionTable();
+        this.scans = ThreadLocal.withInitial(Scan::new);
+    }
+
+    /**
+     * Computes the arrival times from every source to every target.
+     * A stop name stands for every stop carrying it (all the platforms of a station).
+     * @param sources the names of the departure stops
+     * @param targets the names of the arrival stops
+     * @param startTime the departure time, in minutes
+     * @param date the day of the journeys, or null to use every trip
+     * @return the arrival times in minutes, indexed by source then target, -1 if unreachable
+     */
+    public float[][] compute(List<String> sources, List<String> targets, float startTime, LocalDate date) {
+        long[] activeServices = graph.getActiveServices(date);
+        int[][] targetStops = new int[targets.size()][];
+        for (int t = 0; t < targetStops.length; t++) {
+            targetStops[t] = compact.indicesOf(graph.getStopIdsViaName(targets.get(t)));
+        }
+        int[] allTargets = Arrays.stream(targetStops).flatMapToInt(Arrays::stream).distinct().toArray();
+
+        float[][] arrivals = new float[sources.size()][];
+        IntStream.range(0, sources.size()).parallel().forEach(s -> {
+            int[] starts = compact.indicesOf(graph.getStopIdsViaName(sources.get(s)));
+            float[] earliest = scan(starts, startTime, activeServices, allTargets, Float.POSITIVE_INFINITY);
+            float[] row = new float[targetStops.length];
+            for (int t = 0; t < row.length; t++) {
+                float best = Float.POSITIVE_INFINITY;
+                for (int stop : targetStops[t]) best = Math.min(best, earliest[stop]);
+                row[t] = best == Float.POSITIVE_INFINITY ? -1f : best;
+            }
+            arrivals[s] = row;
+        });
+        return arrivals;
+    }
+
+    /**
+     * Runs a one-to-all scan from the given stops, up to the connections departing
+     * at the given time, or before if every target is reached earlier (none given, the
+     * scan goes on until then).
+     * @return the earliest arrival at every stop, owned by the calling thread until its next scan
+     */
+    float[] scan(int[] starts, float startTime, long[] activeServices, int[] targets, float until) {
+        Scan scan = scans.get();
+        float[] earliest = scan.earliest;
+        float[] tripEarliest = scan.tripEarliest;
+        boolean[] boarded = scan.boarded;
+        Arrays.fill(earliest, Float.POSITIVE_INFINITY);
+        Arrays.fill(tripEarliest, Float.POSITIVE_INFINITY);
+        Arrays.fill(boarded, false);
+        if (starts.length == 0) return earliest;
+
+        for (int start : starts) {
+            earliest[start] = startTime;
+            tripEarliest[start] = startTime;
+        }
+        for (int start : starts) {
+            relaxWalks(earliest, start, startTime);
+        }
+
+        ConnectionTable.Cursor cursor = connections.departingFrom(startTime);
+        int scanned = 0;
+        for (int c = cursor.next(); c >= 0; c = cursor.next()) {
+            float departure = connections.departureTime(c);
+            if (departure >= until) break;
+            // Nothing departing later can arrive earlier at a target
+            if ((scanned++ & (CHECK_INTERVAL - 1)) == 0 && targets.length > 0 && allReachedBefore(earliest, targets, departure)) break;
+            if (!connections.runs(c, activeServices)) continue;
+
+            int trip = connections.trip(c);
+            if (!boarded[trip]) {
+                if (earliest[connections.departureStop(c)] > departure) continue;
+                boarded[trip] = true;
+            }
+
+            int arrivalStop = connections.arrivalStop(c);
+            float arrival = connections.arrivalTime(c);
+            if (arrival < tripEarliest[arrivalStop]) {
+                tripEarliest[arrivalStop] = arrival;
+                if (arrival < earliest[arrivalStop]) earliest[arrivalStop] = arrival;
+                relaxWalks(earliest, arrivalStop, arrival);
+            }
+        }
+        return earliest;
+    }
+
+    private static boolean allReachedBefore(float[] earliest, int[] targets, float time) {
+        for (int target : targets) {
+            if (earliest[target] > time) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Relaxes the walking transfers of a stop just reached by a trip or at the start
+     * (they are closed, so a stop reached on foot is not walked from again).
+     * @param reached the arrival of the trip, or the start time
+     */
+    private void relaxWalks(float[] earliest, int from, float reached) {
+        for (int edge = compact.firstEdge(from); edge < compact.firstTripEdge(from); edge++) {
+            int to = compact.target(edge);
+            float time = reached + compact.duration(edge);
+            if (time < earliest[to]) earliest[to] = time;
+        }
+    }
+}
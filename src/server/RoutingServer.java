@@ -0,0 +1,362 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import common.Common;
+import graph.Edge;
+import graph.Graph;
+import metrics.MetricsRegistry;
+import metrics.TextExporter;
+import process.TripUpdate;
+import request.Request;
+import request.ResultCache;
+
+/**
+ * HTTP server answering routing queries against a graph loaded once.
+ * GET /route?from=<start>&to=<goal>&time=HH:mm:ss[&option=-CSA&option=-DATE=YYYYMMDD...]
+ * returns the path as printed by Request.view, in plain text (404 with the closest
+ * names if a stop name is unknown).
+ * GET /autocomplete?q=<typed>[&limit=10] returns the suggested stop names, one per line.
+ * GET /metrics returns the metrics of the queries answered so far, as text.
+ * POST /reload loads the network again (from a newer snapshot or GTFS files) and
+ * switches the new queries to it, when a loader was given.
+ * POST /realtime reads the trip updates feed again, when one was given, and switches
+ * the new queries to the next version of the graph (see Graph.withUpdates).
+ * The answers are kept in a ResultCache, so a route asked again within the same
+ * minute is not searched again; each loaded network gets its own empty cache.
+ * Each query gets its own Request (and so its own search state), so the queries
+ * run side by side on a fixed pool of worker threads sharing the read-only graph.
+ * When every worker is busy and the queue is full, the dispatcher thread runs the
+ * query itself, which stops accepting new connections until a worker is free.
+ */
+public class RoutingServer {
+    public static final int DEFAULT_PORT = 8080;
+    // Queries waiting for a worker, per worker
+    private static final int QUEUE_PER_THREAD = 64;
+    private static final int DEFAULT_SUGGESTIONS = 10;
+
+    // Written by reload(): graph first, then cache, so a query reading the cache
+    // first never caches an answer of the old network in the new cache
+    volatile Graph graph;
+    volatile ResultCache cache;
+    int port;
+    int threads;
+    MetricsRegistry metrics;
+    Supplier<Graph> loader;
+    Supplier<List<TripUpdate>> feed;
+    HttpServer server;
+    ThreadPoolExecutor executor;
+
+    /**
+     * Prepares a server for the given graph.
+     * @param graph the transport graph, already built
+     * @param port the port to listen on
+     * @param threads the number of worker threads
+     */
+    public RoutingServer(Graph graph, int port, int threads) {
+        this(graph, port, threads, new MetricsRegistry());
+    }
+
+    /**
+     * Prepares a server for the given graph, whose queries report to the given metrics.
+     * @param metrics the metrics served on /metrics
+     */
+    public RoutingServer(Graph graph, int port, int threads, MetricsRegistry metrics) {
+        this(graph, port, threads, metrics, new ResultCache());
+    }
+
+    /**
+     * Prepares a server for the given graph, answering repeated queries from the given cache.
+     * @param cache the empty cache of the answers, or null to search every query
+     */
+    public RoutingServer(Graph graph, int port, int threads, MetricsRegistry metrics, ResultCache cache) {
+        this.graph = graph;
+        this.cache = cache;
+        this.port = port;
+        this.threads = Math.max(1, threads);
+        this.metrics = metrics;
+        graph.setMetrics(metrics);
+    }
+
+    /**
+     * Sets how POST /reload loads the network again (disabled while null).
+     */
+    public void setLoader(Supplier<Graph> loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Sets how POST /realtime reads the trip updates (disabled while null).
+     */
+    public void setRealtimeFeed(Supplier<List<TripUpdate>> feed) {
+        this.feed = feed;
+    }
+
+    /**
+     * Switches the new queries to another network, with an empty cache. The queries
+     * already running finish on the previous one.
+     * @param graph the new transport graph, already built
+     */
+    public synchronized void reload(Graph graph) {
+        publish(graph);
+        metrics.increment("server.reloads", 1);
+    }
+
+    /**
+     * Applies real-time updates to the network and switches the new queries to the
+     * updated version, with an empty cache. The queries already running finish on
+     * the previous version, which the updates leave unchanged.
+     * @param updates the trip updates, in order
+     * @return the updated graph
+     */
+    public synchronized Graph update(List<TripUpdate> updates) {
+        Graph updated = graph.withUpdates(updates);
+        publish(updated);
+        metrics.increment("server.realtime_updates", 1);
+        return updated;
+    }
+
+    private void publish(Graph graph) {
+        graph.setMetrics(metrics);
+        ResultCache previous = cache;
+        this.graph = graph;
+        if (previous != null) {
+            this.cache = new ResultCache(previous.getCapacity(), previous.getBucketSeconds());
+            previous.invalidate();
+        }
+    }
+
+    /**
+     * Starts listening; the server then runs on its own threads until stop() is called.
+     */
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(threads * QUEUE_PER_THREAD), new ThreadPoolExecutor.CallerRunsPolicy());
+        server.setExecutor(executor);
+        server.createContext("/route", this::handleRoute);
+        server.createContext("/autocomplete", this::handleAutocomplete);
+        server.createContext("/metrics", this::handleMetrics);
+        server.createContext("/reload", this::handleReload);
+        server.createContext("/realtime", this::handleRealtime);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
+        System.out.printf("- Server listening on port %d with %d threads\n", server.getAddress().getPort(), threads);
+    }
+
+    /**
+     * Stops accepting queries and waits for the running ones.
+     */
+    public void stop() {
+        if (server == null) return;
+        server.stop(1);
+        executor.shutdown();
+        server = null;
+    }
+
+    private void handleRoute(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, "Méthode non supportée : " + exchange.getRequestMethod());
+                return;
+            }
+            Map<String, List<String>> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            String from = first(params, "from");
+            String to = first(params, "to");
+            String time = first(params, "time");
+            if (from == null || to == null || time == null) {
+                send(exchange, 400, "Paramètres attendus : from, to, time (HH:mm:ss)");
+                return;
+            }
+            List<String> optionLst = params.getOrDefault("option", new ArrayList<>());
+
+            try {
+                Common.HoraireToFloat(time);
+            } catch (RuntimeException e) {
+                send(exchange, 400, "Heure invalide : " + time);
+                return;
+            }
+            try {
+                Request.getDate(optionLst);
+                Request.getWindowEnd(optionLst);
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, e.getMessage());
+                return;
+            }
+
+            ResultCache cache = this.cache;
+            Graph graph = this.graph;
+            try {
+                graph.checkStopName(from);
+                graph.checkStopName(to);
+            } catch (IllegalArgumentException e) {
+                send(exchange, 404, e.getMessage());
+                return;
+            }
+            Request request = new Request(from, to, time, graph, optionLst, cache);
+            List<Edge> path = request.search();
+            if (path == null) {
+                send(exchange, 404, "Aucun chemin trouvé.");
+                return;
+            }
+
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            PrintStream out = new PrintStream(buffer, false, "UTF-8");
+            request.view(path, out);
+            request.viewAlternatives(out);
+            out.flush();
+            send(exchange, 200, buffer.toByteArray());
+        } catch (RuntimeException e) {
+            send(exchange, 500, "Erreur : " + e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleAutocomplete(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, "Méthode non supportée : " + exchange.getRequestMethod());
+                return;
+            }
+            Map<String, List<String>> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            String typed = first(params, "q");
+            if (typed == null) {
+                send(exchange, 400, "Paramètres attendus : q, limit (optionnel)");
+                return;
+            }
+            int limit = DEFAULT_SUGGESTIONS;
+            String limitText = first(params, "limit");
+            if (limitText != null) {
+                try {
+                    limit = Integer.parseInt(limitText);
+                } catch (NumberFormatException e) {
+                    limit = -1;
+                }
+                if (limit <= 0) {
+                    send(exchange, 400, "Limite invalide : " + limitText);
+                    return;
+                }
+            }
+
+            StringBuilder body = new StringBuilder();
+            for (String name : graph.getStopNameIndex().autocomplete(typed, limit)) {
+                body.append(name).append('\n');
+            }
+            send(exchange, 200, body.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {
+            send(exchange, 500, "Erreur : " + e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, "Méthode non supportée : " + exchange.getRequestMethod());
+                return;
+            }
+            send(exchange, 200, TextExporter.export(metrics).getBytes(StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {
+            send(exchange, 500, "Erreur : " + e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleReload(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, "Méthode non supportée : " + exchange.getRequestMethod());
+                return;
+            }
+            if (loader == null) {
+                send(exchange, 404, "Rechargement du réseau non disponible.");
+                return;
+            }
+            synchronized (this) {
+                reload(loader.get());
+            }
+            send(exchange, 200, "Réseau rechargé.");
+        } catch (RuntimeException e) {
+            send(exchange, 500, "Erreur : " + e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleRealtime(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, "Méthode non supportée : " + exchange.getRequestMethod());
+                return;
+            }
+            if (feed == null) {
+                send(exchange, 404, "Flux temps réel non disponible.");
+                return;
+            }
+            Graph updated;
+            synchronized (this) {
+                updated = update(feed.get());
+            }
+            send(exchange, 200, "Réseau mis à jour (version " + updated.getRealtimeVersion() + ", "
+                + updated.getRealtimeTripCount() + " courses en temps réel).");
+        } catch (RuntimeException e) {
+            send(exchange, 500, "Erreur : " + e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Splits a raw query string into its decoded parameters (a name may be repeated).
+     */
+    static Map<String, List<String>> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, List<String>> params = new HashMap<>();
+        if (query == null || query.isEmpty()) return params;
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) continue;
+            int equal = pair.indexOf('=');
+            String name = URLDecoder.decode(equal < 0 ? pair : pair.substring(0, equal), "UTF-8");
+            String value = equal < 0 ? "" : URLDecoder.decode(pair.substring(equal + 1), "UTF-8");
+            params.computeIfAbsent(name, key -> new ArrayList<>()).add(value);
+        }
+        return params;
+    }
+
+    private static String first(Map<String, List<String>> params, String name) {
+        List<String> values = params.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    private static void send(HttpExchange exchange, int status, String text) throws IOException {
+        send(exchange, status, (text + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}